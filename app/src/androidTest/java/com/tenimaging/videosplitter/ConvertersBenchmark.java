@@ -0,0 +1,119 @@
+package com.tenimaging.videosplitter;
+
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opencv.android.OpenCVLoader;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfFloat;
+import org.opencv.utils.Converters;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares the boxed List conversions of Converters and MatOf* with the primitive array and
+ * direct buffer paths. Timings are written to the log under the ConvertersBenchmark tag.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class ConvertersBenchmark {
+    private static final String TAG = "ConvertersBenchmark";
+    private static final int[] SIZES = { 64, 4096, 262144 };    // Number of values converted per call
+    private static final int WARMUP = 20;                       // Untimed rounds before measuring
+    private static final int ROUNDS = 50;                       // Timed rounds per measurement
+
+    @BeforeClass
+    public static void loadOpenCV() {
+        assertTrue(OpenCVLoader.initDebug());
+    }
+
+    @Test
+    public void floatRoundTrip() throws Exception {
+        for ( int size: SIZES ) {
+            final float[] values = new float[size];
+            final List<Float> list = new ArrayList<>(size);
+            for ( int i=0; i<size; i++ ) {
+                values[i] = i * 0.5f;
+                list.add(values[i]);
+            }
+            final float[] out = new float[size];
+            final FloatBuffer buffer = ByteBuffer.allocateDirect(size * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+            final MatOfFloat mat = new MatOfFloat();
+
+            report("boxed List", size, time(new Runnable() {
+                @Override
+                public void run() {
+                    Mat m = Converters.vector_float_to_Mat(list);
+                    List<Float> result = new ArrayList<>();
+                    Converters.Mat_to_vector_float(m, result);
+                    m.release();
+                }
+            }));
+            report("primitive array", size, time(new Runnable() {
+                @Override
+                public void run() {
+                    Mat m = Converters.vector_float_to_Mat(values);
+                    Converters.Mat_to_vector_float(m, out);
+                    m.release();
+                }
+            }));
+            report("MatOfFloat reuse", size, time(new Runnable() {
+                @Override
+                public void run() {
+                    mat.fromArray(values, values.length);
+                    mat.toArray(out);
+                }
+            }));
+            report("direct buffer", size, time(new Runnable() {
+                @Override
+                public void run() {
+                    buffer.clear();
+                    buffer.put(values);
+                    buffer.flip();
+                    mat.fromBuffer(buffer);
+                    buffer.clear();
+                    mat.toBuffer(buffer);
+                }
+            }));
+
+            assertArrayEquals(values, out, 0f);
+            // the last round left the values read back by toBuffer in the buffer
+            float[] fromBuffer = new float[size];
+            buffer.flip();
+            assertEquals(size, buffer.remaining());
+            buffer.get(fromBuffer);
+            assertArrayEquals(values, fromBuffer, 0f);
+            mat.release();
+        }
+    }
+
+    /**
+     * Runs the given job WARMUP times untimed and ROUNDS times timed
+     * @param job conversion to measure
+     * @return average time of one round in nanoseconds
+     */
+    private static long time(Runnable job) {
+        for ( int i=0; i<WARMUP; i++ ) {
+            job.run();
+        }
+        long start = System.nanoTime();
+        for ( int i=0; i<ROUNDS; i++ ) {
+            job.run();
+        }
+        return (System.nanoTime() - start) / ROUNDS;
+    }
+
+    private static void report(String path, int size, long nanos) {
+        Log.i(TAG, String.format("%-18s %8d values: %10d ns/round, %6.2f ns/value", path, size, nanos, (double) nanos / size));
+    }
+}
@@ -0,0 +1,92 @@
+package com.tenimaging.videosplitter;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Fills a FrameIndex with a million random frame hashes and measures query latency for hashes
+ * a few bits away from indexed frames. Timings are written to the log under the
+ * FrameIndexBenchmark tag.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class FrameIndexBenchmark {
+    private static final String TAG = "FrameIndexBenchmark";
+    private static final int VIDEOS = 100;                  // Number of fake videos
+    private static final int FRAMES_PER_VIDEO = 10000;      // Frames indexed per video
+    private static final int QUERIES = 200;                 // Number of timed queries
+    private static final int FLIPPED_BITS = 20;             // Bits a query differs from its target
+
+    @Test
+    public void query() throws Exception {
+        File dir = new File(InstrumentationRegistry.getTargetContext().getCacheDir(), TAG);
+        deleteAll(dir);
+
+        Random random = new Random(42);
+        long[] codes = new long[FRAMES_PER_VIDEO * FrameHasher.WORDS];
+        int[] frames = new int[FRAMES_PER_VIDEO];
+        long[] times = new long[FRAMES_PER_VIDEO];
+        for ( int i=0; i<FRAMES_PER_VIDEO; i++ ) {
+            frames[i] = i;
+            times[i] = i * 33333L;
+        }
+        long[][] targets = new long[QUERIES][];
+        long start = System.nanoTime();
+        for ( int v=0; v<VIDEOS; v++ ) {
+            for ( int i=0; i<codes.length; i++ ) {
+                codes[i] = random.nextLong();
+            }
+            // remember a few indexed hashes to look for later
+            for ( int q=v; q<QUERIES; q+=VIDEOS ) {
+                int frame = random.nextInt(FRAMES_PER_VIDEO);
+                targets[q] = new long[FrameHasher.WORDS];
+                System.arraycopy(codes, frame * FrameHasher.WORDS, targets[q], 0, FrameHasher.WORDS);
+            }
+            FrameIndex.append(dir, new File("/video_" + v + ".mp4"), FRAMES_PER_VIDEO, codes, frames, times);
+        }
+        FrameIndex.rebuild(dir);
+        Log.i(TAG, String.format("built index of %d frames in %d ms", VIDEOS * FRAMES_PER_VIDEO,
+                (System.nanoTime() - start) / 1000000));
+
+        FrameIndex index = FrameIndex.open(dir);
+        assertEquals(VIDEOS * FRAMES_PER_VIDEO, index.size());
+
+        long worst = 0;
+        start = System.nanoTime();
+        for ( long[] target: targets ) {
+            long[] query = target.clone();
+            for ( int b=0; b<FLIPPED_BITS; b++ ) {
+                int bit = random.nextInt(FrameHasher.BITS);
+                query[bit >>> 6] ^= 1L << (bit & 63);
+            }
+            long queryStart = System.nanoTime();
+            List<FrameIndex.Match> matches = index.query(query, 31, 10);
+            worst = Math.max(worst, System.nanoTime() - queryStart);
+            assertTrue(!matches.isEmpty() && matches.get(0).distance <= FLIPPED_BITS);
+        }
+        Log.i(TAG, String.format("%d queries: %.2f ms average, %.2f ms worst", QUERIES,
+                (System.nanoTime() - start) / 1e6 / QUERIES, worst / 1e6));
+
+        deleteAll(dir);
+    }
+
+    private static void deleteAll(File dir) {
+        File[] files = dir.listFiles();
+        if ( files != null ) {
+            for ( File f: files ) {
+                f.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.tenimaging.videosplitter;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opencv.android.OpenCVLoader;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.ImageBatch;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares thumbnailing a folder of frames with a serial imread/resize/imwrite loop against
+ * ImageBatch. Throughput is written to the log under the ImageBatchBenchmark tag.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class ImageBatchBenchmark {
+    private static final String TAG = "ImageBatchBenchmark";
+    private static final int FRAMES = 48;                           // Number of frames in the test folder
+    private static final Size THUMB_SIZE = new Size(320, 180);      // Size of the written thumbnails
+
+    @BeforeClass
+    public static void loadOpenCV() {
+        assertTrue(OpenCVLoader.initDebug());
+    }
+
+    @Test
+    public void thumbnails() throws Exception {
+        File dir = new File(InstrumentationRegistry.getTargetContext().getCacheDir(), TAG);
+        assertTrue(dir.isDirectory() || dir.mkdirs());
+
+        // split-like input: 720p JPEG frames
+        Mat frame = new Mat(720, 1280, CvType.CV_8UC3);
+        List<ImageBatch.Item> items = new ArrayList<>();
+        for ( int i=0; i<FRAMES; i++ ) {
+            Core.randu(frame, 0, 256);
+            String in = new File(dir, "frame_"+i+".jpg").getAbsolutePath();
+            assertTrue(Imgcodecs.imwrite(in, frame));
+            items.add(new ImageBatch.Item(in, new File(dir, "thumb_"+i+".jpg").getAbsolutePath()));
+        }
+        frame.release();
+
+        long start = System.nanoTime();
+        Mat small = new Mat();
+        for ( ImageBatch.Item item: items ) {
+            Mat image = Imgcodecs.imread(item.input);
+            Imgproc.resize(image, small, THUMB_SIZE, 0, 0, Imgproc.INTER_AREA);
+            Imgcodecs.imwrite(item.output, small);
+            image.release();
+        }
+        small.release();
+        report("serial loop", 1, System.nanoTime() - start);
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        for ( int workers = 2; workers <= cores; workers *= 2 ) {
+            ImageBatch batch = new ImageBatch(workers, 64L * 1024 * 1024);
+            batch.setProcessor(new ImageBatch.Processor() {
+                @Override
+                public void process(int index, Mat image) {
+                    Imgproc.resize(image, image, THUMB_SIZE, 0, 0, Imgproc.INTER_AREA);
+                }
+            });
+            start = System.nanoTime();
+            assertEquals(0, batch.run(items, null));
+            report("ImageBatch", workers, System.nanoTime() - start);
+            batch.close();
+        }
+
+        for ( File f: dir.listFiles() ) {
+            f.delete();
+        }
+    }
+
+    private static void report(String path, int workers, long nanos) {
+        Log.i(TAG, String.format("%-12s %d workers: %6.1f frames/s", path, workers, FRAMES * 1e9 / nanos));
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2016. 10 Imaging Inc.
+ */
+package com.tenimaging.videosplitter;
+
+import java.io.IOException;
+
+/**
+ * FrameStage that works on several frames at once, for work with a high cost per call such as
+ * model predictions.
+ * <p>
+ * A FramePipeline copies the frames reaching this stage into a buffer and hands them over when
+ * the buffer is full or the split ends. The frames that are kept then continue through the rest
+ * of the pipeline. The buffer holds full frames, so its memory is the batch size times the frame
+ * size.
+ */
+public abstract class BatchStage extends FrameStage {
+    private final int mBatchSize;       // Frames handed over at once
+
+    /**
+     * Constructor
+     * @param batchSize number of frames handed to processBatch() at once
+     */
+    protected BatchStage(int batchSize) {
+        mBatchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * @return number of frames handed to processBatch() at once, fewer only for the last batch
+     */
+    public int getBatchSize() {
+        return mBatchSize;
+    }
+
+    /**
+     * Handles a batch of frames
+     * @param frames frames to work on
+     * @param count number of frames in the batch
+     * @param keep set keep[i] to false to drop frames[i]
+     * @throws IOException if the frames could not be handled
+     */
+    public abstract void processBatch(Frame[] frames, int count, boolean[] keep) throws IOException;
+
+    /**
+     * Handles a single frame as a batch of one. FramePipeline does not call this.
+     * @param frame frame to work on
+     * @return false to drop the frame
+     * @throws IOException if the frame could not be handled
+     */
+    @Override
+    public boolean process(Frame frame) throws IOException {
+        boolean[] keep = { true };
+        processBatch(new Frame[] { frame }, 1, keep);
+        return keep[0];
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2016. 10 Imaging Inc.
+ */
+package com.tenimaging.videosplitter;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfDouble;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.utils.OpGraph;
+
+import java.io.IOException;
+
+import wseemann.media.FFmpegMediaMetadataRetriever;
+
+/**
+ * Pipeline stage that drops blank frames and crops away black letterbox or pillarbox bars.
+ * <p>
+ * Both checks run on a small gray copy of the frame. A frame whose brightness hardly varies
+ * (black leaders, fades, solid color cards) is blank. Bars are rows and columns whose average
+ * brightness stays near black; they are found with Core.reduce.
+ * <br>The crop has to be known before the first frame, so that later stages and the encoders get
+ * one frame size. When the split starts, this stage samples the first seconds of the video
+ * itself, decoded at the small size, and keeps the smallest rectangle that holds the content of
+ * every non blank sample. Frames are then cropped with a submat header, without copying pixels.
+ */
+public class BlankCropStage extends FrameStage {
+    private static final String TAG = "BlankCropStage";     // Tag that marks all log messages from this class
+    private static final int ANALYSIS_WIDTH = 160;          // Width of the frames that are analyzed
+    private static final int MAX_SAMPLES = 25;              // Most frames sampled to find the crop
+    private static final double BLANK_DEVIATION = 4;        // Brightness deviation below which a frame is blank
+    private static final float BAR_LEVEL = 24;              // Average brightness below which a row or column is a bar
+    private static final double MIN_CROP = 0.02;            // Smaller parts of a side are not cropped
+
+    private final boolean mSkipBlank;       // Drop blank frames
+    private final double mCropSeconds;      // Length of the video start sampled for bars, 0 for no crop
+
+    private Size mSmallSize;                // Size of the analyzed frames
+    private Mat mSmall;                     // Shrunk frame
+    private Mat mGray;                      // Gray shrunk frame
+    private MatOfDouble mMean;              // Average brightness
+    private MatOfDouble mDeviation;         // Brightness deviation
+    private double[] mDeviationBuf = new double[1];     // Reused copy of mDeviation
+    private Mat mRowMeans;                  // Average brightness of every row
+    private Mat mColMeans;                  // Average brightness of every column
+    private float[] mRowBuf;                // Reused copies of the averages
+    private float[] mColBuf;
+    private Rect mCrop;                     // Part of the frames that is kept, null to keep all
+    private Mat mCropped;                   // Header on mCrop of the current frame
+    private int mSkipped;                   // Number of blank frames dropped
+
+    /**
+     * Constructor
+     * @param skipBlank true to drop blank frames
+     * @param cropSeconds seconds at the start of the video sampled for bars, 0 to not crop
+     */
+    public BlankCropStage(boolean skipBlank, double cropSeconds) {
+        mSkipBlank = skipBlank;
+        mCropSeconds = cropSeconds;
+    }
+
+    @Override
+    public void start(VideoInfo info) throws IOException {
+        int width = Math.min(ANALYSIS_WIDTH, info.width);
+        mSmallSize = new Size(width, Math.max(1, Math.round((double)info.height*width/info.width)));
+        mSmall = new Mat();
+        mGray = new Mat();
+        mMean = new MatOfDouble();
+        mDeviation = new MatOfDouble();
+        mRowMeans = new Mat();
+        mColMeans = new Mat();
+        mCropped = new Mat();
+        mSkipped = 0;
+        mCrop = (mCropSeconds > 0) ? detectCrop(info) : null;
+    }
+
+    @Override
+    public VideoInfo getOutputInfo(VideoInfo info) {
+        return (mCrop == null) ? info : info.withSize(mCrop.width, mCrop.height);
+    }
+
+    @Override
+    public boolean process(Frame frame) throws IOException {
+        if ( mSkipBlank ) {
+            Imgproc.resize(frame.image, mSmall, mSmallSize, 0, 0, Imgproc.INTER_AREA);
+            Imgproc.cvtColor(mSmall, mGray, Imgproc.COLOR_BGR2GRAY);
+            if ( isBlank() ) {
+                mSkipped++;
+                return false;
+            }
+        }
+        if ( mCrop != null ) {
+            frame.image = frame.image.submat(mCrop, mCropped);
+        }
+        return true;
+    }
+
+    @Override
+    public void finish() throws IOException {
+        Log.i(TAG, "Skipped "+mSkipped+" blank frames");
+    }
+
+    @Override
+    public void release() {
+        if ( mSmall != null ) {
+            mSmall.release();
+            mGray.release();
+            mMean.release();
+            mDeviation.release();
+            mRowMeans.release();
+            mColMeans.release();
+            mCropped.release();
+        }
+    }
+
+    /**
+     * @return true if the frame in mGray is blank
+     */
+    private boolean isBlank() {
+        Core.meanStdDev(mGray, mMean, mDeviation);
+        mDeviation.get(0, 0, mDeviationBuf);
+        return mDeviationBuf[0] < BLANK_DEVIATION;
+    }
+
+    /**
+     * Samples the start of the video for black bars
+     * @param info information about the split
+     * @return part of the frames that holds the content, null if there are no bars
+     */
+    private Rect detectCrop(VideoInfo info) {
+        int frames = 1;
+        if ( info.frameIntervalUs > 0 ) {
+            frames = (int) Math.max(1, Math.min(info.frameCount, (long)(mCropSeconds * 1000000) / info.frameIntervalUs));
+        }
+        int step = (frames + MAX_SAMPLES - 1) / MAX_SAMPLES;
+
+        // content bounds of all samples in the analysis size, as first and last index
+        int[] bounds = { Integer.MAX_VALUE, -1, Integer.MAX_VALUE, -1 };
+        int sampled = 0;
+        FFmpegMediaMetadataRetriever video = new FFmpegMediaMetadataRetriever();
+        OpGraph toGray = new OpGraph().cvtColor(Imgproc.COLOR_RGBA2GRAY);
+        try {
+            video.setDataSource(info.video.getAbsolutePath());
+            for ( int i=0; i<frames; i+=step ) {
+                Bitmap map = video.getScaledFrameAtTime(i*info.frameIntervalUs, FFmpegMediaMetadataRetriever.OPTION_CLOSEST,
+                        (int)mSmallSize.width, (int)mSmallSize.height);
+                if ( map == null ) {
+                    continue;
+                }
+                toGray.run(map, mGray);
+                map.recycle();
+                if ( !isBlank() ) {
+                    addContent(bounds);
+                    sampled++;
+                }
+            }
+        } catch (RuntimeException ex) {
+            Log.w(TAG, "Cannot sample "+info.video+" for bars", ex);
+            return null;
+        } finally {
+            video.release();
+            toGray.close();
+        }
+        if ( sampled == 0 || bounds[1] < bounds[0] || bounds[3] < bounds[2] ) {
+            Log.i(TAG, "No content found in "+sampled+" samples, not cropping");
+            return null;
+        }
+
+        double sy = (double)info.height / mGray.rows();
+        double sx = (double)info.width / mGray.cols();
+        int y0 = (int) Math.floor(bounds[0] * sy);
+        int y1 = (int) Math.min(info.height, Math.ceil((bounds[1] + 1) * sy));
+        int x0 = (int) Math.floor(bounds[2] * sx);
+        int x1 = (int) Math.min(info.width, Math.ceil((bounds[3] + 1) * sx));
+        if ( y1 - y0 > info.height * (1 - MIN_CROP) ) {
+            y0 = 0;
+            y1 = info.height;
+        }
+        if ( x1 - x0 > info.width * (1 - MIN_CROP) ) {
+            x0 = 0;
+            x1 = info.width;
+        }
+        if ( y1 - y0 == info.height && x1 - x0 == info.width ) {
+            Log.i(TAG, "No bars in "+sampled+" samples");
+            return null;
+        }
+        // encoders want even sizes, so drop an odd last row or column
+        Rect crop = new Rect(x0, y0, (x1 - x0) & ~1, (y1 - y0) & ~1);
+        Log.i(TAG, "Cropping to "+crop+" from "+sampled+" samples");
+        return crop;
+    }
+
+    /**
+     * Widens content bounds by the rows and columns of mGray that are not bars
+     * @param bounds first row, last row, first column and last column with content
+     */
+    private void addContent(int[] bounds) {
+        Core.reduce(mGray, mRowMeans, 1, Core.REDUCE_AVG, CvType.CV_32F);
+        Core.reduce(mGray, mColMeans, 0, Core.REDUCE_AVG, CvType.CV_32F);
+        if ( mRowBuf == null || mRowBuf.length != mGray.rows() || mColBuf.length != mGray.cols() ) {
+            mRowBuf = new float[mGray.rows()];
+            mColBuf = new float[mGray.cols()];
+        }
+        mRowMeans.get(0, 0, mRowBuf);
+        mColMeans.get(0, 0, mColBuf);
+        widen(mRowBuf, bounds, 0);
+        widen(mColBuf, bounds, 2);
+    }
+
+    /**
+     * Widens one pair of content bounds by a brightness profile
+     * @param means average brightness of every row or column
+     * @param bounds content bounds
+     * @param first index of the first bound of the pair in bounds
+     */
+    private static void widen(float[] means, int[] bounds, int first) {
+        for ( int i=0; i<means.length; i++ ) {
+            if ( means[i] > BAR_LEVEL ) {
+                bounds[first] = Math.min(bounds[first], i);
+                break;
+            }
+        }
+        for ( int i=means.length-1; i>=0; i-- ) {
+            if ( means[i] > BAR_LEVEL ) {
+                bounds[first+1] = Math.max(bounds[first+1], i);
+                break;
+            }
+        }
+    }
+}
@@ -0,0 +1,309 @@
+/*
+ * Copyright (c) 2016. 10 Imaging Inc.
+ */
+package com.tenimaging.videosplitter;
+
+import android.util.Log;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfFloat;
+import org.opencv.core.MatOfInt;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.ml.DTrees;
+import org.opencv.ml.KNearest;
+import org.opencv.ml.RTrees;
+import org.opencv.ml.SVM;
+import org.opencv.ml.StatModel;
+import org.opencv.objdetect.HOGDescriptor;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Pipeline stage that drops frames a trained OpenCV model scores as uninteresting.
+ * <p>
+ * Every frame is shrunk to a 64x64 thumbnail and described by cheap features: a 16x8 bin
+ * hue/saturation histogram (FEATURES_COLOR, 128 values, summing to 1) and/or a HOG descriptor of
+ * the gray thumbnail with 16x16 blocks, 8x8 cells and 9 bins (FEATURES_SHAPE, 576 values). With
+ * both, the color values come first. Any StatModel trained on these rows works; train it with the
+ * response 1 for frames to keep and 0 for frames to drop.
+ * <br>The features of a batch of frames are stacked into one sample Mat and scored by a single
+ * call. Classifiers give a score from 0 to 1 where 0.5 is their own decision boundary: the SVM
+ * decision value through a logistic function, the fraction of RTrees trees or of KNearest
+ * neighbours that vote for 1. Other models, and regression models, score with their prediction.
+ * The score of a kept frame is stored in the frame for the manifest.
+ */
+public class ClassifierGate extends BatchStage {
+    private static final String TAG = "ClassifierGate";     // Tag that marks all log messages from this class
+    public static final int MODEL_SVM = 1;                  // Model saved by SVM.save()
+    public static final int MODEL_RTREES = 2;               // Model saved by RTrees.save()
+    public static final int MODEL_KNEAREST = 3;             // Model saved by KNearest.save()
+    public static final int FEATURES_COLOR = 1;             // Hue/saturation histogram
+    public static final int FEATURES_SHAPE = 2;             // HOG descriptor
+    private static final int THUMB_SIZE = 64;               // Size of the thumbnail features are taken from
+    private static final int HUE_BINS = 16;                 // Histogram bins
+    private static final int SATURATION_BINS = 8;
+    private static final int COLOR_LENGTH = HUE_BINS * SATURATION_BINS;     // Values of FEATURES_COLOR
+    private static final int SHAPE_LENGTH = 9 * 4 * 4 * 4;  // Values of FEATURES_SHAPE: bins x cells x blocks
+    private static final int SCORE_PREDICTION = 0;          // Score is the prediction of the model
+    private static final int SCORE_SVM = 1;                 // Score from the decision value of a 2 class SVM
+    private static final int SCORE_VOTES = 2;               // Score is the fraction of trees voting for 1
+    private static final int SCORE_NEIGHBORS = 3;           // Score is the mean response of the nearest neighbours
+
+    private final int mModelType;           // Type of the model file, 0 if a model was given
+    private final String mModelPath;        // Model file loaded in start()
+    private StatModel mModel;               // Scores the frames
+    private final int mFeatures;            // FEATURES_COLOR and/or FEATURES_SHAPE
+    private final float mThreshold;         // Lowest score of a kept frame
+    private final int mLength;              // Values per sample
+    private int mScoring;                   // How scores are taken from the model, one of SCORE_
+    private int mTrees;                     // Trees of an RTrees model
+    private int mNeighbors;                 // Neighbours a KNearest model votes with
+
+    private Size mThumbSize;                // Size of the thumbnails
+    private Mat mThumb;                     // Thumbnail of a frame
+    private Mat mHsv;                       // Thumbnail in HSV
+    private Mat mGray;                      // Gray thumbnail
+    private List<Mat> mHistInput;           // Holds mHsv for calcHist
+    private MatOfInt mHistChannels;         // Hue and saturation
+    private MatOfInt mHistSize;             // Bins per channel
+    private MatOfFloat mHistRanges;         // Value range per channel
+    private Mat mNoMask;                    // Histogram of all pixels
+    private Mat mHist;                      // Histogram of a thumbnail
+    private HOGDescriptor mHog;             // Shape descriptor
+    private MatOfFloat mHogValues;          // Descriptor of a thumbnail
+    private Mat mSamples;                   // One row of features per frame of a batch
+    private Mat mBatchRows;                 // Header on the rows used by a short batch
+    private Mat mResults;                   // Model output for every frame of a batch
+    private Mat mNeighborResponses;         // Responses of the nearest neighbours of every frame
+    private Mat mNeighborDistances;         // Their distances, not used
+    private float[] mNeighborBuf;           // Copy of mNeighborResponses
+    private float[] mRow;                   // Features of one frame
+    private float[] mShape;                 // Copy of mHogValues
+    private float[] mScores;                // Copy of mResults
+    private int mSeen;                      // Number of frames scored
+    private int mKept;                      // Number of frames kept
+
+    /**
+     * Loads a model from a file
+     * @param type MODEL_SVM, MODEL_RTREES or MODEL_KNEAREST
+     * @param path file written by the save() method of the model
+     * @return the model
+     * @throws IOException if the model cannot be loaded
+     */
+    public static StatModel loadModel(int type, String path) throws IOException {
+        StatModel model;
+        try {
+            switch ( type ) {
+                case MODEL_SVM:     model = SVM.load(path); break;
+                case MODEL_RTREES:  model = RTrees.load(path); break;
+                case MODEL_KNEAREST: model = KNearest.load(path); break;
+                default: throw new IOException("Unknown model type "+type);
+            }
+        } catch (RuntimeException ex) {
+            throw new IOException("Cannot load model "+path, ex);
+        }
+        if ( !model.isTrained() ) {
+            throw new IOException("Model "+path+" is not trained");
+        }
+        return model;
+    }
+
+    /**
+     * Constructor for a model saved in a file
+     * @param modelType MODEL_SVM, MODEL_RTREES or MODEL_KNEAREST
+     * @param modelPath file written by the save() method of the model, loaded when the split starts
+     * @param features FEATURES_COLOR, FEATURES_SHAPE or both, as the model was trained with
+     * @param threshold lowest score of a kept frame
+     * @param batchSize number of frames scored by one predict() call
+     */
+    public ClassifierGate(int modelType, String modelPath, int features, float threshold, int batchSize) {
+        this(null, modelType, modelPath, features, threshold, batchSize);
+    }
+
+    /**
+     * Constructor for any trained model
+     * @param model trained model that scores the frames
+     * @param features FEATURES_COLOR, FEATURES_SHAPE or both, as the model was trained with
+     * @param threshold lowest score of a kept frame
+     * @param batchSize number of frames scored by one predict() call
+     */
+    public ClassifierGate(StatModel model, int features, float threshold, int batchSize) {
+        this(model, 0, null, features, threshold, batchSize);
+    }
+
+    private ClassifierGate(StatModel model, int modelType, String modelPath, int features, float threshold,
+                           int batchSize) {
+        super(batchSize);
+        mModel = model;
+        mModelType = modelType;
+        mModelPath = modelPath;
+        mFeatures = features;
+        mThreshold = threshold;
+        mLength = (((features & FEATURES_COLOR) != 0) ? COLOR_LENGTH : 0) +
+                (((features & FEATURES_SHAPE) != 0) ? SHAPE_LENGTH : 0);
+    }
+
+    @Override
+    public void start(VideoInfo info) throws IOException {
+        if ( mModel == null ) {
+            mModel = loadModel(mModelType, mModelPath);
+        }
+        if ( mLength == 0 || mModel.getVarCount() != mLength ) {
+            throw new IOException("Model expects "+mModel.getVarCount()+" features, frames have "+mLength);
+        }
+        mScoring = SCORE_PREDICTION;
+        if ( mModel instanceof SVM ) {
+            int type = ((SVM) mModel).getType();
+            if ( type == SVM.C_SVC || type == SVM.NU_SVC ) {
+                mScoring = SCORE_SVM;
+            }
+        } else if ( mModel instanceof RTrees && mModel.isClassifier() ) {
+            mTrees = ((RTrees) mModel).getTreeCount();
+            if ( mTrees > 0 ) {
+                mScoring = SCORE_VOTES;
+            }
+        } else if ( mModel instanceof KNearest ) {
+            mNeighbors = Math.max(1, ((KNearest) mModel).getDefaultK());
+            mNeighborResponses = new Mat();
+            mNeighborDistances = new Mat();
+            mNeighborBuf = new float[getBatchSize() * mNeighbors];
+            mScoring = SCORE_NEIGHBORS;
+        }
+        mThumbSize = new Size(THUMB_SIZE, THUMB_SIZE);
+        mThumb = new Mat();
+        mHsv = new Mat();
+        mGray = new Mat();
+        mHistInput = Collections.singletonList(mHsv);
+        mHistChannels = new MatOfInt(0, 1);
+        mHistSize = new MatOfInt(HUE_BINS, SATURATION_BINS);
+        mHistRanges = new MatOfFloat(0, 180, 0, 256);
+        mNoMask = new Mat();
+        mHist = new Mat();
+        Size cell = new Size(8, 8);
+        Size block = new Size(16, 16);
+        mHog = new HOGDescriptor(mThumbSize, block, block, cell, 9);
+        mHogValues = new MatOfFloat();
+        mSamples = new Mat(getBatchSize(), mLength, CvType.CV_32FC1);
+        mBatchRows = new Mat();
+        mResults = new Mat();
+        mRow = new float[mLength];
+        mShape = new float[SHAPE_LENGTH];
+        mScores = new float[getBatchSize()];
+    }
+
+    @Override
+    public void processBatch(Frame[] frames, int count, boolean[] keep) throws IOException {
+        for ( int i=0; i<count; i++ ) {
+            describe(frames[i].image);
+            mSamples.put(i, 0, mRow);
+        }
+        Mat samples = (count == getBatchSize()) ? mSamples : mSamples.submat(0, count, 0, mLength, mBatchRows);
+        score(samples, count);
+
+        for ( int i=0; i<count; i++ ) {
+            frames[i].score = mScores[i];
+            keep[i] = mScores[i] >= mThreshold;
+            if ( keep[i] ) {
+                mKept++;
+            }
+        }
+        mSeen += count;
+    }
+
+    /**
+     * Scores a batch of samples into mScores
+     * @param samples one row of features per frame
+     * @param count number of rows
+     */
+    private void score(Mat samples, int count) {
+        switch ( mScoring ) {
+            case SCORE_SVM:
+                // the raw decision value is positive for the smaller label, 0, so it is negated
+                mModel.predict(samples, mResults, StatModel.RAW_OUTPUT);
+                mResults.get(0, 0, mScores);
+                for ( int i=0; i<count; i++ ) {
+                    mScores[i] = (float)(1 / (1 + Math.exp(mScores[i])));
+                }
+                break;
+            case SCORE_VOTES:
+                // the leaves hold the labels, so their sum counts the trees that voted for 1
+                mModel.predict(samples, mResults, DTrees.PREDICT_SUM);
+                mResults.get(0, 0, mScores);
+                for ( int i=0; i<count; i++ ) {
+                    mScores[i] /= mTrees;
+                }
+                break;
+            case SCORE_NEIGHBORS:
+                ((KNearest) mModel).findNearest(samples, mNeighbors, mResults, mNeighborResponses, mNeighborDistances);
+                mNeighborResponses.get(0, 0, mNeighborBuf);
+                for ( int i=0; i<count; i++ ) {
+                    float sum = 0;
+                    for ( int n=0; n<mNeighbors; n++ ) {
+                        sum += mNeighborBuf[i * mNeighbors + n];
+                    }
+                    mScores[i] = sum / mNeighbors;
+                }
+                break;
+            default:
+                mModel.predict(samples, mResults, 0);
+                mResults.get(0, 0, mScores);
+                break;
+        }
+    }
+
+    @Override
+    public void finish() throws IOException {
+        Log.i(TAG, "Kept "+mKept+" of "+mSeen+" frames");
+    }
+
+    @Override
+    public void release() {
+        if ( mThumb != null ) {
+            mThumb.release();
+            mHsv.release();
+            mGray.release();
+            mHistChannels.release();
+            mHistSize.release();
+            mHistRanges.release();
+            mNoMask.release();
+            mHist.release();
+            mHogValues.release();
+            mSamples.release();
+            mBatchRows.release();
+            mResults.release();
+        }
+        if ( mNeighborResponses != null ) {
+            mNeighborResponses.release();
+            mNeighborDistances.release();
+        }
+    }
+
+    /**
+     * Computes the features of a frame into mRow
+     * @param image BGR frame
+     */
+    private void describe(Mat image) {
+        Imgproc.resize(image, mThumb, mThumbSize, 0, 0, Imgproc.INTER_AREA);
+        int offset = 0;
+        if ( (mFeatures & FEATURES_COLOR) != 0 ) {
+            Imgproc.cvtColor(mThumb, mHsv, Imgproc.COLOR_BGR2HSV);
+            Imgproc.calcHist(mHistInput, mHistChannels, mNoMask, mHist, mHistSize, mHistRanges);
+            mHist.get(0, 0, mRow);
+            float scale = 1f / (THUMB_SIZE * THUMB_SIZE);
+            for ( int i=0; i<COLOR_LENGTH; i++ ) {
+                mRow[i] *= scale;
+            }
+            offset = COLOR_LENGTH;
+        }
+        if ( (mFeatures & FEATURES_SHAPE) != 0 ) {
+            Imgproc.cvtColor(mThumb, mGray, Imgproc.COLOR_BGR2GRAY);
+            mHog.compute(mGray, mHogValues);
+            mHogValues.get(0, 0, mShape);
+            System.arraycopy(mShape, 0, mRow, offset, SHAPE_LENGTH);
+        }
+    }
+}
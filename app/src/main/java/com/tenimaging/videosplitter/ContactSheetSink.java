@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2016. 10 Imaging Inc.
+ */
+package com.tenimaging.videosplitter;
+
+import android.util.Log;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Pipeline stage that tiles the frames reaching it into contact sheets: a grid of thumbnails,
+ * each labelled with its time in the video.
+ * <p>
+ * The sheet is one canvas Mat created when the split starts. Every frame is shrunk straight into
+ * its cell of the canvas, and a full sheet is written as a JPEG file and cleared for the next
+ * frames, so memory does not grow with the length of the video. The last, partly filled sheet
+ * is written when the split finishes.
+ */
+public class ContactSheetSink extends FrameStage {
+    private static final String TAG = "ContactSheetSink";   // Tag that marks all log messages from this class
+    private static final Scalar BACKGROUND = new Scalar(0, 0, 0);           // Empty cells and label strips
+    private static final Scalar TEXT_COLOR = new Scalar(255, 255, 255);     // Labels
+    private static final int FONT = Core.FONT_HERSHEY_SIMPLEX;             // Font of the labels
+
+    private final int mColumns;             // Cells across a sheet
+    private final int mRows;                // Cells down a sheet
+    private final int mCellWidth;           // Width of a thumbnail in pixels
+
+    private String mPrefix;                 // Output path up to the sheet number
+    private Mat mCanvas;                    // Sheet being filled
+    private Mat mCell;                      // Header on the cell being filled
+    private Rect mCellRect;                 // Area of that cell, moved per frame
+    private Size mCellSize;                 // Size of a thumbnail
+    private double mFontScale;              // Label size relative to the cell
+    private int mLabelHeight;               // Height of the label strip at the bottom of a cell
+    private int mBaseline;                  // Distance of the label text from the bottom of its strip
+    private int mFilled;                    // Cells used on the current sheet
+    private int mSheets;                    // Sheets written so far
+
+    /**
+     * Constructor
+     * @param columns cells across a sheet
+     * @param rows cells down a sheet
+     * @param cellWidth width of a thumbnail, the height follows the frame aspect ratio
+     */
+    public ContactSheetSink(int columns, int rows, int cellWidth) {
+        mColumns = Math.max(1, columns);
+        mRows = Math.max(1, rows);
+        mCellWidth = Math.max(16, cellWidth);
+    }
+
+    @Override
+    public void start(VideoInfo info) throws IOException {
+        mPrefix = info.outDir.getAbsolutePath() + "/" + info.baseName;
+        int cellHeight = Math.max(1, (int) Math.round((double) mCellWidth * info.height / info.width));
+        mCanvas = new Mat(mRows * cellHeight, mColumns * mCellWidth, CvType.CV_8UC3, BACKGROUND);
+        mCell = new Mat();
+        mCellRect = new Rect(0, 0, mCellWidth, cellHeight);
+        mCellSize = mCellRect.size();
+
+        mFontScale = mCellWidth / 640.0;
+        int[] baseline = new int[1];
+        Size text = Imgproc.getTextSize("00:00:00.0", FONT, mFontScale, 1, baseline);
+        mBaseline = baseline[0] + 1;
+        mLabelHeight = Math.min(cellHeight, (int) text.height + mBaseline + 2);
+        mFilled = 0;
+        mSheets = 0;
+    }
+
+    @Override
+    public boolean process(Frame frame) throws IOException {
+        mCellRect.x = (mFilled % mColumns) * mCellRect.width;
+        mCellRect.y = (mFilled / mColumns) * mCellRect.height;
+        mCanvas.submat(mCellRect, mCell);
+        // the cell header has the thumbnail size, so resize writes into the canvas
+        Imgproc.resize(frame.image, mCell, mCellSize, 0, 0, Imgproc.INTER_AREA);
+
+        int bottom = mCellRect.height;
+        Imgproc.rectangle(mCell, new Point(0, bottom - mLabelHeight), new Point(mCellRect.width, bottom),
+                BACKGROUND, Core.FILLED);
+        Imgproc.putText(mCell, formatTime(frame.timeUs), new Point(2, bottom - mBaseline), FONT, mFontScale,
+                TEXT_COLOR, 1, Imgproc.LINE_AA, false);
+
+        mFilled++;
+        if ( mFilled == mColumns * mRows ) {
+            writeSheet();
+        }
+        return true;
+    }
+
+    @Override
+    public void finish() throws IOException {
+        if ( mFilled > 0 ) {
+            writeSheet();
+        }
+        Log.i(TAG, "Wrote "+mSheets+" contact sheets");
+    }
+
+    @Override
+    public void release() {
+        if ( mCanvas != null ) {
+            mCanvas.release();
+            mCell.release();
+        }
+    }
+
+    /**
+     * Saves the current sheet and clears the canvas for the next one
+     * @throws IOException if the sheet cannot be written
+     */
+    private void writeSheet() throws IOException {
+        String fileName = String.format(Locale.ENGLISH, "%1$s_sheet_%2$03d.jpg", mPrefix, mSheets);
+        if ( !Imgcodecs.imwrite(fileName, mCanvas) ) {
+            throw new IOException("Cannot write "+fileName);
+        }
+        mSheets++;
+        mFilled = 0;
+        mCanvas.setTo(BACKGROUND);
+    }
+
+    /**
+     * @param timeUs time in the video in microseconds
+     * @return the time as hours:minutes:seconds with tenths
+     */
+    private static String formatTime(long timeUs) {
+        long tenths = timeUs / 100000;
+        return String.format(Locale.ENGLISH, "%1$02d:%2$02d:%3$02d.%4$d",
+                tenths / 36000, (tenths / 600) % 60, (tenths / 10) % 60, tenths % 10);
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2016. 10 Imaging Inc.
+ */
+package com.tenimaging.videosplitter;
+
+import android.util.Log;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfDouble;
+import org.opencv.core.MatOfFloat;
+import org.opencv.core.MatOfRect;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.objdetect.CascadeClassifier;
+import org.opencv.objdetect.HOGDescriptor;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Pipeline stage that only lets frames through that show faces or people.
+ * <p>
+ * Detection runs on every k-th frame only, on a downscaled gray copy. The frames in between
+ * reuse the decision and the regions of the last detected frame, so the cost of a detection is
+ * spread over k frames. The decision is held rather than interpolated both ways, which would
+ * need k full frames kept in memory until the next detection.
+ */
+public class DetectionGate extends FrameStage {
+    private static final String TAG = "DetectionGate";     // Tag that marks all log messages from this class
+    public static final int TARGET_FACES = 1;               // Detect faces with a Haar/LBP cascade
+    public static final int TARGET_PEOPLE = 2;              // Detect standing people with the default HOG detector
+
+    private final int mTarget;              // TARGET_FACES or TARGET_PEOPLE
+    private final String mCascadeFile;      // Cascade used for TARGET_FACES
+    private final int mInterval;            // Detect on every mInterval-th frame
+    private final int mDetectWidth;         // Width of the image the detector sees
+
+    private CascadeClassifier mCascade;     // Face detector
+    private HOGDescriptor mHog;             // People detector
+    private Mat mSmall;                     // Downscaled frame
+    private Mat mGray;                      // Downscaled gray frame the detector runs on
+    private MatOfRect mFound;               // Detections in mGray coordinates
+    private MatOfDouble mWeights;           // HOG detection weights, not used
+    private Size mMinFace;                  // Smallest face we look for
+    private Size mNoLimit;                  // Largest object we look for
+    private Size mDetectSize;               // Size of mGray
+    private Rect[] mFoundRects = new Rect[0];   // Reused array of detections
+    private final ArrayList<Rect> mRegions = new ArrayList<>();  // Detections of the last detected frame in frame coordinates
+    private boolean mHit;                   // Decision of the last detected frame
+    private int mCount;                     // Number of frames seen so far
+    private int mDetections;                // Number of frames that ran the detector
+    private int mPassed;                    // Number of frames let through
+
+    /**
+     * Constructor
+     * @param target TARGET_FACES or TARGET_PEOPLE
+     * @param cascadeFile cascade XML file for TARGET_FACES, ignored for TARGET_PEOPLE
+     * @param interval run the detector on every interval-th frame
+     * @param detectWidth width of the downscaled frame the detector runs on
+     */
+    public DetectionGate(int target, String cascadeFile, int interval, int detectWidth) {
+        mTarget = target;
+        mCascadeFile = cascadeFile;
+        mInterval = Math.max(1, interval);
+        mDetectWidth = detectWidth;
+    }
+
+    @Override
+    public void start(VideoInfo info) throws IOException {
+        if ( mTarget == TARGET_FACES ) {
+            mCascade = new CascadeClassifier();
+            if ( mCascadeFile == null || !mCascade.load(mCascadeFile) ) {
+                throw new IOException("Cannot load face cascade: "+mCascadeFile);
+            }
+        } else {
+            mHog = new HOGDescriptor();
+            MatOfFloat people = HOGDescriptor.getDefaultPeopleDetector();
+            mHog.setSVMDetector(people);
+            people.release();
+        }
+
+        int width = Math.min(mDetectWidth, info.width);
+        mDetectSize = new Size(width, Math.round((double)info.height*width/info.width));
+        mSmall = new Mat();
+        mGray = new Mat();
+        mFound = new MatOfRect();
+        mWeights = new MatOfDouble();
+        mMinFace = new Size(24, 24);
+        mNoLimit = new Size();
+    }
+
+    @Override
+    public boolean process(Frame frame) throws IOException {
+        if ( mCount++ % mInterval == 0 ) {
+            detect(frame.image);
+        }
+        if ( mHit ) {
+            frame.regions.addAll(mRegions);
+            mPassed++;
+        }
+        return mHit;
+    }
+
+    @Override
+    public void finish() throws IOException {
+        Log.i(TAG, "Passed "+mPassed+" of "+mCount+" frames, detector ran on "+mDetections);
+    }
+
+    @Override
+    public void release() {
+        if ( mSmall != null ) {
+            mSmall.release();
+            mGray.release();
+            mFound.release();
+            mWeights.release();
+        }
+    }
+
+    /**
+     * Runs the detector on a downscaled gray copy of the frame and keeps the result
+     * @param image BGR frame
+     */
+    private void detect(Mat image) {
+        Imgproc.resize(image, mSmall, mDetectSize, 0, 0, Imgproc.INTER_AREA);
+        Imgproc.cvtColor(mSmall, mGray, Imgproc.COLOR_BGR2GRAY);
+        if ( mCascade != null ) {
+            Imgproc.equalizeHist(mGray, mGray);
+            mCascade.detectMultiScale(mGray, mFound, 1.1, 3, 0, mMinFace, mNoLimit);
+        } else {
+            mHog.detectMultiScale(mGray, mFound, mWeights);
+        }
+        mDetections++;
+
+        int found = mFound.rows();
+        mFoundRects = growTo(mFoundRects, found);
+        mFound.toArray(mFoundRects);
+
+        // scale back to frame coordinates and clip, detections may reach past the border
+        double scale = (double)image.cols()/mGray.cols();
+        mRegions.clear();
+        for ( int i=0; i<found; i++ ) {
+            Rect r = mFoundRects[i];
+            int x = Math.max(0, (int)(r.x*scale));
+            int y = Math.max(0, (int)(r.y*scale));
+            int right = Math.min(image.cols(), (int)((r.x+r.width)*scale));
+            int bottom = Math.min(image.rows(), (int)((r.y+r.height)*scale));
+            if ( right > x && bottom > y ) {
+                mRegions.add(new Rect(x, y, right-x, bottom-y));
+            }
+        }
+        mHit = !mRegions.isEmpty();
+    }
+
+    /**
+     * Makes sure an array can hold the given number of detections, keeping existing objects
+     * @param rects current array
+     * @param count number of detections
+     * @return array with room for count detections
+     */
+    private static Rect[] growTo(Rect[] rects, int count) {
+        if ( rects.length >= count ) {
+            return rects;
+        }
+        Rect[] grown = new Rect[count];
+        System.arraycopy(rects, 0, grown, 0, rects.length);
+        return grown;
+    }
+}
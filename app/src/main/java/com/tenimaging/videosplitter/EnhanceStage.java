@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2016. 10 Imaging Inc.
+ */
+package com.tenimaging.videosplitter;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.CLAHE;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.photo.Photo;
+
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Pipeline stage that cleans up low light footage: non-local means denoising and/or contrast
+ * limited adaptive histogram equalization (CLAHE) of the lightness.
+ * <p>
+ * Denoising dominates the cost, so the frame is cut into overlapping tiles that are denoised in
+ * parallel on a fork-join pool shared by all splits. Each tile reads a margin around its area so
+ * the search windows at its edges see the same pixels as without tiling, and only writes its own
+ * area into the output, so there are no seams. CLAHE is cheap and already tile based, it runs on
+ * the stitched frame.
+ */
+public class EnhanceStage extends FrameStage {
+    public static final int DENOISE = 1;                    // Remove noise with fastNlMeansDenoisingColored
+    public static final int EQUALIZE = 2;                   // Equalize contrast with CLAHE
+
+    public static final int PRESET_FAST = 0;                // Small windows, about 4x faster than PRESET_QUALITY
+    public static final int PRESET_BALANCED = 1;            // OpenCV's default template, smaller search window
+    public static final int PRESET_QUALITY = 2;             // OpenCV's default windows
+
+    private static final int[] TEMPLATE_WINDOW = { 3, 7, 7 };   // Patch compared per preset
+    private static final int[] SEARCH_WINDOW = { 11, 15, 21 };  // Area searched per preset
+    private static final float[] STRENGTH = { 5, 5, 4 };        // Filter strength h per preset
+    private static final double CLIP_LIMIT = 2.0;               // CLAHE contrast limit
+    private static final int CLAHE_GRID = 8;                    // CLAHE cells across the frame
+
+    private static ForkJoinPool sPool;      // Workers shared by the enhance stages of all splits
+
+    private final int mSteps;               // DENOISE and/or EQUALIZE
+    private final int mPreset;              // PRESET_FAST, PRESET_BALANCED or PRESET_QUALITY
+
+    private Mat mSource;                    // Frame being enhanced
+    private Mat mOutput;                    // Enhanced frame
+    private Tile[] mTiles;                  // Denoise work, one task per tile
+    private RecursiveAction mAllTiles;      // Runs all tiles on the pool
+    private CLAHE mClahe;                   // Contrast equalizer
+    private Mat mLab;                       // Output in Lab color space
+    private Mat mLightness;                 // L channel of mLab
+
+    /**
+     * Constructor
+     * @param steps DENOISE, EQUALIZE or both
+     * @param preset PRESET_FAST, PRESET_BALANCED or PRESET_QUALITY
+     */
+    public EnhanceStage(int steps, int preset) {
+        mSteps = steps;
+        mPreset = Math.max(PRESET_FAST, Math.min(PRESET_QUALITY, preset));
+    }
+
+    /**
+     * @return pool the tiles run on, created on first use
+     */
+    private static synchronized ForkJoinPool getPool() {
+        if ( sPool == null ) {
+            sPool = new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors()));
+        }
+        return sPool;
+    }
+
+    @Override
+    public void start(VideoInfo info) throws IOException {
+        mOutput = new Mat();
+        if ( (mSteps & DENOISE) != 0 ) {
+            // two tile columns and one row per core gives the pool some room to balance
+            int cores = getPool().getParallelism();
+            int cols = (info.width >= 2 * SEARCH_WINDOW[mPreset]) ? 2 : 1;
+            int rows = Math.max(1, Math.min(cores, info.height / SEARCH_WINDOW[mPreset]));
+            int margin = SEARCH_WINDOW[mPreset] / 2 + TEMPLATE_WINDOW[mPreset] / 2;
+            mTiles = new Tile[rows * cols];
+            for ( int r=0; r<rows; r++ ) {
+                for ( int c=0; c<cols; c++ ) {
+                    int x0 = info.width * c / cols;
+                    int x1 = info.width * (c + 1) / cols;
+                    int y0 = info.height * r / rows;
+                    int y1 = info.height * (r + 1) / rows;
+                    mTiles[r * cols + c] = new Tile(new Rect(x0, y0, x1 - x0, y1 - y0), margin, info.width, info.height);
+                }
+            }
+            mAllTiles = new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    for ( Tile tile: mTiles ) {
+                        tile.reinitialize();
+                    }
+                    invokeAll(mTiles);
+                }
+            };
+        }
+        if ( (mSteps & EQUALIZE) != 0 ) {
+            mClahe = Imgproc.createCLAHE(CLIP_LIMIT, new Size(CLAHE_GRID, CLAHE_GRID));
+            mLab = new Mat();
+            mLightness = new Mat();
+        }
+    }
+
+    @Override
+    public boolean process(Frame frame) throws IOException {
+        mSource = frame.image;
+        if ( mTiles != null ) {
+            mOutput.create(mSource.rows(), mSource.cols(), mSource.type());
+            mAllTiles.reinitialize();
+            getPool().invoke(mAllTiles);
+        } else {
+            mSource.copyTo(mOutput);
+        }
+
+        if ( mClahe != null ) {
+            Imgproc.cvtColor(mOutput, mLab, Imgproc.COLOR_BGR2Lab);
+            Core.extractChannel(mLab, mLightness, 0);
+            mClahe.apply(mLightness, mLightness);
+            Core.insertChannel(mLightness, mLab, 0);
+            Imgproc.cvtColor(mLab, mOutput, Imgproc.COLOR_Lab2BGR);
+        }
+        frame.image = mOutput;
+        mSource = null;
+        return true;
+    }
+
+    @Override
+    public void release() {
+        if ( mOutput != null ) {
+            mOutput.release();
+        }
+        if ( mTiles != null ) {
+            for ( Tile tile: mTiles ) {
+                tile.release();
+            }
+        }
+        if ( mLab != null ) {
+            mLab.release();
+            mLightness.release();
+        }
+    }
+
+    /**
+     * Denoises one area of the frame. All Mats are created once, per frame the tile only points
+     * its headers at the current source and output.
+     */
+    private class Tile extends RecursiveAction {
+        private final Rect mArea;               // Part of the output this tile writes
+        private final Rect mRead;               // Part of the source this tile reads, mArea plus margin
+        private final Rect mInner;              // mArea inside mRead
+        private final Mat mIn = new Mat();      // Header on mRead of the source
+        private final Mat mOut = new Mat();     // Header on mArea of the output
+        private final Mat mDenoised = new Mat();    // Denoised mRead
+        private final Mat mKeep = new Mat();    // Header on mInner of mDenoised
+
+        Tile(Rect area, int margin, int width, int height) {
+            mArea = area;
+            int x0 = Math.max(0, area.x - margin);
+            int y0 = Math.max(0, area.y - margin);
+            int x1 = Math.min(width, area.x + area.width + margin);
+            int y1 = Math.min(height, area.y + area.height + margin);
+            mRead = new Rect(x0, y0, x1 - x0, y1 - y0);
+            mInner = new Rect(area.x - x0, area.y - y0, area.width, area.height);
+        }
+
+        @Override
+        protected void compute() {
+            mSource.submat(mRead, mIn);
+            Photo.fastNlMeansDenoisingColored(mIn, mDenoised, STRENGTH[mPreset], STRENGTH[mPreset],
+                    TEMPLATE_WINDOW[mPreset], SEARCH_WINDOW[mPreset]);
+            mDenoised.submat(mInner, mKeep).copyTo(mOutput.submat(mArea, mOut));
+        }
+
+        void release() {
+            mIn.release();
+            mOut.release();
+            mDenoised.release();
+            mKeep.release();
+        }
+    }
+}
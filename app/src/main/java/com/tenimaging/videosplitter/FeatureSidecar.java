@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2016. 10 Imaging Inc.
+ */
+package com.tenimaging.videosplitter;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatBuffer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read access to the keypoint and descriptor file FeatureStage writes next to the frames of a
+ * split. Nothing is parsed up front: the header and the frame table are memory mapped when the
+ * file is opened, and the records of a frame are mapped when they are asked for, so files larger
+ * than 2 GB can be read. Views returned before close() stay valid after it.
+ * <p>
+ * Layout, all values little endian:
+ * <pre>
+ * header      magic "VSF1", version, descriptor bytes, descriptor CvType, frame count, reserved,
+ *             offset of the frame table (long)                                  HEADER_SIZE bytes
+ * per frame   count keypoint records, then count descriptor rows
+ *             keypoint record: x, y, size, angle, response (float), octave (int) KEYPOINT_SIZE bytes
+ *             descriptor row: descriptor bytes
+ * frame table per frame: frame index, keypoint count (int), time in us, offset of the frame (long)
+ *                                                                               TABLE_ENTRY_SIZE bytes
+ * </pre>
+ */
+public class FeatureSidecar implements Closeable {
+    public static final int MAGIC = 0x31465356;             // "VSF1" in little endian
+    public static final int VERSION = 1;                    // Layout version
+    public static final int HEADER_SIZE = 32;               // Bytes in the header
+    public static final int KEYPOINT_SIZE = 24;             // Bytes in a keypoint record
+    public static final int TABLE_ENTRY_SIZE = 24;          // Bytes in a frame table entry
+    public static final String EXTENSION = ".features";     // Extension of sidecar files
+
+    private final RandomAccessFile mFile;   // The open file
+    private final FileChannel mChannel;     // Channel of mFile that frame records are mapped from
+    private final ByteBuffer mTable;        // The mapped frame table
+    private final int mDescriptorSize;      // Bytes per descriptor row
+    private final int mDescriptorType;      // CvType of the descriptors
+    private final int mFrameCount;          // Number of frames in the file
+
+    /**
+     * Opens a sidecar file, which has to be closed when it is no longer read
+     * @param file file written by FeatureStage
+     * @return read access to the file
+     * @throws IOException if the file cannot be read or is not a sidecar
+     */
+    public static FeatureSidecar open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            return new FeatureSidecar(file, raf);
+        } catch (IOException | RuntimeException ex) {
+            raf.close();
+            throw ex;
+        }
+    }
+
+    private FeatureSidecar(File file, RandomAccessFile raf) throws IOException {
+        mFile = raf;
+        mChannel = raf.getChannel();
+        long length = mChannel.size();
+        if ( length < HEADER_SIZE ) {
+            throw new IOException("Not a feature file: "+file);
+        }
+        ByteBuffer header = map(0, HEADER_SIZE);
+        if ( header.getInt(0) != MAGIC || header.getInt(4) != VERSION ) {
+            throw new IOException("Not a feature file: "+file);
+        }
+        mDescriptorSize = header.getInt(8);
+        mDescriptorType = header.getInt(12);
+        mFrameCount = header.getInt(16);
+        long table = header.getLong(24);
+        long tableSize = (long)mFrameCount * TABLE_ENTRY_SIZE;
+        if ( mFrameCount < 0 || table < HEADER_SIZE || table + tableSize > length ) {
+            throw new IOException("Feature file was not completed: "+file);
+        }
+        if ( tableSize > Integer.MAX_VALUE ) {
+            throw new IOException("Too many frames in feature file: "+file);
+        }
+        mTable = map(table, tableSize);
+    }
+
+    /**
+     * Closes the file. Views returned so far stay readable.
+     * @throws IOException if the file cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        mFile.close();
+    }
+
+    /**
+     * @return number of frames in the file
+     */
+    public int getFrameCount() {
+        return mFrameCount;
+    }
+
+    /**
+     * @return bytes per descriptor
+     */
+    public int getDescriptorSize() {
+        return mDescriptorSize;
+    }
+
+    /**
+     * @return CvType of a descriptor element, CV_8U for ORB and AKAZE
+     */
+    public int getDescriptorType() {
+        return mDescriptorType;
+    }
+
+    /**
+     * @param frame position in the file
+     * @return index of the frame in the output sequence of the split
+     */
+    public int getFrameIndex(int frame) {
+        return mTable.getInt(entry(frame));
+    }
+
+    /**
+     * @param frame position in the file
+     * @return number of keypoints of the frame
+     */
+    public int getFeatureCount(int frame) {
+        return mTable.getInt(entry(frame) + 4);
+    }
+
+    /**
+     * @param frame position in the file
+     * @return time of the frame in the video in microseconds
+     */
+    public long getTimeUs(int frame) {
+        return mTable.getLong(entry(frame) + 8);
+    }
+
+    /**
+     * @param frame position in the file
+     * @return view of the keypoint records of the frame, no data is copied
+     * @throws IOException if the records cannot be mapped
+     */
+    public ByteBuffer getKeypoints(int frame) throws IOException {
+        return map(getOffset(frame), (long)getFeatureCount(frame) * KEYPOINT_SIZE);
+    }
+
+    /**
+     * @param frame position in the file
+     * @return view of the descriptor rows of the frame, no data is copied
+     * @throws IOException if the rows cannot be mapped
+     */
+    public ByteBuffer getDescriptors(int frame) throws IOException {
+        long count = getFeatureCount(frame);
+        return map(getOffset(frame) + count * KEYPOINT_SIZE, count * mDescriptorSize);
+    }
+
+    /**
+     * Copies the descriptors of a frame into a Mat as detectAndCompute returns them
+     * @param frame position in the file
+     * @param dst receives one row per keypoint, reallocated only if its size or type differ
+     * @throws IOException if the rows cannot be mapped
+     */
+    public void getDescriptors(int frame, Mat dst) throws IOException {
+        int count = getFeatureCount(frame);
+        if ( count == 0 ) {
+            dst.release();
+            return;
+        }
+        int elemSize = CvType.ELEM_SIZE(mDescriptorType);
+        dst.create(count, mDescriptorSize / elemSize, mDescriptorType);
+        try ( MatBuffer buffer = dst.mapBuffer() ) {
+            ByteBuffer bytes = buffer.bytes();
+            bytes.clear();
+            bytes.put(getDescriptors(frame));
+        }
+    }
+
+    private long getOffset(int frame) {
+        return mTable.getLong(entry(frame) + 16);
+    }
+
+    private int entry(int frame) {
+        if ( frame < 0 || frame >= mFrameCount ) {
+            throw new IndexOutOfBoundsException("frame "+frame+" of "+mFrameCount);
+        }
+        return frame * TABLE_ENTRY_SIZE;
+    }
+
+    private ByteBuffer map(long offset, long length) throws IOException {
+        if ( length > Integer.MAX_VALUE ) {
+            throw new IOException("Cannot map "+length+" bytes at "+offset);
+        }
+        return mChannel.map(FileChannel.MapMode.READ_ONLY, offset, length).order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
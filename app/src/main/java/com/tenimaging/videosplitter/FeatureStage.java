@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2016. 10 Imaging Inc.
+ */
+package com.tenimaging.videosplitter;
+
+import android.util.Log;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatBuffer;
+import org.opencv.core.MatOfKeyPoint;
+import org.opencv.features2d.AKAZE;
+import org.opencv.features2d.Feature2D;
+import org.opencv.features2d.ORB;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Pipeline stage that extracts ORB or AKAZE keypoints and descriptors from every frame reaching it
+ * and writes them into one FeatureSidecar file per video, so later processing does not have to
+ * decode the saved JPEGs again.
+ * <p>
+ * The native keypoint and descriptor Mats are read through MatBuffer views and packed straight
+ * into the output buffer, so no KeyPoint objects are created.
+ */
+public class FeatureStage extends FrameStage {
+    private static final String TAG = "FeatureStage";       // Tag that marks all log messages from this class
+    public static final int TYPE_ORB = 1;                   // Binary 32 byte ORB descriptors
+    public static final int TYPE_AKAZE = 2;                 // Binary 61 byte AKAZE descriptors
+
+    private final int mType;                // TYPE_ORB or TYPE_AKAZE
+    private final int mMaxFeatures;         // Most keypoints kept per frame, used by ORB
+
+    private Feature2D mDetector;            // Keypoint detector and descriptor extractor
+    private Mat mGray;                      // Gray frame the detector runs on
+    private Mat mNoMask;                    // Empty mask, search the whole frame
+    private MatOfKeyPoint mKeypoints;       // Keypoints of the current frame
+    private Mat mDescriptors;               // Descriptors of the current frame
+    private File mOutput;                   // Sidecar file
+    private RandomAccessFile mFile;         // Open sidecar file
+    private FileChannel mChannel;           // Channel of mFile
+    private ByteBuffer mRecords;            // Staging buffer for the records of one frame
+    private int mDescriptorSize;            // Bytes per descriptor, known after the first frame
+    private int mDescriptorType;            // CvType of the descriptors
+    private int mFrames;                    // Number of frames written
+    private int[] mIndex = new int[256];    // Frame table columns
+    private int[] mCount = new int[256];
+    private long[] mTime = new long[256];
+    private long[] mOffset = new long[256];
+
+    /**
+     * Constructor
+     * @param type TYPE_ORB or TYPE_AKAZE
+     * @param maxFeatures most keypoints kept per frame, AKAZE keeps all it finds
+     */
+    public FeatureStage(int type, int maxFeatures) {
+        mType = type;
+        mMaxFeatures = maxFeatures;
+    }
+
+    @Override
+    public void start(VideoInfo info) throws IOException {
+        if ( mType == TYPE_AKAZE ) {
+            mDetector = AKAZE.create();
+        } else {
+            ORB orb = ORB.create();
+            orb.setMaxFeatures(mMaxFeatures);
+            mDetector = orb;
+        }
+        mGray = new Mat();
+        mNoMask = new Mat();
+        mKeypoints = new MatOfKeyPoint();
+        mDescriptors = new Mat();
+
+        mOutput = new File(info.outDir, info.baseName + FeatureSidecar.EXTENSION);
+        mFile = new RandomAccessFile(mOutput, "rw");
+        mFile.setLength(0);
+        mChannel = mFile.getChannel();
+        // the header is completed in finish(), a file without it is never taken as valid
+        mChannel.position(FeatureSidecar.HEADER_SIZE);
+    }
+
+    @Override
+    public boolean process(Frame frame) throws IOException {
+        Imgproc.cvtColor(frame.image, mGray, Imgproc.COLOR_BGR2GRAY);
+        mDetector.detectAndCompute(mGray, mNoMask, mKeypoints, mDescriptors);
+
+        int count = mKeypoints.rows();
+        if ( count > 0 && mDescriptorSize == 0 ) {
+            mDescriptorSize = (int)(mDescriptors.cols() * mDescriptors.elemSize());
+            mDescriptorType = mDescriptors.type();
+        }
+        addFrame(frame.index, count, frame.timeUs, mChannel.position());
+        if ( count == 0 ) {
+            return true;
+        }
+
+        ByteBuffer records = getRecordBuffer(count * (FeatureSidecar.KEYPOINT_SIZE + mDescriptorSize));
+        try ( MatBuffer keypoints = mKeypoints.mapBuffer(); MatBuffer descriptors = mDescriptors.mapBuffer() ) {
+            // keypoint Mat rows are x, y, size, angle, response, octave, class_id as floats
+            FloatBuffer kp = keypoints.floats();
+            for ( int i=0; i<count; i++ ) {
+                int base = i * 7;
+                records.putFloat(kp.get(base)).putFloat(kp.get(base + 1)).putFloat(kp.get(base + 2))
+                        .putFloat(kp.get(base + 3)).putFloat(kp.get(base + 4)).putInt((int)kp.get(base + 5));
+            }
+            ByteBuffer desc = descriptors.bytes();
+            desc.clear();
+            records.put(desc);
+        }
+        records.flip();
+        while ( records.hasRemaining() ) {
+            mChannel.write(records);
+        }
+        return true;
+    }
+
+    @Override
+    public void finish() throws IOException {
+        long table = mChannel.position();
+        ByteBuffer entries = ByteBuffer.allocateDirect(mFrames * FeatureSidecar.TABLE_ENTRY_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        for ( int i=0; i<mFrames; i++ ) {
+            entries.putInt(mIndex[i]).putInt(mCount[i]).putLong(mTime[i]).putLong(mOffset[i]);
+        }
+        entries.flip();
+        while ( entries.hasRemaining() ) {
+            mChannel.write(entries);
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(FeatureSidecar.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(FeatureSidecar.MAGIC).putInt(FeatureSidecar.VERSION).putInt(mDescriptorSize)
+                .putInt(mDescriptorType).putInt(mFrames).putInt(0).putLong(table).flip();
+        while ( header.hasRemaining() ) {
+            mChannel.write(header, header.position());
+        }
+        Log.i(TAG, "Wrote features of "+mFrames+" frames to "+mOutput);
+    }
+
+    @Override
+    public void release() {
+        if ( mFile != null ) {
+            try {
+                mFile.close();
+            } catch (IOException ex) {
+                // nothing else we can do
+            }
+            mFile = null;
+        }
+        if ( mGray != null ) {
+            mGray.release();
+            mNoMask.release();
+            mKeypoints.release();
+            mDescriptors.release();
+        }
+    }
+
+    /**
+     * Adds an entry to the frame table
+     */
+    private void addFrame(int index, int count, long timeUs, long offset) {
+        if ( mFrames == mIndex.length ) {
+            int size = mFrames * 2;
+            mIndex = Arrays.copyOf(mIndex, size);
+            mCount = Arrays.copyOf(mCount, size);
+            mTime = Arrays.copyOf(mTime, size);
+            mOffset = Arrays.copyOf(mOffset, size);
+        }
+        mIndex[mFrames] = index;
+        mCount[mFrames] = count;
+        mTime[mFrames] = timeUs;
+        mOffset[mFrames] = offset;
+        mFrames++;
+    }
+
+    /**
+     * @param bytes number of bytes needed
+     * @return empty staging buffer with room for the given number of bytes
+     */
+    private ByteBuffer getRecordBuffer(int bytes) {
+        if ( mRecords == null || mRecords.capacity() < bytes ) {
+            mRecords = ByteBuffer.allocateDirect(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        mRecords.clear();
+        return mRecords;
+    }
+}
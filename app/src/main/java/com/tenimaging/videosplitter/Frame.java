@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2016. 10 Imaging Inc.
+ */
+package com.tenimaging.videosplitter;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+
+import java.util.ArrayList;
+
+/**
+ * One frame travelling through a FramePipeline. The same Frame object is reused for every
+ * frame of a split, so stages must not keep references to it or its image between calls.
+ */
+public class Frame {
+    public Mat image;                                       // BGR pixels, a stage may point this at its own output Mat
+    public int index;                                       // Position of the frame in the output sequence
+    public long timeUs;                                     // Time of the frame in the video in microseconds
+    public float score;                                     // Score a classifier gave the frame, NaN if none did
+    public final ArrayList<Rect> regions = new ArrayList<>();   // Regions of interest found by earlier stages
+    public final double[] correction = new double[6];       // 2x3 affine warp a stabilizer measured for the frame
+
+    /**
+     * Prepares this object for the next frame
+     * @param bgr BGR pixels of the frame
+     * @param i position of the frame in the output sequence
+     * @param t time of the frame in the video in microseconds
+     */
+    public void set(Mat bgr, int i, long t) {
+        image = bgr;
+        index = i;
+        timeUs = t;
+        score = Float.NaN;
+        regions.clear();
+        setIdentity(correction);
+    }
+
+    /**
+     * Copies another frame into this one, the pixels included
+     * @param other frame to copy
+     * @param pixels Mat that receives the pixels and becomes the image of this frame
+     */
+    public void copyFrom(Frame other, Mat pixels) {
+        other.image.copyTo(pixels);
+        image = pixels;
+        index = other.index;
+        timeUs = other.timeUs;
+        score = other.score;
+        regions.clear();
+        regions.addAll(other.regions);
+        System.arraycopy(other.correction, 0, correction, 0, correction.length);
+    }
+
+    /**
+     * Sets a 2x3 affine warp to the one that keeps every pixel in place
+     * @param warp row major 2x3 matrix
+     */
+    private static void setIdentity(double[] warp) {
+        warp[0] = 1;
+        warp[1] = 0;
+        warp[2] = 0;
+        warp[3] = 0;
+        warp[4] = 1;
+        warp[5] = 0;
+    }
+
+    /**
+     * Used to display the contents of this class
+     * @return Information about this class
+     */
+    @Override
+    public String toString() {
+        return "{ index="+index+", timeUs="+timeUs+", score="+score+", image="+image+", regions="+regions.size()+"}";
+    }
+}
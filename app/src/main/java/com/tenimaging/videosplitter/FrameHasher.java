@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2016. 10 Imaging Inc.
+ */
+package com.tenimaging.videosplitter;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Computes a 256 bit difference hash of a frame. The frame is shrunk to 17x16 gray pixels and
+ * every bit tells if a pixel is darker than its right neighbour. Frames that look alike have
+ * hashes that differ in few bits, so the Hamming distance of two hashes measures how similar two
+ * frames are, independent of resolution, compression and small changes in brightness.
+ */
+public class FrameHasher {
+    public static final int WORDS = 4;                      // Number of longs in a hash
+    public static final int BITS = WORDS * 64;              // Number of bits in a hash
+    private static final int COLS = 17;                     // Size of the shrunk frame
+    private static final int ROWS = 16;
+
+    private final Size mSize = new Size(COLS, ROWS);        // Size of the shrunk frame
+    private final Mat mSmall = new Mat();                   // Shrunk frame
+    private final Mat mGray = new Mat();                    // Shrunk gray frame
+    private final byte[] mPixels = new byte[COLS * ROWS];   // Pixels of mGray
+
+    /**
+     * Computes the hash of a frame
+     * @param bgr BGR frame
+     * @param code receives the hash in its first WORDS longs
+     */
+    public void hash(Mat bgr, long[] code) {
+        // shrinking first keeps the color conversion down to 272 pixels
+        Imgproc.resize(bgr, mSmall, mSize, 0, 0, Imgproc.INTER_AREA);
+        Imgproc.cvtColor(mSmall, mGray, Imgproc.COLOR_BGR2GRAY);
+        mGray.get(0, 0, mPixels);
+
+        int bit = 0;
+        for ( int w=0; w<WORDS; w++ ) {
+            code[w] = 0;
+        }
+        for ( int r=0; r<ROWS; r++ ) {
+            int row = r * COLS;
+            for ( int c=0; c<COLS-1; c++, bit++ ) {
+                if ( (mPixels[row + c] & 0xff) < (mPixels[row + c + 1] & 0xff) ) {
+                    code[bit >>> 6] |= 1L << (bit & 63);
+                }
+            }
+        }
+    }
+
+    /**
+     * Frees the working memory
+     */
+    public void release() {
+        mSmall.release();
+        mGray.release();
+    }
+
+    /**
+     * @param a first hash
+     * @param b second hash
+     * @return number of bits the hashes differ in
+     */
+    public static int distance(long[] a, long[] b) {
+        int bits = 0;
+        for ( int w=0; w<WORDS; w++ ) {
+            bits += Long.bitCount(a[w] ^ b[w]);
+        }
+        return bits;
+    }
+}
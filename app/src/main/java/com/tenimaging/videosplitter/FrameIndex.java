@@ -0,0 +1,374 @@
+/*
+ * Copyright (c) 2016. 10 Imaging Inc.
+ */
+package com.tenimaging.videosplitter;
+
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Finds frames that look like a given frame across every video that was split with indexing on.
+ * <p>
+ * Every indexed frame is stored with its FrameHasher hash. The 256 bit hashes are cut into 16
+ * bands of 16 bits, and for every band a table lists the frames by band value. Two hashes within
+ * 15 bits of each other share at least one band exactly, and two within 31 bits share one band up
+ * to a single bit, so looking up the query's band values and their one bit neighbours finds every
+ * frame within 31 bits while touching only a few thousand candidates out of millions. Candidates
+ * are then checked with the full Hamming distance.
+ * <p>
+ * The index is kept in a folder:
+ * <pre>
+ * videos.txt   one video path per line, the line number is the video id
+ * entries.bin  per frame: hash (4 longs), video id, frame index (ints), time in us (long)
+ * bands.bin    count of entries covered, then per band: offsets int[65537], entry ids int[count]
+ * </pre>
+ * Both binary files are little endian and memory mapped by readers. New frames are appended to
+ * entries.bin and found by a linear scan until the band tables are rebuilt, which happens when
+ * the uncovered tail grows past a quarter of the index.
+ */
+public class FrameIndex {
+    private static final String TAG = "FrameIndex";         // Tag that marks all log messages from this class
+    private static final String VIDEOS = "videos.txt";      // List of indexed videos
+    private static final String ENTRIES = "entries.bin";    // Hash and origin of every frame
+    private static final String BANDS = "bands.bin";        // Band tables
+    private static final int ENTRY_SIZE = 48;               // Bytes per entry
+    private static final int BANDS_MAGIC = 0x31424956;      // "VIB1" in little endian
+    private static final int BAND_COUNT = 16;               // Number of bands
+    private static final int BAND_BITS = 16;                // Bits per band
+    private static final int BAND_KEYS = 1 << BAND_BITS;    // Values a band can take
+    private static final int MIN_REBUILD = 4096;            // Tail size that always triggers a rebuild
+    private static final Object sLock = new Object();       // Serializes writers of all indexes
+
+    /**
+     * One frame found by a query
+     */
+    public static class Match {
+        public final String video;          // Path of the video the frame came from
+        public final int frame;             // Index of the frame in the output of the split
+        public final long timeUs;           // Time of the frame in the video in microseconds
+        public final int distance;          // Bits the frame's hash differs from the query
+
+        Match(String v, int f, long t, int d) {
+            video = v;
+            frame = f;
+            timeUs = t;
+            distance = d;
+        }
+
+        /**
+         * Used to display the contents of this class
+         * @return Information about this class
+         */
+        @Override
+        public String toString() {
+            return "{ video="+video+", frame="+frame+", timeUs="+timeUs+", distance="+distance+"}";
+        }
+    }
+
+    private final String[] mVideos;         // Video path of every video id
+    private final BitSet mReplaced;         // Video ids replaced by a later split of the same video
+    private final ByteBuffer mEntries;      // Mapped entries.bin
+    private final int mEntryCount;          // Number of entries when the index was opened
+    private final IntBuffer mBands;         // Mapped band tables, null if there are none yet
+    private final int mTableSize;           // Ints per band table
+    private final int mCovered;             // Number of entries covered by the band tables
+
+    /**
+     * Adds the frames of a split to the index in a folder. A video that was indexed before
+     * replaces its old frames.
+     * @param dir index folder, created if needed
+     * @param video video that was split
+     * @param count number of frames
+     * @param codes hashes of the frames, FrameHasher.WORDS longs each
+     * @param frames index of every frame in the output of the split
+     * @param times time of every frame in microseconds
+     * @throws IOException if the index cannot be written
+     */
+    public static void append(File dir, File video, int count, long[] codes, int[] frames, long[] times)
+            throws IOException {
+        synchronized ( sLock ) {
+            if ( !dir.isDirectory() && !dir.mkdirs() ) {
+                throw new IOException("Cannot create index folder "+dir);
+            }
+            int videoId = readVideos(dir).size();
+            try ( BufferedWriter out = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(new File(dir, VIDEOS), true), "UTF-8")) ) {
+                out.write(video.getAbsolutePath());
+                out.newLine();
+            }
+
+            ByteBuffer records = ByteBuffer.allocateDirect(count * ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            for ( int i=0; i<count; i++ ) {
+                for ( int w=0; w<FrameHasher.WORDS; w++ ) {
+                    records.putLong(codes[i * FrameHasher.WORDS + w]);
+                }
+                records.putInt(videoId).putInt(frames[i]).putLong(times[i]);
+            }
+            records.flip();
+            long entries;
+            try ( RandomAccessFile file = new RandomAccessFile(new File(dir, ENTRIES), "rw") ) {
+                FileChannel channel = file.getChannel();
+                // drop a partly written record left by an earlier failure
+                long length = channel.size() - channel.size() % ENTRY_SIZE;
+                channel.truncate(length);
+                channel.position(length);
+                while ( records.hasRemaining() ) {
+                    channel.write(records);
+                }
+                entries = channel.size() / ENTRY_SIZE;
+            }
+
+            int covered = readCovered(dir);
+            if ( entries - covered >= Math.max(MIN_REBUILD, covered / 4) ) {
+                rebuild(dir);
+            }
+        }
+    }
+
+    /**
+     * Rebuilds the band tables so they cover every entry
+     * @param dir index folder
+     * @throws IOException if the index cannot be read or written
+     */
+    public static void rebuild(File dir) throws IOException {
+        synchronized ( sLock ) {
+            long start = System.nanoTime();
+            ByteBuffer entries = map(new File(dir, ENTRIES));
+            int count = entries.capacity() / ENTRY_SIZE;
+            File temp = new File(dir, BANDS + ".tmp");
+            try ( RandomAccessFile file = new RandomAccessFile(temp, "rw") ) {
+                file.setLength(0);
+                FileChannel channel = file.getChannel();
+                ByteBuffer header = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(BANDS_MAGIC).putInt(count).flip();
+                write(channel, header);
+
+                // counting sort of the entry ids by band value, one band at a time
+                int[] offsets = new int[BAND_KEYS + 1];
+                int[] ids = new int[count];
+                ByteBuffer table = ByteBuffer.allocateDirect((BAND_KEYS + 1 + count) * 4).order(ByteOrder.LITTLE_ENDIAN);
+                for ( int band=0; band<BAND_COUNT; band++ ) {
+                    Arrays.fill(offsets, 0);
+                    for ( int id=0; id<count; id++ ) {
+                        offsets[getBand(entries, id, band) + 1]++;
+                    }
+                    for ( int key=0; key<BAND_KEYS; key++ ) {
+                        offsets[key + 1] += offsets[key];
+                    }
+                    table.clear();
+                    for ( int key=0; key<=BAND_KEYS; key++ ) {
+                        table.putInt(offsets[key]);
+                    }
+                    for ( int id=0; id<count; id++ ) {
+                        ids[offsets[getBand(entries, id, band)]++] = id;
+                    }
+                    for ( int id=0; id<count; id++ ) {
+                        table.putInt(ids[id]);
+                    }
+                    table.flip();
+                    write(channel, table);
+                }
+            }
+            if ( !temp.renameTo(new File(dir, BANDS)) ) {
+                temp.delete();
+                throw new IOException("Cannot replace band tables in "+dir);
+            }
+            Log.i(TAG, "Indexed "+count+" frames in "+(System.nanoTime()-start)/1000000+" ms");
+        }
+    }
+
+    /**
+     * Opens the index in a folder for queries. Frames added later are not seen by this object.
+     * @param dir index folder
+     * @return index, empty if the folder does not hold one yet
+     * @throws IOException if the index cannot be read
+     */
+    public static FrameIndex open(File dir) throws IOException {
+        synchronized ( sLock ) {
+            return new FrameIndex(dir);
+        }
+    }
+
+    private FrameIndex(File dir) throws IOException {
+        List<String> videos = readVideos(dir);
+        mVideos = videos.toArray(new String[videos.size()]);
+        mReplaced = new BitSet(mVideos.length);
+        HashMap<String, Integer> latest = new HashMap<>();
+        for ( int id=0; id<mVideos.length; id++ ) {
+            Integer old = latest.put(mVideos[id], id);
+            if ( old != null ) {
+                mReplaced.set(old);
+            }
+        }
+
+        File entries = new File(dir, ENTRIES);
+        mEntries = entries.isFile() ? map(entries) : ByteBuffer.allocate(0);
+        mEntryCount = mEntries.capacity() / ENTRY_SIZE;
+
+        File bands = new File(dir, BANDS);
+        if ( bands.isFile() ) {
+            ByteBuffer map = map(bands);
+            if ( map.getInt(0) != BANDS_MAGIC ) {
+                throw new IOException("Not a band table: "+bands);
+            }
+            mTableSize = BAND_KEYS + 1 + map.getInt(4);
+            mCovered = Math.min(map.getInt(4), mEntryCount);
+            map.position(8);
+            mBands = map.slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+        } else {
+            mTableSize = 0;
+            mCovered = 0;
+            mBands = null;
+        }
+    }
+
+    /**
+     * @return number of frames in the index
+     */
+    public int size() {
+        return mEntryCount;
+    }
+
+    /**
+     * Finds the frames most like the one with the given hash
+     * @param code hash of the query frame, see FrameHasher
+     * @param maxDistance largest Hamming distance reported, at most 31 is guaranteed to find
+     *                    every match, larger values may miss some
+     * @param maxResults most matches returned
+     * @return matches, closest first
+     */
+    public List<Match> query(long[] code, int maxDistance, int maxResults) {
+        ArrayList<Match> matches = new ArrayList<>();
+        long[] candidate = new long[FrameHasher.WORDS];
+
+        if ( mBands != null && mCovered > 0 ) {
+            BitSet seen = new BitSet(mCovered);
+            for ( int band=0; band<BAND_COUNT; band++ ) {
+                int key = getBand(code, band);
+                int table = band * mTableSize;
+                probe(table, key, code, maxDistance, seen, candidate, matches);
+                if ( maxDistance >= BAND_COUNT ) {
+                    // one bit away in this band still means the whole hash may be close enough
+                    for ( int bit=0; bit<BAND_BITS; bit++ ) {
+                        probe(table, key ^ (1 << bit), code, maxDistance, seen, candidate, matches);
+                    }
+                }
+            }
+        }
+
+        // entries added after the last rebuild are not in the band tables yet
+        for ( int id=mCovered; id<mEntryCount; id++ ) {
+            check(id, code, maxDistance, candidate, matches);
+        }
+
+        Collections.sort(matches, new Comparator<Match>() {
+            @Override
+            public int compare(Match a, Match b) {
+                return a.distance - b.distance;
+            }
+        });
+        return (matches.size() > maxResults) ? new ArrayList<>(matches.subList(0, maxResults)) : matches;
+    }
+
+    /**
+     * Checks every entry listed under a band value
+     */
+    private void probe(int table, int key, long[] code, int maxDistance, BitSet seen, long[] candidate,
+                       List<Match> matches) {
+        int first = mBands.get(table + key);
+        int last = mBands.get(table + key + 1);
+        int ids = table + BAND_KEYS + 1;
+        for ( int i=first; i<last; i++ ) {
+            int id = mBands.get(ids + i);
+            if ( id < mCovered && !seen.get(id) ) {
+                seen.set(id);
+                check(id, code, maxDistance, candidate, matches);
+            }
+        }
+    }
+
+    /**
+     * Adds an entry to the matches if it is close enough to the query
+     */
+    private void check(int id, long[] code, int maxDistance, long[] candidate, List<Match> matches) {
+        int base = id * ENTRY_SIZE;
+        for ( int w=0; w<FrameHasher.WORDS; w++ ) {
+            candidate[w] = mEntries.getLong(base + w * 8);
+        }
+        int distance = FrameHasher.distance(code, candidate);
+        int video = mEntries.getInt(base + 32);
+        if ( distance <= maxDistance && !mReplaced.get(video) ) {
+            matches.add(new Match(mVideos[video], mEntries.getInt(base + 36), mEntries.getLong(base + 40), distance));
+        }
+    }
+
+    private static int getBand(long[] code, int band) {
+        return (int)(code[band >>> 2] >>> ((band & 3) * BAND_BITS)) & (BAND_KEYS - 1);
+    }
+
+    private static int getBand(ByteBuffer entries, int id, int band) {
+        long word = entries.getLong(id * ENTRY_SIZE + (band >>> 2) * 8);
+        return (int)(word >>> ((band & 3) * BAND_BITS)) & (BAND_KEYS - 1);
+    }
+
+    private static int readCovered(File dir) throws IOException {
+        File bands = new File(dir, BANDS);
+        if ( !bands.isFile() ) {
+            return 0;
+        }
+        try ( RandomAccessFile file = new RandomAccessFile(bands, "r") ) {
+            // RandomAccessFile reads big endian, the file is little endian
+            if ( Integer.reverseBytes(file.readInt()) != BANDS_MAGIC ) {
+                return 0;
+            }
+            return Integer.reverseBytes(file.readInt());
+        }
+    }
+
+    private static List<String> readVideos(File dir) throws IOException {
+        ArrayList<String> videos = new ArrayList<>();
+        File file = new File(dir, VIDEOS);
+        if ( !file.isFile() ) {
+            return videos;
+        }
+        try ( BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8")) ) {
+            String line;
+            while ( (line = in.readLine()) != null ) {
+                videos.add(line);
+            }
+        }
+        return videos;
+    }
+
+    private static ByteBuffer map(File file) throws IOException {
+        try ( RandomAccessFile raf = new RandomAccessFile(file, "r") ) {
+            return raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length()).order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while ( buffer.hasRemaining() ) {
+            channel.write(buffer);
+        }
+    }
+}
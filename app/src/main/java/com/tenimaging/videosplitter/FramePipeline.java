@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2016. 10 Imaging Inc.
+ */
+package com.tenimaging.videosplitter;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatScope;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Ordered list of FrameStages that every extracted frame runs through
+ */
+public class FramePipeline {
+    private final ArrayList<FrameStage> mStages = new ArrayList<>();    // Stages in the order they run
+    private Batch[] mBatches;                                           // Buffer of every BatchStage, null for other stages
+    private boolean mStarted = false;                                   // Set once start() was called
+
+    /**
+     * Frames waiting for a BatchStage
+     */
+    private static class Batch {
+        final BatchStage stage;             // Stage the frames wait for
+        final Frame[] frames;               // Copies of the waiting frames
+        final Mat[] pixels;                 // Pixels of the copies
+        final boolean[] keep;               // Decision of the stage for every frame
+        int count;                          // Number of waiting frames
+
+        Batch(BatchStage s) {
+            stage = s;
+            int size = s.getBatchSize();
+            frames = new Frame[size];
+            pixels = new Mat[size];
+            keep = new boolean[size];
+            for ( int i=0; i<size; i++ ) {
+                frames[i] = new Frame();
+                pixels[i] = new Mat();
+            }
+        }
+
+        void release() {
+            for ( Mat m: pixels ) {
+                m.release();
+            }
+        }
+    }
+
+    /**
+     * Appends a stage
+     * @param stage stage that runs after the ones already added
+     * @return this pipeline
+     */
+    public FramePipeline add(FrameStage stage) {
+        mStages.add(stage);
+        return this;
+    }
+
+    /**
+     * @return true if start() was called
+     */
+    public boolean isStarted() {
+        return mStarted;
+    }
+
+    /**
+     * Starts all stages. Every stage is started with the information its predecessor passes on.
+     * @param info information about the split
+     * @throws IOException if a stage cannot work with this split
+     */
+    public void start(VideoInfo info) throws IOException {
+        mStarted = true;
+        mBatches = new Batch[mStages.size()];
+        for ( int s=0; s<mStages.size(); s++ ) {
+            FrameStage stage = mStages.get(s);
+            if ( stage instanceof BatchStage ) {
+                mBatches[s] = new Batch((BatchStage) stage);
+            }
+            stage.start(info);
+            info = stage.getOutputInfo(info);
+        }
+    }
+
+    /**
+     * Runs a frame through the stages until one of them drops it. Mats created by the stages
+     * while doing so are released before this method returns.
+     * @param frame frame to handle
+     * @return true if the frame reached the end of the pipeline, false if it was dropped or
+     *         waits for a BatchStage
+     * @throws IOException if a stage failed
+     */
+    public boolean process(Frame frame) throws IOException {
+        try ( MatScope scope = MatScope.open() ) {
+            return runFrom(0, frame);
+        }
+    }
+
+    /**
+     * Finishes all stages after the last frame. Frames still waiting for a BatchStage are
+     * handled first.
+     * @throws IOException if a stage could not complete its output
+     */
+    public void finish() throws IOException {
+        try ( MatScope scope = MatScope.open() ) {
+            for ( int s=0; s<mStages.size(); s++ ) {
+                if ( mBatches[s] != null && mBatches[s].count > 0 ) {
+                    flush(s);
+                }
+            }
+        }
+        for ( FrameStage stage: mStages ) {
+            stage.finish();
+        }
+    }
+
+    /**
+     * Releases all stages
+     */
+    public void release() {
+        for ( int s=0; s<mStages.size(); s++ ) {
+            mStages.get(s).release();
+            if ( mBatches != null && mBatches[s] != null ) {
+                mBatches[s].release();
+            }
+        }
+    }
+
+    /**
+     * Runs a frame through the stages starting at the given one
+     * @param first index of the first stage
+     * @param frame frame to handle
+     * @return true if the frame reached the end of the pipeline
+     * @throws IOException if a stage failed
+     */
+    private boolean runFrom(int first, Frame frame) throws IOException {
+        for ( int s=first; s<mStages.size(); s++ ) {
+            Batch batch = mBatches[s];
+            if ( batch != null ) {
+                // the frame continues once the batch is full
+                batch.frames[batch.count].copyFrom(frame, batch.pixels[batch.count]);
+                batch.count++;
+                if ( batch.count == batch.frames.length ) {
+                    flush(s);
+                }
+                return false;
+            }
+            if ( !mStages.get(s).process(frame) ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Hands the waiting frames to a BatchStage and runs the ones it keeps through the rest
+     * @param s index of the BatchStage
+     * @throws IOException if a stage failed
+     */
+    private void flush(int s) throws IOException {
+        Batch batch = mBatches[s];
+        int count = batch.count;
+        batch.count = 0;
+        for ( int i=0; i<count; i++ ) {
+            batch.keep[i] = true;
+        }
+        batch.stage.processBatch(batch.frames, count, batch.keep);
+        for ( int i=0; i<count; i++ ) {
+            if ( batch.keep[i] ) {
+                runFrom(s + 1, batch.frames[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2016. 10 Imaging Inc.
+ */
+package com.tenimaging.videosplitter;
+
+import java.io.IOException;
+
+/**
+ * One step of a FramePipeline: a filter, a transform or a sink.
+ * <p>
+ * Working Mats should be created in start(). The pipeline runs process() inside a MatScope, so
+ * Mats created there are released again after every frame.
+ */
+public abstract class FrameStage {
+
+    /**
+     * Called once before the first frame
+     * @param info information about the split
+     * @throws IOException if the stage cannot work with this split
+     */
+    public void start(VideoInfo info) throws IOException {
+    }
+
+    /**
+     * Handles one frame
+     * @param frame frame to work on, a transform changes it in place
+     * @return false to drop the frame, later stages will not see it
+     * @throws IOException if the frame could not be handled
+     */
+    public abstract boolean process(Frame frame) throws IOException;
+
+    /**
+     * Describes the frames this stage passes on, called right after start(). Stages that change
+     * the frame size override this, so the stages after them start with the size they will see.
+     * @param info information this stage was started with
+     * @return information the next stage is started with
+     */
+    public VideoInfo getOutputInfo(VideoInfo info) {
+        return info;
+    }
+
+    /**
+     * Called once after the last frame of a split that was not canceled
+     * @throws IOException if the output could not be completed
+     */
+    public void finish() throws IOException {
+    }
+
+    /**
+     * Frees the resources of this stage. Always called, also when the split failed or was canceled.
+     */
+    public void release() {
+    }
+}
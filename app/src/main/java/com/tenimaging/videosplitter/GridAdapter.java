@@ -5,46 +5,36 @@ package com.tenimaging.videosplitter;
 
 import android.Manifest;
 import android.app.Activity;
-import android.content.ContentResolver;
 import android.content.pm.PackageManager;
-import android.database.Cursor;
-import android.graphics.Bitmap;
 import android.graphics.Color;
-import android.graphics.drawable.Drawable;
-import android.media.MediaMetadataRetriever;
-import android.media.ThumbnailUtils;
-import android.net.Uri;
 import android.os.Build;
-import android.os.Environment;
-import android.provider.MediaStore;
 import android.support.v4.app.ActivityCompat;
 import android.support.v4.content.ContextCompat;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.AdapterView;
 import android.widget.BaseAdapter;
 import android.widget.ImageView;
 import android.widget.TextView;
-import android.widget.Toast;
 
 import java.io.File;
-import java.lang.reflect.Array;
-import java.util.ArrayList;
-import java.util.Stack;
+import java.io.IOException;
+import java.util.List;
 
 /**
  * This class handles the video icons displayed in a list or grid view
  */
-public class GridAdapter extends BaseAdapter {
+public class GridAdapter extends BaseAdapter implements VideoDiscovery.Listener {
     private static final String TAG = "GridAdapter";    // Tag that marks all log messages from this class
     private static final String EXTENSIONS = ".mp4";    // List of allowable video extensions seperated by ';'
+    private static final String LIBRARY_FILE = "video_paths";   // File in the app cache dir holding the video paths
     private int mCount;                                 // number of videos to display
     private Activity mActivity;                         // calling activity
-    private ArrayList<File> mFiles;                     // Video files we found on SD card
-    private int selectedID;                             // ID of the video file that is currently selected
-    private ArrayList<Bitmap> mThumbnails;              // List of thumbnails one for each video
+    private VideoLibrary mFiles;                        // Video files we found on SD card, paged from disk
+    private int selectedID;                             // Library record of the video that is currently selected, -1 if none
+    private ThumbnailLoader mThumbnails;                // Loads and caches the thumbnails shown for each video
+    private VideoDiscovery mDiscovery;                  // Finds the video files in the background
     private ViewHolder mLastSelected;                   // used to deselect last selected video
 
     /**
@@ -54,6 +44,7 @@ public class GridAdapter extends BaseAdapter {
     public GridAdapter(Activity activity) {
         super();
         this.mActivity = activity;
+        mThumbnails = new ThumbnailLoader(activity);
 
         // Get permissions to access external storage if we are using and sdk of 23 or greater
         if(Build.VERSION.SDK_INT >= 23 ) {
@@ -67,14 +58,86 @@ public class GridAdapter extends BaseAdapter {
             } // else we already have permission
         } // else we got permissions at install
 
-        // Find all videos on external storage and create the thumbnails for each one
-        loadExternalVideoFiles();
+        try {
+            mFiles = new VideoLibrary(new File(activity.getCacheDir(), LIBRARY_FILE));
+        } catch (IOException ex) {
+            Log.i(TAG, "Cannot create video library: "+ex);
+            mFiles = null;
+        }
+        mCount = 0;
+        mLastSelected = null;
+        selectedID = -1;
 
-        Log.i(TAG, "found "+mFiles.size() + " video files");
+        // Find all videos on external storage in the background, they are added to the grid as
+        // they are found and thumbnails are loaded once they are displayed
+        mDiscovery = new VideoDiscovery(activity, new File(MainActivity.getExternalDir()), EXTENSIONS);
+        mDiscovery.start(this);
+    }
 
-        mCount = mFiles.size();
-        mLastSelected = null;
+    /**
+     * Adds newly found videos to the grid. Without a sort order they go to the end, otherwise they
+     * are merged in between the videos already shown; the selection follows its video either way
+     * because it is kept by library record.
+     * @param videos videos found
+     */
+    @Override
+    public void videosFound(List<VideoEntry> videos) {
+        if ( mFiles == null ) {
+            return;
+        }
+        mFiles.addAll(videos);
+        mCount = mFiles.getCount();
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Changes the order the videos are displayed in. This clears the selection because positions change.
+     * @param sortBy one of the VideoLibrary SORT_ values
+     * @param ascending true to show the smallest value first
+     */
+    public void setSort(int sortBy, boolean ascending) {
+        if ( mFiles == null ) {
+            return;
+        }
+        mFiles.setSort(sortBy, ascending);
+        viewChanged();
+    }
+
+    /**
+     * Only displays videos whose date, size or duration lies inside [min, max]. This clears the
+     * selection because positions change.
+     * @param column one of VideoLibrary SORT_DATE, SORT_SIZE or SORT_DURATION
+     * @param min smallest value to show
+     * @param max largest value to show
+     */
+    public void setFilter(int column, long min, long max) {
+        if ( mFiles == null ) {
+            return;
+        }
+        mFiles.setFilter(column, min, max);
+        viewChanged();
+    }
+
+    /**
+     * Drops the selection and redraws the grid after the order of the videos changed
+     */
+    private void viewChanged() {
         selectedID = -1;
+        if ( mLastSelected != null ) {
+            mLastSelected.imgView.setBackgroundColor(Color.WHITE);
+            mLastSelected = null;
+        }
+        mCount = mFiles.getCount();
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Called once all video files have been found
+     * @param total number of videos found
+     */
+    @Override
+    public void discoveryFinished(int total) {
+        Log.i(TAG, "found "+total + " video files");
     }
 
     /**
@@ -84,17 +147,30 @@ public class GridAdapter extends BaseAdapter {
      */
     public void selectItem(int position, View v) {
         Log.i(TAG, "selectItem");
-        if ( selectedID == position ) {
+        int record = mFiles.getRecord(position);
+        if ( selectedID == record ) {
             // deselect the video
             selectedID = -1;
             mLastSelected.imgView.setBackgroundColor(Color.WHITE);
+            mLastSelected = null;
         } else {
             // mark this video as selected
-            selectedID = position;
+            selectedID = record;
             updateSelectedView(v);
         }
     }
 
+    /**
+     * Finds the selected video in the grid
+     * @return position of the selected video or -1 if no video is selected
+     */
+    public int getSelectedPosition() {
+        if ( selectedID < 0 || mFiles == null ) {
+            return -1;
+        }
+        return mFiles.findRecord(selectedID);
+    }
+
     /**
      * Removes visual selection of previous video and add visual selection of current video
      * @param v current video to show as selected
@@ -108,68 +184,14 @@ public class GridAdapter extends BaseAdapter {
     }
 
     /**
-     * Checks if the given file is a video file or not
-     * @param file file to test if it is a video
-     * @return true if the given file is a video otherwise false
+     * Stops finding videos and loading thumbnails, call when the owning activity is destroyed
      */
-    private boolean checkIfVideo(File file) {
-        String[] extensions = EXTENSIONS.split(";");
-        boolean isVideo = false;
-        for ( String extension: extensions ) {
-            if ( file.getName().endsWith(extension) ) {
-                isVideo = true;
-                break;
-            }
+    public void release() {
+        mDiscovery.cancel();
+        mThumbnails.shutdown();
+        if ( mFiles != null ) {
+            mFiles.close();
         }
-        return isVideo;
-    }
-
-    /**
-     * Looks for all video files with the given extension on external storage
-     */
-    private void loadExternalVideoFiles() {
-
-        // Create new list of files and thumbnails
-        ArrayList<File> nFiles = new ArrayList<>();
-        ArrayList<Bitmap> thumbnails = new ArrayList<>();
-
-        // This stack is used to store all folders we have not yet checked.
-        Stack<File> stack = new Stack<>();
-        File current = new File(MainActivity.getExternalDir());
-
-        stack.add(current);
-
-
-        // For each folder on the stack look for all video files and new folders
-        while ( !stack.empty() ) {
-            current = stack.pop();
-
-            // Look at each file in this folder and grab the videos and subfolders
-            File[] list = current.listFiles();
-            for ( File file: list ) {
-
-                if ( file.canRead() ) {
-
-                    if (file.isDirectory()) {
-                        // add subfolder to the stack
-                        stack.push(file);
-
-                    } else if ( checkIfVideo(file) ) {
-
-                        // create new thumbnail for this video and save both thumbnail and file for later
-                        Bitmap thumb = ThumbnailUtils.createVideoThumbnail(file.getAbsolutePath(), MediaStore.Video.Thumbnails.MICRO_KIND);
-                        nFiles.add(file);
-                        thumbnails.add(thumb);
-
-                    } // else ignore files that do not match our given extension
-
-                } // else ignore folders and files we cannot read
-            }
-        } // end while loop through all folders in stack
-
-        // save all files and thumbnails found
-        mFiles = nFiles;
-        mThumbnails = thumbnails;
     }
 
     /**
@@ -184,11 +206,12 @@ public class GridAdapter extends BaseAdapter {
     /**
      * Returns the video at the given position
      * @param position index of the video we want
-     * @return Video file at the given position
+     * @return Video file at the given position or null if it cannot be read
      */
     @Override
     public Object getItem(int position) {
-        return mFiles.get(position);
+        VideoEntry video = mFiles.get(position);
+        return (video != null) ? video.file : null;
     }
 
     /**
@@ -240,12 +263,26 @@ public class GridAdapter extends BaseAdapter {
         }
 
         // add the video content for this position into the display view
-        view.imgView.setImageBitmap(mThumbnails.get(position));
-        view.txtView.setText(mFiles.get(position).getName()); // Update the value for the text
+        // Request the thumbnail in the background, this also cancels the request of the video
+        // that was shown by a recycled view before it scrolled away
+        VideoEntry video = mFiles.get(position);
+        if ( video != null ) {
+            mThumbnails.load(video.file, view.imgView);
+            view.txtView.setText(video.file.getName()); // Update the value for the text
+        } else {
+            // the path could not be read, show an empty cell until the next redraw tries again
+            mThumbnails.cancel(view.imgView);
+            view.imgView.setImageBitmap(null);
+            view.txtView.setText("");
+        }
 
-        // make sure to marke this view as selected if selectedID equals our position
-        if ( selectedID == position ) {
+        // make sure to mark this view as selected if it shows the selected video, and that a
+        // recycled view does not keep the mark of the video it showed before
+        if ( selectedID >= 0 && mFiles.getRecord(position) == selectedID ) {
             updateSelectedView(convertView);
+        } else if ( mLastSelected == view ) {
+            view.imgView.setBackgroundColor(Color.WHITE);
+            mLastSelected = null;
         }
 
         return convertView;
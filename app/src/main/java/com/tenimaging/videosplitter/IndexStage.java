@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2016. 10 Imaging Inc.
+ */
+package com.tenimaging.videosplitter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Pipeline stage that hashes every frame reaching it and adds the frames to a FrameIndex once
+ * the split is complete, so they can be found by similarity later.
+ */
+public class IndexStage extends FrameStage {
+    private final File mIndexDir;           // Folder of the index
+
+    private File mVideo;                    // Video being split
+    private FrameHasher mHasher;            // Computes the frame hashes
+    private long[] mCode = new long[FrameHasher.WORDS];     // Hash of the current frame
+    private long[] mCodes;                  // Hashes of all frames so far
+    private int[] mFrames;                  // Index of every hashed frame
+    private long[] mTimes;                  // Time of every hashed frame
+    private int mCount;                     // Number of hashed frames
+
+    /**
+     * Constructor
+     * @param indexDir folder of the index the frames are added to
+     */
+    public IndexStage(File indexDir) {
+        mIndexDir = indexDir;
+    }
+
+    @Override
+    public void start(VideoInfo info) throws IOException {
+        mVideo = info.video;
+        mHasher = new FrameHasher();
+        int capacity = Math.max(16, info.frameCount);
+        mCodes = new long[capacity * FrameHasher.WORDS];
+        mFrames = new int[capacity];
+        mTimes = new long[capacity];
+    }
+
+    @Override
+    public boolean process(Frame frame) throws IOException {
+        mHasher.hash(frame.image, mCode);
+        if ( mCount == mFrames.length ) {
+            mCodes = Arrays.copyOf(mCodes, mCodes.length * 2);
+            mFrames = Arrays.copyOf(mFrames, mFrames.length * 2);
+            mTimes = Arrays.copyOf(mTimes, mTimes.length * 2);
+        }
+        System.arraycopy(mCode, 0, mCodes, mCount * FrameHasher.WORDS, FrameHasher.WORDS);
+        mFrames[mCount] = frame.index;
+        mTimes[mCount] = frame.timeUs;
+        mCount++;
+        return true;
+    }
+
+    @Override
+    public void finish() throws IOException {
+        FrameIndex.append(mIndexDir, mVideo, mCount, mCodes, mFrames, mTimes);
+    }
+
+    @Override
+    public void release() {
+        if ( mHasher != null ) {
+            mHasher.release();
+        }
+    }
+}
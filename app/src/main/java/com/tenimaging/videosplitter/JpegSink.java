@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2016. 10 Imaging Inc.
+ */
+package com.tenimaging.videosplitter;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.imgcodecs.Imgcodecs;
+
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Last stage of the default pipeline: saves every frame as a JPEG file, and optionally the
+ * regions found by earlier stages as separate JPEG crops
+ */
+public class JpegSink extends FrameStage {
+    private final boolean mSaveRegions; // Also save the regions of interest of each frame
+    private String mPrefix;             // Output path up to the frame number
+    private Mat mCrop;                  // Header reused to point at each region
+
+    /**
+     * Constructor
+     * @param saveRegions true to also save every region of interest as its own file
+     */
+    public JpegSink(boolean saveRegions) {
+        mSaveRegions = saveRegions;
+    }
+
+    @Override
+    public void start(VideoInfo info) throws IOException {
+        mPrefix = info.outDir.getAbsolutePath() + "/" + info.baseName;
+        mCrop = new Mat();
+    }
+
+    @Override
+    public boolean process(Frame frame) throws IOException {
+        String fileName = String.format(Locale.ENGLISH,"%1$s_%2$06d.jpg", mPrefix, frame.index);
+        if ( !Imgcodecs.imwrite(fileName, frame.image) ) {
+            throw new IOException("Cannot write "+fileName);
+        }
+
+        if ( mSaveRegions ) {
+            for ( int r=0; r<frame.regions.size(); r++ ) {
+                Rect region = frame.regions.get(r);
+                fileName = String.format(Locale.ENGLISH,"%1$s_%2$06d_r%3$d.jpg", mPrefix, frame.index, r);
+                Imgcodecs.imwrite(fileName, frame.image.submat(region, mCrop));
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void release() {
+        if ( mCrop != null ) {
+            mCrop.release();
+        }
+    }
+}
@@ -5,7 +5,6 @@ package com.tenimaging.videosplitter;
 
 import android.content.Context;
 import android.content.Intent;
-import android.os.AsyncTask;
 import android.os.Environment;
 import android.provider.MediaStore;
 import android.support.v7.app.AppCompatActivity;
@@ -30,7 +29,6 @@ public class MainActivity extends AppCompatActivity {
     private static final String EXTERNAL_DIR = Environment.getExternalStorageDirectory()+"/DCIM/"; // Baseline folder for output
     private static final String BASE_DIR = EXTERNAL_DIR+"camera0/";
     static final String TAG = "MainActivity";   // TAG that marks log messages from this class
-    private int mSelected;                      // id of the video that is selected
     private ListView mListView;                 // ListView that displays progress of VideoSplitTasks
     private EditText mPathView;                 // View that holds the output path
     private EditText mFolderView;               // View that holds the output directory name
@@ -77,9 +75,6 @@ public class MainActivity extends AppCompatActivity {
         mPathView.setHint(BASE_DIR);
         mFolderView = (EditText) findViewById(R.id.folderText);
 
-        // Set default video selected as -1 so we do not accidentally split a video we do not have selected
-        mSelected = -1;
-
         // Load in video thumbnails into our GridView
         vidAdapter = new GridAdapter(this);
         final GridView gridView = (GridView) findViewById(R.id.gridView1);
@@ -98,14 +93,13 @@ public class MainActivity extends AppCompatActivity {
             @Override
             public void onItemClick(AdapterView parent, View v, int position, long id) {
                 vidAdapter.selectItem(position, v);
-                if ( mSelected == position ) {
-                    // Unselect this video because we clicked it twice
-                    mSelected = -1;
+                File video = (File)vidAdapter.getItem(position);
+                if ( vidAdapter.getSelectedPosition() < 0 || video == null ) {
+                    // Unselected this video because we clicked it twice
                     mFolderView.setHint("file name");
                 } else {
-                    // select this video
-                    mSelected = position;
-                    mFolderView.setHint(FileParser.getBaseName((File)vidAdapter.getItem(position)));
+                    // selected this video
+                    mFolderView.setHint(FileParser.getBaseName(video));
                 }
                 gridView.invalidateViews();
 
@@ -124,10 +118,22 @@ public class MainActivity extends AppCompatActivity {
         if ( !openCVready ) {
             Log.i(TAG, "Failed to load in OpenCV library");
 
+        } else {
+            // sizes the OpenCV thread pool and calibrates the split layout while the user picks a video
+            SplitScheduler.getInstance(this);
         }
     }
 
 
+    /**
+     * Stops background thumbnail loading when this activity goes away
+     */
+    @Override
+    protected void onDestroy() {
+        vidAdapter.release();
+        super.onDestroy();
+    }
+
     /**
      * Called by Brows button and opens FileDialog to get new output path
      * @param view button pressed to run this method
@@ -167,8 +173,11 @@ public class MainActivity extends AppCompatActivity {
      */
     public void onSplit(View view) {
 
-        // Check that we have a video selected first
-        if ( mSelected < 0 ) {
+        // Check that we have a video selected first, the adapter keeps the selection on its video
+        // while newly found videos are sorted in
+        int selected = vidAdapter.getSelectedPosition();
+        File vidFile = (selected >= 0) ? (File)vidAdapter.getItem(selected) : null;
+        if ( vidFile == null ) {
             Toast.makeText(getApplicationContext(), "Please Select a video File to split", Toast.LENGTH_SHORT).show();
             return;
         } // else continue
@@ -187,7 +196,6 @@ public class MainActivity extends AppCompatActivity {
         }
 
         File dir = new File(path, fileName);
-        File vidFile = (File)vidAdapter.getItem(mSelected);
 
         /* Get the frame skip ratio. The ratio is used to tell how far to move from one frame to the
          * next frame we want. examples:
@@ -206,9 +214,10 @@ public class MainActivity extends AppCompatActivity {
         Toast.makeText(getApplicationContext(), "Splitting ("+vidFile.getName()+") into "+dir.getAbsolutePath(), Toast.LENGTH_SHORT).show();
         Log.i(TAG, "onSplit, skip ratio: "+skipRatio);
 
-        // Create new SplitVideoTask and run it in parallel thread
-        SplitVideoTask task = new SplitVideoTask(vidFile, dir, skipRatio, mListView );
-        task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        // Create new SplitVideoTask and run it on the split scheduler, which keeps the number of
+        // parallel jobs and OpenCV threads from oversubscribing the cores
+        SplitVideoTask task = new SplitVideoTask(vidFile, dir, skipRatio, SplitOptions.load(this), mListView );
+        task.executeOnExecutor(SplitScheduler.getInstance(this).getExecutor());
 
         // Display the log ListView so the user can see progress of the split video task
         mListView.setVisibility(View.VISIBLE);
@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2016. 10 Imaging Inc.
+ */
+package com.tenimaging.videosplitter;
+
+import org.opencv.core.Rect;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Locale;
+
+/**
+ * Pipeline stage that lists every frame reaching it in a CSV manifest next to the frames:
+ * frame index, time in microseconds, classifier score (empty if none) and the regions of interest
+ * as x:y:width:height separated by spaces.
+ */
+public class ManifestSink extends FrameStage {
+    private Writer mWriter;                 // Open manifest
+    private final StringBuilder mLine = new StringBuilder(128);     // Line being built
+
+    @Override
+    public void start(VideoInfo info) throws IOException {
+        File output = new File(info.outDir, info.baseName + "_manifest.csv");
+        mWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(output), "UTF-8"));
+        mWriter.write("frame,time_us,score,regions\n");
+    }
+
+    @Override
+    public boolean process(Frame frame) throws IOException {
+        mLine.setLength(0);
+        mLine.append(frame.index).append(',').append(frame.timeUs).append(',');
+        if ( !Float.isNaN(frame.score) ) {
+            mLine.append(String.format(Locale.ENGLISH, "%.4f", frame.score));
+        }
+        mLine.append(',');
+        for ( int r=0; r<frame.regions.size(); r++ ) {
+            Rect region = frame.regions.get(r);
+            if ( r > 0 ) {
+                mLine.append(' ');
+            }
+            mLine.append(region.x).append(':').append(region.y).append(':')
+                    .append(region.width).append(':').append(region.height);
+        }
+        mLine.append('\n');
+        mWriter.append(mLine);
+        return true;
+    }
+
+    @Override
+    public void finish() throws IOException {
+        mWriter.close();
+        mWriter = null;
+    }
+
+    @Override
+    public void release() {
+        if ( mWriter != null ) {
+            try {
+                mWriter.close();
+            } catch (IOException ex) {
+                // nothing else we can do
+            }
+            mWriter = null;
+        }
+    }
+}
@@ -4,6 +4,8 @@
 package com.tenimaging.videosplitter;
 
 import android.app.Activity;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -14,70 +16,192 @@ import android.widget.ProgressBar;
 import android.widget.TextView;
 
 import java.util.ArrayList;
-import java.util.List;
-import java.util.Stack;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Controls displays used to show background task progress
  */
 public class ProgressAdapter extends BaseAdapter {
     private static final String TAG = "ProgressAdapter"; // Tag that marks all log messages from this class
-    private static final int MAX_START = 10;            // Initial size of lists used
+    private static final int MAX_START = 10;            // Initial capacity of the task registry
+    private static final long TICK_MS = 50;             // Time between UI progress refreshes (20 frames per second)
+    public static final long CANCELED = -1;             // Progress value that marks a task as removed by the user
 
     /**
      * Contains the information for each task we show progress for.
      */
     private class TaskObject {
-        public String name;     // Name of this task
-        public int progress;    // Current progress value
-        public int max;         // Max progress value
-        public int id;          // ID of this task
+        public String name;             // Name of this task
+        public final AtomicLong progress; // Current progress value, written by the worker without locking
+        public int max;                 // Max progress value
+        public final int id;            // ID of this task
 
         /**
          * Constructor
          * @param n name of this task
          * @param m max value for progress
+         * @param i ID of this task
          */
-        public TaskObject ( String n, int m ) {
+        public TaskObject ( String n, int m, int i ) {
             name = n;
             max = m;
-            progress = 0;
-            id = -1;
+            progress = new AtomicLong(0);
+            id = i;
         }
     }
 
-    private List<TaskObject> mTasks;    // List of all task we display
+    /**
+     * Orders tasks by ID, which is the order they were added in
+     */
+    private static final Comparator<TaskObject> BY_ID = new Comparator<TaskObject>() {
+        @Override
+        public int compare(TaskObject a, TaskObject b) {
+            return a.id < b.id ? -1 : (a.id == b.id ? 0 : 1);
+        }
+    };
+
+    private final ConcurrentHashMap<Integer, TaskObject> mTasks;  // All tasks we display, keyed by task ID
+    private final AtomicInteger mNextId;  // Next task ID to hand out, IDs are never reused
+    private final ArrayList<TaskObject> mOrdered;  // mTasks in ID order as the ListView sees it, only touched on the UI thread
     private Activity mActivity;         // Activity that created this adapter
-    private List<Integer> mPositions;   // List used to handle where tasks of certain ID are in mTask list
-    private Stack<Integer> mOpenIds;    // contains task IDs that can be reused to save memory
-    private View parent = null;         // Parent ListView that uses this adapter
+    private ViewGroup parent = null;    // Parent ListView that uses this adapter
+    private Handler mHandler;           // Posts the progress refresh ticks onto the UI thread
+    private boolean mTicking = false;   // true while the progress refresh tick is scheduled
+
+    /**
+     * UI tick that copies the progress counters of all tasks into their visible rows.
+     * Runs at a fixed rate while there are tasks so UI cost does not depend on how fast
+     * the workers produce frames.
+     */
+    private final Runnable mTick = new Runnable() {
+        @Override
+        public void run() {
+            refreshProgress();
+            if ( getCount() > 0 ) {
+                mHandler.postDelayed(this, TICK_MS);
+            } else {
+                mTicking = false;
+            }
+        }
+    };
 
     /**
      * Constructor that just initializes defaults
      * @param activity Calling activity
      */
     public ProgressAdapter(Activity activity) {
-        // Start with an empty list
-        mTasks = new ArrayList<>(MAX_START);
-        mPositions = new ArrayList<>(MAX_START);
+        // Start with an empty registry
+        mTasks = new ConcurrentHashMap<>(MAX_START);
+        mNextId = new AtomicInteger(0);
+        mOrdered = new ArrayList<>(MAX_START);
         mActivity = activity;
-        mOpenIds = new Stack<>();
+        mHandler = new Handler(Looper.getMainLooper());
+    }
+
+    /**
+     * Adds a new task to the ordered list the ListView reads from. Runs on the UI thread so the
+     * ListView never sees the count change underneath it. IDs only grow, so the task nearly always
+     * goes at the end; the binary search only matters when two threads added tasks at once.
+     * @param task task that was added to the registry
+     */
+    private void publishAdd(final TaskObject task) {
+        if ( Looper.myLooper() != Looper.getMainLooper() ) {
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    publishAdd(task);
+                }
+            });
+            return;
+        }
+        if ( mTasks.get(task.id) != task ) {
+            // removed again before it was ever shown
+            return;
+        }
+
+        int position = mOrdered.size();
+        if ( position > 0 && mOrdered.get(position - 1).id > task.id ) {
+            position = -Collections.binarySearch(mOrdered, task, BY_ID) - 1;
+        }
+        mOrdered.add(position, task);
+        published();
+    }
+
+    /**
+     * Removes a task from the ordered list the ListView reads from. Runs on the UI thread.
+     * @param task task that was removed from the registry
+     */
+    private void publishRemove(final TaskObject task) {
+        if ( Looper.myLooper() != Looper.getMainLooper() ) {
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    publishRemove(task);
+                }
+            });
+            return;
+        }
+
+        int position = Collections.binarySearch(mOrdered, task, BY_ID);
+        if ( position < 0 ) {
+            // its add was never published
+            return;
+        }
+        mOrdered.remove(position);
+        published();
+    }
+
+    /**
+     * Tells the ListView that the ordered list changed. Must be called on the UI thread.
+     */
+    private void published() {
+        // Hide the corresponding ListView if there are not tasks to be shown.
+        if ( mOrdered.isEmpty() && parent != null ) {
+            parent.setVisibility(View.GONE);
+        } else if ( !mOrdered.isEmpty() ) {
+            startTicking();
+        }
+        notifyDataSetChanged();
     }
 
     /**
-     * Adjust the locations each task ID points to when removing the given index
-     * @param index - position in mTask that is removed
+     * Starts the progress refresh tick if it is not already running. Must be called on the UI thread.
      */
-    private void adjustPositions(int index) {
-
-        // Make sure that all task IDs that have positions above the given index are
-        // decremented so that they still point to the correct task.
-        int size = mPositions.size();
-        for ( int i = 0; i < size; i++ ) {
-            int pos = mPositions.get(i);
-            if ( pos > index ) {
-                mPositions.set(i, pos - 1);
+    private void startTicking() {
+        if ( !mTicking ) {
+            mTicking = true;
+            mHandler.postDelayed(mTick, TICK_MS);
+        }
+    }
+
+    /**
+     * Updates the progress bar of each visible row whose task progress changed since it was last drawn
+     */
+    private void refreshProgress() {
+        if ( parent == null ) {
+            // nothing has been displayed yet
+            return;
+        }
+
+        int count = parent.getChildCount();
+        for ( int i = 0; i < count; i++ ) {
+            Object tag = parent.getChildAt(i).getTag();
+            if ( !(tag instanceof ViewHolder) ) {
+                continue;
             }
+            ViewHolder row = (ViewHolder) tag;
+            if ( row.task == null ) {
+                continue;
+            }
+            long value = row.task.progress.get();
+            if ( value >= 0 && value != row.shown ) {
+                row.progress.setProgress((int)value);
+                row.shown = value;
+            } // else nothing changed or the task was canceled
         }
     }
 
@@ -87,28 +211,46 @@ public class ProgressAdapter extends BaseAdapter {
      * @param max max value of progress bar
      * @return new Task ID to identify this task
      */
-    public synchronized int addTask(String name, int max ) {
-        TaskObject task = new TaskObject(name, max);
-
-        int tid = mTasks.size();        // new task location inside mTasks
-        int nid = mPositions.size();    // Default task ID
+    public int addTask(String name, int max ) {
+        TaskObject task = new TaskObject(name, max, mNextId.getAndIncrement());
+        mTasks.put(task.id, task);
+        publishAdd(task);
+        return task.id;
+    }
 
-        // check if we have reusable task IDs
-        if ( mOpenIds.empty() ) {
-            // No reusable task ID so just add new one
-            mPositions.add(tid);
-        } else {
-            // get the reusable task ID and set it to point to location of task in mTasks
-            int oid = mOpenIds.pop();
-            mPositions.set(oid,tid);
-            nid = oid;
+    /**
+     * Gets the counter that holds the progress of the task with the given id. Workers write into
+     * the counter directly and the UI tick picks the value up, so no message is posted per update.
+     * @param id ID of the task we want the counter for
+     * @return progress counter of this task or null if the task does not exist
+     */
+    public AtomicLong getProgressCounter(int id) {
+        TaskObject task = mTasks.get(id);
+        if ( task == null ) {
+            // Task must have been removed or does not exist
+            return null;
         }
+        return task.progress;
+    }
 
-        // add new task and return the corresponding ID
-        task.id = nid;
-        mTasks.add(task);
-        notifyDataSetChanged();
-        return nid;
+    /**
+     * Stores a new progress value into a task counter unless the task has been canceled
+     * @param counter progress counter returned by getProgressCounter
+     * @param progress Value of the new progress update
+     * @return true if the progress was stored, false if the task was canceled
+     */
+    public static boolean setProgress(AtomicLong counter, long progress) {
+        if ( counter == null ) {
+            return false;
+        }
+        long current;
+        do {
+            current = counter.get();
+            if ( current == CANCELED ) {
+                return false;
+            }
+        } while ( !counter.compareAndSet(current, progress) );
+        return true;
     }
 
     /**
@@ -117,56 +259,24 @@ public class ProgressAdapter extends BaseAdapter {
      * @param progress Value of the new progress update
      * @return true if we successfully updated progress for this task ID otherwise false
      */
-    public synchronized boolean updateTaskProgress(int id, int progress) {
-        try {
-            mTasks.get(mPositions.get(id)).progress = progress;
-            return true;
-        } catch (IndexOutOfBoundsException ex ) {
-            // Task must have been removed or does not exist
-            return false;
-        }
+    public boolean updateTaskProgress(int id, int progress) {
+        return setProgress(getProgressCounter(id), progress);
     }
 
     /**
      * Remove the task that matches the given task ID
      * @param id ID of the task we want to remove
      */
-    public synchronized void removeTask(int id) {
-        if ( id < 0 ) {
-            // invalid task ID
+    public void removeTask(int id) {
+        TaskObject task = mTasks.remove(id);
+        if ( task == null ) {
+            // Task must have already been removed or never existed, we do not care
             return;
         }
-        // Try to remove this position
-        try {
-            int posRemove = mPositions.get(id);
-            if ( posRemove < 0 ) {
-                // we have already removed this one so we are done
-                return;
-            }
-            if (id == mPositions.size() - 1) {
-                // we can safely remove this task ID without affecting any other in list
-                mPositions.remove(id);
-            } else {
-                // We cannot remove this task ID because it will affect the other IDs so we
-                // will add it to our list of reusable task IDs and mark the task as empty '-1'
-                mPositions.set(id, -1);
-                mOpenIds.push(id);
-            }
 
-            // Make sure all task IDs that point to tasks farther down our list are not affected by
-            // the removal of this task
-            adjustPositions(posRemove);
-            mTasks.remove(posRemove);
-
-            // Hide the corresponding ListView if there are not tasks to be shown.
-            if (mTasks.size() == 0 && parent != null) {
-                parent.setVisibility(View.GONE);
-            }
-        } catch(IndexOutOfBoundsException ex ) {
-            // Task must have already been removed
-            // We do not care
-        }
-        notifyDataSetChanged();
+        // Let the worker know on its next progress update that it has been canceled
+        task.progress.set(CANCELED);
+        publishRemove(task);
     }
 
     /**
@@ -174,8 +284,8 @@ public class ProgressAdapter extends BaseAdapter {
      * @return Number of tasks to be displayed by this adapter
      */
     @Override
-    public synchronized int getCount() {
-        return mTasks.size();
+    public int getCount() {
+        return mOrdered.size();
     }
 
     /**
@@ -205,6 +315,8 @@ public class ProgressAdapter extends BaseAdapter {
         public TextView nameView;
         public ProgressBar progress;
         public Button close;
+        public TaskObject task;     // Task currently shown by this row
+        public long shown;          // Progress value last drawn into this row
     }
 
     /**
@@ -215,7 +327,7 @@ public class ProgressAdapter extends BaseAdapter {
      * @return View displaying content for the task at the given position
      */
     @Override
-    public synchronized View getView(int position, View view, final ViewGroup viewGroup) {
+    public View getView(int position, View view, final ViewGroup viewGroup) {
 
         // Keep the parent view if we do not already have it
         if ( parent == null ) {
@@ -223,13 +335,11 @@ public class ProgressAdapter extends BaseAdapter {
         }
 
         // Make sure we are not trying to access a task that no longer exists
-        TaskObject task;
-        try {
-            task = mTasks.get(position);
-        } catch (IndexOutOfBoundsException ex ) {
+        if ( position < 0 || position >= mOrdered.size() ) {
             // Task must have been removed
             return null;
         }
+        TaskObject task = mOrdered.get(position);
 
         ProgressAdapter.ViewHolder row;
         LayoutInflater inflator = mActivity.getLayoutInflater();
@@ -253,7 +363,9 @@ public class ProgressAdapter extends BaseAdapter {
         // Populate our View with information from this task
         row.nameView.setText(task.name);
         row.progress.setMax(task.max);
-        row.progress.setProgress(task.progress);
+        row.shown = Math.max(0, task.progress.get());
+        row.progress.setProgress((int)row.shown);
+        row.task = task;
         row.close.setTag(task.id);
 
         // Add onClick listener to close button so we can remove this task if user pusses the button
@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2016. 10 Imaging Inc.
+ */
+package com.tenimaging.videosplitter;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.io.File;
+
+/**
+ * Optional processing applied during a split. The options are read from the "split_options"
+ * preferences when a split starts, and turned into the FramePipeline every frame runs through.
+ */
+public class SplitOptions {
+    private static final String PREFS = "split_options";    // Preferences file that keeps the options
+
+    public static final int GATE_NONE = 0;                              // Keep every frame
+    public static final int GATE_FACES = DetectionGate.TARGET_FACES;    // Keep frames that show faces
+    public static final int GATE_PEOPLE = DetectionGate.TARGET_PEOPLE;  // Keep frames that show people
+
+    public boolean skipBlank = false;   // Drop black and other blank frames
+    public float autoCropSeconds = 0;   // Seconds at the start of a video sampled for black bars, 0 to not crop
+    public String calibrationFile;      // Lens calibration used to undistort frames, null to keep them as they are
+    public float undistortAlpha = 0;    // 0 crops undistorted frames to valid pixels, 1 keeps all source pixels
+    public File cacheDir;               // Folder for data stages keep between splits
+    public int classifierType = 0;      // ClassifierGate.MODEL_SVM, MODEL_RTREES or MODEL_KNEAREST, 0 for none
+    public String classifierModel;      // Model file of the classifier gate
+    public int classifierFeatures = ClassifierGate.FEATURES_COLOR | ClassifierGate.FEATURES_SHAPE;  // Features the model was trained on
+    public float classifierThreshold = 0.5f;    // Lowest score of a kept frame
+    public int classifierBatch = 8;     // Frames scored by one predict() call
+    public boolean writeManifest = false;   // List the kept frames in a CSV manifest, always on with a classifier
+    public int enhanceSteps = 0;        // EnhanceStage.DENOISE and/or EQUALIZE, 0 for none
+    public int enhancePreset = EnhanceStage.PRESET_BALANCED;    // Speed over quality of the denoiser
+    public boolean stabilize = false;   // Remove camera shake from the kept frames
+    public int stabilizeWidth = 320;    // Width of the frames camera motion is measured in
+    public float stabilizeSmoothness = 30;  // How strongly the camera path is smoothed
+    public int gateMode = GATE_NONE;    // Which detection gate to use
+    public String cascadeFile;          // Cascade XML file used by GATE_FACES
+    public int gateInterval = 5;        // Run the detector on every gateInterval-th frame
+    public int gateWidth = 320;         // Width of the frame the detector runs on
+    public boolean saveRegions = false; // Also save the detected regions as separate files
+    public int featureType = 0;         // FeatureStage.TYPE_ORB or TYPE_AKAZE to save keypoints, 0 for none
+    public int maxFeatures = 500;       // Most keypoints saved per frame
+    public boolean indexFrames = false; // Add the kept frames to the similarity index
+    public File indexDir;               // Folder of the similarity index
+    public boolean saveFrames = true;   // Save every kept frame as a JPEG file
+    public String videoFourcc;          // Codec of the video the kept frames are written to, null for no video
+    public float videoFps = 0;          // Frame rate of that video, 0 for the rate of the extracted frames
+    public int videoWidth = 0;          // Size of that video, 0 for the frame size
+    public int videoHeight = 0;
+    public int videoBuffers = 4;        // Frames that can wait for the video encoder
+    public boolean contactSheets = false;   // Tile the kept frames into contact sheets
+    public int sheetColumns = 6;        // Thumbnails across a contact sheet
+    public int sheetRows = 8;           // Thumbnails down a contact sheet
+    public int sheetCellWidth = 240;    // Width of a thumbnail on a contact sheet
+
+    /**
+     * Reads the options saved in the preferences, using the defaults for anything not set
+     * @param context any context of the app
+     * @return options for the next split
+     */
+    public static SplitOptions load(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+        SplitOptions options = new SplitOptions();
+        options.skipBlank = prefs.getBoolean("skipBlank", options.skipBlank);
+        options.autoCropSeconds = prefs.getFloat("autoCropSeconds", options.autoCropSeconds);
+        options.calibrationFile = prefs.getString("calibrationFile", options.calibrationFile);
+        options.undistortAlpha = prefs.getFloat("undistortAlpha", options.undistortAlpha);
+        options.cacheDir = new File(context.getCacheDir(), "stages");
+        options.classifierType = prefs.getInt("classifierType", options.classifierType);
+        options.classifierModel = prefs.getString("classifierModel", options.classifierModel);
+        options.classifierFeatures = prefs.getInt("classifierFeatures", options.classifierFeatures);
+        options.classifierThreshold = prefs.getFloat("classifierThreshold", options.classifierThreshold);
+        options.classifierBatch = prefs.getInt("classifierBatch", options.classifierBatch);
+        options.writeManifest = prefs.getBoolean("writeManifest", options.writeManifest);
+        options.enhanceSteps = prefs.getInt("enhanceSteps", options.enhanceSteps);
+        options.enhancePreset = prefs.getInt("enhancePreset", options.enhancePreset);
+        options.stabilize = prefs.getBoolean("stabilize", options.stabilize);
+        options.stabilizeWidth = prefs.getInt("stabilizeWidth", options.stabilizeWidth);
+        options.stabilizeSmoothness = prefs.getFloat("stabilizeSmoothness", options.stabilizeSmoothness);
+        options.gateMode = prefs.getInt("gateMode", options.gateMode);
+        options.cascadeFile = prefs.getString("cascadeFile", options.cascadeFile);
+        options.gateInterval = prefs.getInt("gateInterval", options.gateInterval);
+        options.gateWidth = prefs.getInt("gateWidth", options.gateWidth);
+        options.saveRegions = prefs.getBoolean("saveRegions", options.saveRegions);
+        options.featureType = prefs.getInt("featureType", options.featureType);
+        options.maxFeatures = prefs.getInt("maxFeatures", options.maxFeatures);
+        options.indexFrames = prefs.getBoolean("indexFrames", options.indexFrames);
+        options.indexDir = new File(context.getFilesDir(), "frame_index");
+        options.saveFrames = prefs.getBoolean("saveFrames", options.saveFrames);
+        options.videoFourcc = prefs.getString("videoFourcc", options.videoFourcc);
+        options.videoFps = prefs.getFloat("videoFps", options.videoFps);
+        options.videoWidth = prefs.getInt("videoWidth", options.videoWidth);
+        options.videoHeight = prefs.getInt("videoHeight", options.videoHeight);
+        options.videoBuffers = prefs.getInt("videoBuffers", options.videoBuffers);
+        options.contactSheets = prefs.getBoolean("contactSheets", options.contactSheets);
+        options.sheetColumns = prefs.getInt("sheetColumns", options.sheetColumns);
+        options.sheetRows = prefs.getInt("sheetRows", options.sheetRows);
+        options.sheetCellWidth = prefs.getInt("sheetCellWidth", options.sheetCellWidth);
+        return options;
+    }
+
+    /**
+     * Builds the stages a split runs every frame through
+     * @return new pipeline, started by the split once the frame size is known
+     */
+    public FramePipeline createPipeline() {
+        FramePipeline pipeline = new FramePipeline();
+        // the lens calibration describes the full frame, so undistorted frames are not cropped
+        double cropSeconds = (calibrationFile == null) ? autoCropSeconds : 0;
+        if ( skipBlank || cropSeconds > 0 ) {
+            // first, so blank frames cost nothing further and bars are never processed
+            pipeline.add(new BlankCropStage(skipBlank, cropSeconds));
+        }
+        if ( calibrationFile != null ) {
+            pipeline.add(new UndistortStage(new File(calibrationFile), cacheDir, undistortAlpha));
+        }
+        // motion is measured on every frame, but only the frames that pass the filters are warped
+        StabilizeStage stabilizer = null;
+        if ( stabilize ) {
+            stabilizer = new StabilizeStage(stabilizeWidth, stabilizeSmoothness);
+            pipeline.add(stabilizer);
+        }
+        if ( gateMode != GATE_NONE ) {
+            pipeline.add(new DetectionGate(gateMode, cascadeFile, gateInterval, gateWidth));
+        }
+        if ( classifierType != 0 ) {
+            pipeline.add(new ClassifierGate(classifierType, classifierModel, classifierFeatures,
+                    classifierThreshold, classifierBatch));
+        }
+        if ( stabilizer != null ) {
+            pipeline.add(stabilizer.getWarpStage());
+        }
+        if ( enhanceSteps != 0 ) {
+            // after the filters, so dropped frames are never enhanced
+            pipeline.add(new EnhanceStage(enhanceSteps, enhancePreset));
+        }
+        if ( featureType != 0 ) {
+            pipeline.add(new FeatureStage(featureType, maxFeatures));
+        }
+        if ( indexFrames ) {
+            pipeline.add(new IndexStage(indexDir));
+        }
+        if ( videoFourcc != null ) {
+            pipeline.add(new VideoSink(videoFourcc, videoFps, videoWidth, videoHeight, videoBuffers));
+        }
+        if ( saveFrames ) {
+            pipeline.add(new JpegSink(saveRegions));
+        }
+        if ( contactSheets ) {
+            pipeline.add(new ContactSheetSink(sheetColumns, sheetRows, sheetCellWidth));
+        }
+        if ( writeManifest || classifierType != 0 ) {
+            pipeline.add(new ManifestSink());
+        }
+        return pipeline;
+    }
+
+    /**
+     * Used to display the contents of this class
+     * @return Information about this class
+     */
+    @Override
+    public String toString() {
+        return "{ skipBlank="+skipBlank+", autoCropSeconds="+autoCropSeconds+
+                ", calibrationFile="+calibrationFile+", undistortAlpha="+undistortAlpha+", cacheDir="+cacheDir+
+                ", classifierType="+classifierType+", classifierModel="+classifierModel+
+                ", classifierFeatures="+classifierFeatures+", classifierThreshold="+classifierThreshold+
+                ", classifierBatch="+classifierBatch+", writeManifest="+writeManifest+
+                ", enhanceSteps="+enhanceSteps+", enhancePreset="+enhancePreset+
+                ", stabilize="+stabilize+", stabilizeWidth="+stabilizeWidth+
+                ", stabilizeSmoothness="+stabilizeSmoothness+
+                ", gateMode="+gateMode+", cascadeFile="+cascadeFile+", gateInterval="+gateInterval+
+                ", gateWidth="+gateWidth+", saveRegions="+saveRegions+
+                ", featureType="+featureType+", maxFeatures="+maxFeatures+
+                ", indexFrames="+indexFrames+", indexDir="+indexDir+", saveFrames="+saveFrames+
+                ", videoFourcc="+videoFourcc+", videoFps="+videoFps+", videoSize="+videoWidth+"x"+videoHeight+
+                ", videoBuffers="+videoBuffers+
+                ", contactSheets="+contactSheets+", sheetColumns="+sheetColumns+", sheetRows="+sheetRows+
+                ", sheetCellWidth="+sheetCellWidth+"}";
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright (c) 2016. 10 Imaging Inc.
+ */
+package com.tenimaging.videosplitter;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Process;
+import android.util.Log;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfInt;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs SplitVideoTasks and sizes the OpenCV thread pool to match. OpenCV parallelizes calls like
+ * cvtColor and resize internally, so running several split jobs at once with the default pool
+ * size oversubscribes the cores. The scheduler uses one of two layouts:
+ * <ul>
+ *     <li>{@link #MODE_JOBS}: one worker per core, each OpenCV call single threaded</li>
+ *     <li>{@link #MODE_THREADS}: one worker at a time, each OpenCV call uses every core</li>
+ * </ul>
+ * In {@link #MODE_AUTO} a short benchmark of the per-frame work picks the faster layout the first
+ * time the app runs on a device, and the result is remembered.
+ */
+public class SplitScheduler {
+    private static final String TAG = "SplitScheduler";     // Tag that marks all log messages from this class
+    private static final String PREFS = "split_scheduler";  // Preferences file that keeps the chosen layout
+    private static final String KEY_MODE = "mode";          // Layout chosen by the user, MODE_AUTO by default
+    private static final String KEY_CALIBRATED = "calibrated";  // Layout picked by the benchmark
+    private static final String KEY_CORES = "cores";        // Cores the benchmark ran with
+    private static final int FRAMES_PER_CORE = 3;           // Benchmark frames per core for each layout
+    private static final int FRAME_WIDTH = 640;             // Size of the benchmark frame
+    private static final int FRAME_HEIGHT = 480;
+
+    public static final int MODE_AUTO = 0;      // Pick MODE_JOBS or MODE_THREADS from the benchmark
+    public static final int MODE_JOBS = 1;      // Many split jobs, one OpenCV thread each
+    public static final int MODE_THREADS = 2;   // One split job, all OpenCV threads
+
+    private static SplitScheduler sInstance;    // Shared scheduler of the app
+
+    private final SharedPreferences mPrefs;     // Keeps the mode and the benchmark result
+    private final ThreadPoolExecutor mExecutor; // Workers running the split jobs
+    private final int mCores;                   // Number of cores we schedule for
+    private volatile int mActiveMode;           // MODE_JOBS or MODE_THREADS, whichever is in use
+
+    /**
+     * Gets the scheduler of the app, creating it on first use. OpenCV must already be loaded.
+     * @param context any context of the app
+     * @return shared scheduler
+     */
+    public static synchronized SplitScheduler getInstance(Context context) {
+        if ( sInstance == null ) {
+            sInstance = new SplitScheduler(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Constructor. Starts with a single worker; its first job is the benchmark if one is needed,
+     * so split jobs submitted early simply wait for it.
+     * @param context application context
+     */
+    private SplitScheduler(Context context) {
+        mPrefs = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+        mCores = Math.max(1, Runtime.getRuntime().availableProcessors());
+        mExecutor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger mCount = new AtomicInteger(0);
+
+                    @Override
+                    public Thread newThread(final Runnable runnable) {
+                        return new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                runnable.run();
+                            }
+                        }, TAG + "-" + mCount.getAndIncrement());
+                    }
+                });
+        Core.setUseOptimized(true);
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                apply(resolveMode(getMode()));
+            }
+        });
+    }
+
+    /**
+     * @return executor that runs split jobs with the current layout
+     */
+    public Executor getExecutor() {
+        return mExecutor;
+    }
+
+    /**
+     * @return mode chosen by the user, MODE_AUTO unless changed
+     */
+    public int getMode() {
+        return mPrefs.getInt(KEY_MODE, MODE_AUTO);
+    }
+
+    /**
+     * @return MODE_JOBS or MODE_THREADS, the layout currently in use
+     */
+    public int getActiveMode() {
+        return mActiveMode;
+    }
+
+    /**
+     * Changes the layout. The change is queued behind the jobs already submitted, so they finish
+     * with the layout they were started with.
+     * @param mode MODE_AUTO, MODE_JOBS or MODE_THREADS
+     */
+    public void setMode(final int mode) {
+        mPrefs.edit().putInt(KEY_MODE, mode).apply();
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                apply(resolveMode(mode));
+            }
+        });
+    }
+
+    /**
+     * Turns MODE_AUTO into a concrete layout, running the benchmark if this device has no result yet
+     * @param mode mode chosen by the user
+     * @return MODE_JOBS or MODE_THREADS
+     */
+    private int resolveMode(int mode) {
+        if ( mode != MODE_AUTO ) {
+            return mode;
+        }
+        if ( mCores == 1 ) {
+            return MODE_THREADS;
+        }
+        int calibrated = mPrefs.getInt(KEY_CALIBRATED, MODE_AUTO);
+        if ( calibrated != MODE_AUTO && mPrefs.getInt(KEY_CORES, 0) == mCores ) {
+            return calibrated;
+        }
+        calibrated = calibrate();
+        mPrefs.edit().putInt(KEY_CALIBRATED, calibrated).putInt(KEY_CORES, mCores).apply();
+        return calibrated;
+    }
+
+    /**
+     * Sets the OpenCV thread count and the number of workers for a layout
+     * @param mode MODE_JOBS or MODE_THREADS
+     */
+    private void apply(int mode) {
+        int workers = (mode == MODE_JOBS) ? mCores : 1;
+        Core.setNumThreads((mode == MODE_JOBS) ? 1 : mCores);
+        if ( workers > mExecutor.getMaximumPoolSize() ) {
+            mExecutor.setMaximumPoolSize(workers);
+            mExecutor.setCorePoolSize(workers);
+        } else {
+            mExecutor.setCorePoolSize(workers);
+            mExecutor.setMaximumPoolSize(workers);
+        }
+        mActiveMode = mode;
+        Log.i(TAG, "Layout "+(mode == MODE_JOBS ? "jobs" : "threads")+": "+workers+" workers, "
+                +Core.getNumThreads()+" OpenCV threads");
+    }
+
+    /**
+     * Times the same amount of per-frame work in both layouts
+     * @return the faster layout, MODE_JOBS on a tie since it also keeps separate jobs independent
+     */
+    private int calibrate() {
+        final int frames = FRAMES_PER_CORE * mCores;
+        final Mat source = new Mat(FRAME_HEIGHT, FRAME_WIDTH, CvType.CV_8UC4);
+        Core.randu(source, 0, 256);
+        try {
+            // one frame each way first so lazy initialization is not part of the timing
+            Core.setNumThreads(mCores);
+            processFrames(source, 1);
+
+            long start = System.nanoTime();
+            processFrames(source, frames);
+            long threads = System.nanoTime() - start;
+
+            Core.setNumThreads(1);
+            processFrames(source, 1);
+
+            final CountDownLatch done = new CountDownLatch(mCores);
+            start = System.nanoTime();
+            for ( int i=0; i<mCores; i++ ) {
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            processFrames(source, FRAMES_PER_CORE);
+                        } finally {
+                            done.countDown();
+                        }
+                    }
+                }, TAG + "-calibrate-" + i).start();
+            }
+            done.await();
+            long jobs = System.nanoTime() - start;
+
+            Log.i(TAG, "Calibration with "+mCores+" cores: threads "+threads/1000000+" ms, jobs "+jobs/1000000+" ms");
+            return (threads < jobs) ? MODE_THREADS : MODE_JOBS;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return MODE_JOBS;
+        } finally {
+            source.release();
+        }
+    }
+
+    /**
+     * Runs the work SplitVideoTask does for a frame, plus a resize as used for thumbnails
+     * @param source RGBA frame
+     * @param count number of times to process it
+     */
+    private static void processFrames(Mat source, int count) {
+        Mat bgr = new Mat();
+        Mat small = new Mat();
+        MatOfByte jpeg = new MatOfByte();
+        MatOfInt params = new MatOfInt(Imgcodecs.IMWRITE_JPEG_QUALITY, 90);
+        Size half = new Size(source.cols() / 2, source.rows() / 2);
+        for ( int i=0; i<count; i++ ) {
+            Imgproc.cvtColor(source, bgr, Imgproc.COLOR_RGBA2BGR);
+            Imgproc.resize(bgr, small, half, 0, 0, Imgproc.INTER_AREA);
+            Imgcodecs.imencode(".jpg", bgr, jpeg, params);
+        }
+        bgr.release();
+        small.release();
+        jpeg.release();
+        params.release();
+    }
+}
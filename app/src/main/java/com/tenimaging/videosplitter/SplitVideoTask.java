@@ -8,13 +8,14 @@ import android.os.AsyncTask;
 import android.util.Log;
 import android.widget.ListView;
 
-import org.opencv.android.Utils;
 import org.opencv.core.Mat;
-import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.core.MatTracker;
 import org.opencv.imgproc.Imgproc;
+import org.opencv.utils.OpGraph;
 
 import java.io.File;
-import java.util.Locale;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
 
 import wseemann.media.FFmpegMediaMetadataRetriever;
 
@@ -30,6 +31,7 @@ public class SplitVideoTask extends AsyncTask<Void,Void,Void> {
     private File mOutDir = null;                    // Output dir where frames are saved
     private ListView mListView;                     // displays progress of this task
     private ProgressAdapter mProgAdapter;           // used to update this tasks progress
+    private AtomicLong mProgress;                   // progress counter read by the ProgressAdapter UI tick
     private FFmpegMediaMetadataRetriever mVideo;    // used to read in video frames
     private int mNumFrames;                         // max number of frames in video
     private long mFrameLength;                      // time length in microseconds between frames we want
@@ -37,6 +39,8 @@ public class SplitVideoTask extends AsyncTask<Void,Void,Void> {
     private int mId;                                // ID that identifies this task and the associated progress UI element
     private boolean mCanceled = false;              // Defines if we have canceled this tasks
     private double mSkipRatio;                      // Ratio of frames to skip
+    private OpGraph mToBgr;                         // Bitmap to BGR conversion done in one native call
+    private SplitOptions mOptions;                  // Optional processing done on every frame
 
 
     /**
@@ -44,10 +48,12 @@ public class SplitVideoTask extends AsyncTask<Void,Void,Void> {
      * @param videoFile File of the video we want to split
      * @param outDir    Directory location to save frames into
      * @param skipRatio Ratio of frames we are going to skip
+     * @param options   Processing done on every frame before it is saved
      * @param listView  View that displays the progress of these tasks
      */
-    public SplitVideoTask(File videoFile, File outDir, double skipRatio, ListView listView) {
+    public SplitVideoTask(File videoFile, File outDir, double skipRatio, SplitOptions options, ListView listView) {
         super();
+        mOptions = options;
 
         // Make sure we can access the video file and output directory
         if ( videoFile.canRead() && videoFile.isFile() ) {
@@ -114,6 +120,7 @@ public class SplitVideoTask extends AsyncTask<Void,Void,Void> {
         mProgAdapter = (ProgressAdapter) listView.getAdapter();
 
         mId = mProgAdapter.addTask(videoFile.getName(), (int)(mNumFrames/skipRatio) );
+        mProgress = mProgAdapter.getProgressCounter(mId);
         Log.i(TAG, "Constructor ("+toString()+")");
     }
 
@@ -153,45 +160,58 @@ public class SplitVideoTask extends AsyncTask<Void,Void,Void> {
             return null;
         }
 
-        // grab all frames except the ones we skip and save them to the output directory
+        // grab all frames except the ones we skip and run them through the pipeline, which
+        // saves the frames that pass it to the output directory
         int frameCount = (int)(mNumFrames/mSkipRatio);
-        for ( int i = 0; i < frameCount && !mCanceled; i++ ) {
-
-            Bitmap map = mVideo.getFrameAtTime(i*mFrameLength, FFmpegMediaMetadataRetriever.OPTION_CLOSEST);
-            if ( map != null ) {
-                // we have a frame to save. Convert the frame into Mat and save it.
-                Mat frame = new Mat();
-                Utils.bitmapToMat(map, frame); // Bitmap to RGBA
-
-                // Convert RGBA to BGR
-                Imgproc.cvtColor(frame, frame, Imgproc.COLOR_RGBA2BGR);
-
-                String fileName = String.format(Locale.ENGLISH,"%1$s/%2$s_%3$06d.jpg",mOutDir.getAbsolutePath(),
-                        FileParser.getBaseName(mFile), i);
-                Imgcodecs.imwrite(fileName,frame);
-
-                //update our progress to the UI
+        FramePipeline pipeline = mOptions.createPipeline();
+        Frame frame = new Frame();
+        Mat bgr = new Mat();
+        mToBgr = new OpGraph().cvtColor(Imgproc.COLOR_RGBA2BGR);
+        try {
+            for ( int i = 0; i < frameCount && !mCanceled; i++ ) {
+
+                Bitmap map = mVideo.getFrameAtTime(i*mFrameLength, FFmpegMediaMetadataRetriever.OPTION_CLOSEST);
+                if ( map == null ) {
+                    continue;   // we cannot save an empty frame
+                }
+                try {
+                    // Bitmap pixels (RGBA) straight to BGR
+                    mToBgr.run(map, bgr);
+                    if ( !pipeline.isStarted() ) {
+                        // the stages need the real frame size, which we only know now
+                        pipeline.start(new VideoInfo(mFile, mOutDir, FileParser.getBaseName(mFile),
+                                bgr.cols(), bgr.rows(), frameCount, mFrameLength));
+                    }
+                    frame.set(bgr, i, i*mFrameLength);
+                    pipeline.process(frame);
+                } finally {
+                    map.recycle();
+                }
+
+                // update our progress counter, the UI picks it up on its next refresh tick
                 mFrame = i;
-                publishProgress();
-                frame.release();
-                map.recycle();
-            } // else we cannot save an empty frame
-        } // end for loop through all frames in video
-
-        return null;
-    }
+                if ( mFrame%10 == 0 ) {
+                    Log.i(TAG, "Progress update ("+mId+"): "+mFrame);
+                }
+                mCanceled = !ProgressAdapter.setProgress(mProgress, mFrame);
+            } // end for loop through all frames in video
+
+            if ( pipeline.isStarted() && !mCanceled ) {
+                pipeline.finish();
+            }
+        } catch (IOException | RuntimeException e) {
+            // RuntimeException covers the CvException any native call of the stages can throw
+            Log.e(TAG, "Split failed ("+mId+")", e);
+        } finally {
+            pipeline.release();
+            bgr.release();
+            mToBgr.close();
+        }
 
-    /**
-     * updates the UI displaying the progress of this task
-     * @param voids not used.
-     */
-    @Override
-    protected void onProgressUpdate(Void... voids) {
-        if ( mFrame%10 == 0 ) {
-            Log.i(TAG, "Progress update ("+mId+"): "+mFrame);
+        if ( MatTracker.isEnabled() ) {
+            Log.i(TAG, "Native Mat memory after ("+mId+"):\n"+MatTracker.snapshot());
         }
-        mCanceled=!mProgAdapter.updateTaskProgress(mId,mFrame);
-        mListView.invalidateViews();
+        return null;
     }
 
     /**
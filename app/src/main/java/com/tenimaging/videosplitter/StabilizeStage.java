@@ -0,0 +1,295 @@
+/*
+ * Copyright (c) 2016. 10 Imaging Inc.
+ */
+package com.tenimaging.videosplitter;
+
+import android.util.Log;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfFloat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.video.Video;
+
+import java.io.IOException;
+
+/**
+ * Pipeline stage that measures camera shake, paired with a warp stage that removes it.
+ * <p>
+ * This stage sees every extracted frame. It tracks corners from the previous frame with pyramidal
+ * Lucas-Kanade optical flow on a small gray copy, fits a rigid motion to them and sums the
+ * motions up to a camera trajectory. Each component of the trajectory is smoothed with a Kalman
+ * filter, and the difference between the smoothed and the measured trajectory is the correction
+ * for the frame.
+ * <br>The correction is only applied by the stage returned from {@link #getWarpStage()}, which is
+ * added after the filters, so the full size warp is only paid for frames that are kept.
+ */
+public class StabilizeStage extends FrameStage {
+    private static final String TAG = "StabilizeStage";     // Tag that marks all log messages from this class
+    private static final int MAX_CORNERS = 200;             // Most corners tracked between two frames
+    private static final double CORNER_QUALITY = 0.01;      // Weakest corner kept, relative to the best one
+    private static final double CORNER_DISTANCE = 20;       // Smallest distance between corners in pixels
+    private static final int MIN_TRACKED = 10;              // Fewest tracked corners a motion is fit to
+
+    private final int mTrackWidth;          // Width of the frames corners are tracked in
+    private final double mProcessNoise;     // How fast the intended camera path may change
+    private final double mMeasureNoise;     // How much of the measured path is shake
+
+    private Size mTrackSize;                // Size of the tracking frames
+    private double mScale;                  // Frame width over tracking width
+    private Mat mSmall;                     // Downscaled frame
+    private Mat mGray;                      // Current tracking frame
+    private Mat mPrevGray;                  // Previous tracking frame
+    private MatOfPoint mCorners;            // Corners of the previous frame
+    private MatOfPoint2f mPrevPoints;       // Same corners as float points
+    private MatOfPoint2f mNextPoints;       // Where they moved to
+    private MatOfByte mStatus;              // 1 for corners that were tracked
+    private MatOfFloat mError;              // Tracking error, not used
+    private MatOfPoint2f mPrevTracked;      // Tracked corners only
+    private MatOfPoint2f mNextTracked;
+    private byte[] mStatusBuf = new byte[MAX_CORNERS];          // Reused copies of the tracking result
+    private float[] mPrevBuf = new float[MAX_CORNERS * 2];
+    private float[] mNextBuf = new float[MAX_CORNERS * 2];
+    private double[] mMotionBuf = new double[6];
+    private boolean mHasPrev;               // Set once a previous frame exists
+
+    private final double[] mTrajectory = new double[3];     // Summed x, y and angle of the camera
+    private final double[] mSmoothed = new double[3];       // Kalman estimate of the intended path
+    private final double[] mVariance = new double[3];       // Kalman error variance of mSmoothed
+    private final double[] mLastMotion = new double[3];     // Last motion that could be measured
+    private final Mat mCorrection = new Mat(2, 3, CvType.CV_64FC1);  // Full size warp of the frame being warped
+    private final WarpStage mWarp = new WarpStage();       // Applies mCorrection
+    private int mLost;                      // Frames whose motion could not be measured
+
+    /**
+     * Constructor
+     * @param trackWidth width of the frames corners are tracked in
+     * @param smoothness how strongly the camera path is smoothed, larger is smoother
+     */
+    public StabilizeStage(int trackWidth, double smoothness) {
+        mTrackWidth = trackWidth;
+        mProcessNoise = 1;
+        mMeasureNoise = Math.max(1, smoothness);
+    }
+
+    /**
+     * @return stage that warps the frames reaching it by the correction this stage measured
+     */
+    public FrameStage getWarpStage() {
+        return mWarp;
+    }
+
+    @Override
+    public void start(VideoInfo info) throws IOException {
+        int width = Math.min(mTrackWidth, info.width);
+        mTrackSize = new Size(width, Math.round((double)info.height*width/info.width));
+        mScale = (double)info.width / width;
+        mSmall = new Mat();
+        mGray = new Mat();
+        mPrevGray = new Mat();
+        mCorners = new MatOfPoint();
+        mPrevPoints = new MatOfPoint2f();
+        mNextPoints = new MatOfPoint2f();
+        mStatus = new MatOfByte();
+        mError = new MatOfFloat();
+        mPrevTracked = new MatOfPoint2f();
+        mNextTracked = new MatOfPoint2f();
+    }
+
+    @Override
+    public boolean process(Frame frame) throws IOException {
+        Imgproc.resize(frame.image, mSmall, mTrackSize, 0, 0, Imgproc.INTER_AREA);
+        Imgproc.cvtColor(mSmall, mGray, Imgproc.COLOR_BGR2GRAY);
+
+        if ( mHasPrev ) {
+            if ( !measureMotion() ) {
+                // keep moving the way we last saw, a lost frame should not look like a jump
+                mLost++;
+            }
+            for ( int i=0; i<3; i++ ) {
+                mTrajectory[i] += mLastMotion[i];
+                smooth(i);
+            }
+        }
+
+        // the correction moves the frame from the measured onto the smoothed path
+        double dx = (mSmoothed[0] - mTrajectory[0]) * mScale;
+        double dy = (mSmoothed[1] - mTrajectory[1]) * mScale;
+        double da = mSmoothed[2] - mTrajectory[2];
+        double cos = Math.cos(da);
+        double sin = Math.sin(da);
+        // kept with the frame, so frames waiting for a BatchStage are warped by their own correction
+        double[] correction = frame.correction;
+        correction[0] = cos;
+        correction[1] = -sin;
+        correction[2] = dx;
+        correction[3] = sin;
+        correction[4] = cos;
+        correction[5] = dy;
+
+        // the current frame becomes the previous one
+        Mat swap = mPrevGray;
+        mPrevGray = mGray;
+        mGray = swap;
+        mHasPrev = true;
+        return true;
+    }
+
+    @Override
+    public void finish() throws IOException {
+        if ( mLost > 0 ) {
+            Log.i(TAG, "Could not measure the motion of "+mLost+" frames");
+        }
+    }
+
+    @Override
+    public void release() {
+        if ( mSmall != null ) {
+            mSmall.release();
+            mGray.release();
+            mPrevGray.release();
+            mCorners.release();
+            mPrevPoints.release();
+            mNextPoints.release();
+            mStatus.release();
+            mError.release();
+            mPrevTracked.release();
+            mNextTracked.release();
+        }
+        mCorrection.release();
+    }
+
+    /**
+     * Measures the motion from mPrevGray to mGray into mLastMotion
+     * @return false if too few corners could be tracked
+     */
+    private boolean measureMotion() {
+        Imgproc.goodFeaturesToTrack(mPrevGray, mCorners, MAX_CORNERS, CORNER_QUALITY, CORNER_DISTANCE);
+        int count = mCorners.rows();
+        if ( count < MIN_TRACKED ) {
+            return false;
+        }
+        mCorners.convertTo(mPrevPoints, CvType.CV_32F);
+        Video.calcOpticalFlowPyrLK(mPrevGray, mGray, mPrevPoints, mNextPoints, mStatus, mError);
+
+        // keep only the corners that were found again
+        mStatus.get(0, 0, mStatusBuf);
+        mPrevPoints.get(0, 0, mPrevBuf);
+        mNextPoints.get(0, 0, mNextBuf);
+        int tracked = 0;
+        for ( int i=0; i<count; i++ ) {
+            if ( mStatusBuf[i] != 0 ) {
+                mPrevBuf[tracked*2] = mPrevBuf[i*2];
+                mPrevBuf[tracked*2 + 1] = mPrevBuf[i*2 + 1];
+                mNextBuf[tracked*2] = mNextBuf[i*2];
+                mNextBuf[tracked*2 + 1] = mNextBuf[i*2 + 1];
+                tracked++;
+            }
+        }
+        if ( tracked < MIN_TRACKED ) {
+            return false;
+        }
+        mPrevTracked.create(tracked, 1, CvType.CV_32FC2);
+        mNextTracked.create(tracked, 1, CvType.CV_32FC2);
+        mPrevTracked.put(0, 0, mPrevBuf);
+        mNextTracked.put(0, 0, mNextBuf);
+
+        Mat motion = Video.estimateRigidTransform(mPrevTracked, mNextTracked, false);
+        if ( motion.empty() ) {
+            return false;
+        }
+        motion.get(0, 0, mMotionBuf);
+        mLastMotion[0] = mMotionBuf[2];
+        mLastMotion[1] = mMotionBuf[5];
+        mLastMotion[2] = Math.atan2(mMotionBuf[3], mMotionBuf[0]);
+        return true;
+    }
+
+    /**
+     * One step of a constant position Kalman filter on a trajectory component
+     * @param i component, 0 for x, 1 for y, 2 for the angle
+     */
+    private void smooth(int i) {
+        double predicted = mVariance[i] + mProcessNoise;
+        double gain = predicted / (predicted + mMeasureNoise);
+        mSmoothed[i] += gain * (mTrajectory[i] - mSmoothed[i]);
+        mVariance[i] = (1 - gain) * predicted;
+    }
+
+    /**
+     * Warps the frames reaching it by the correction measured for each of them. Regions of
+     * interest found on the unwarped frame are moved along, as the bounding box of their warped
+     * corners clipped to the frame.
+     */
+    private class WarpStage extends FrameStage {
+        private Mat mStable;                // Warped frame
+        private Size mSize;                 // Size of the frames
+        private Scalar mBorder;             // Not used, the border repeats the edge pixels
+
+        @Override
+        public void start(VideoInfo info) throws IOException {
+            mStable = new Mat();
+            mSize = new Size(info.width, info.height);
+            mBorder = new Scalar(0);
+        }
+
+        @Override
+        public boolean process(Frame frame) throws IOException {
+            mCorrection.put(0, 0, frame.correction);
+            Imgproc.warpAffine(frame.image, mStable, mCorrection, mSize, Imgproc.INTER_LINEAR,
+                    Core.BORDER_REPLICATE, mBorder);
+            frame.image = mStable;
+            warpRegions(frame);
+            return true;
+        }
+
+        /**
+         * Moves the regions of a frame by its correction
+         * @param frame frame whose image was warped
+         */
+        private void warpRegions(Frame frame) {
+            double[] m = frame.correction;
+            int width = (int)mSize.width;
+            int height = (int)mSize.height;
+            for ( int r=frame.regions.size()-1; r>=0; r-- ) {
+                Rect region = frame.regions.get(r);
+                double x0 = Double.MAX_VALUE, y0 = Double.MAX_VALUE;
+                double x1 = -Double.MAX_VALUE, y1 = -Double.MAX_VALUE;
+                for ( int c=0; c<4; c++ ) {
+                    double x = region.x + ((c & 1) != 0 ? region.width : 0);
+                    double y = region.y + ((c & 2) != 0 ? region.height : 0);
+                    double wx = m[0] * x + m[1] * y + m[2];
+                    double wy = m[3] * x + m[4] * y + m[5];
+                    x0 = Math.min(x0, wx);
+                    y0 = Math.min(y0, wy);
+                    x1 = Math.max(x1, wx);
+                    y1 = Math.max(y1, wy);
+                }
+                int left = Math.max(0, (int)Math.floor(x0));
+                int top = Math.max(0, (int)Math.floor(y0));
+                int right = Math.min(width, (int)Math.ceil(x1));
+                int bottom = Math.min(height, (int)Math.ceil(y1));
+                if ( right > left && bottom > top ) {
+                    // a new Rect, the old one may be shared with the stage that found it
+                    frame.regions.set(r, new Rect(left, top, right - left, bottom - top));
+                } else {
+                    frame.regions.remove(r);
+                }
+            }
+        }
+
+        @Override
+        public void release() {
+            if ( mStable != null ) {
+                mStable.release();
+            }
+        }
+    }
+}
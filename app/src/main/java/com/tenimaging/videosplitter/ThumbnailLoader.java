@@ -0,0 +1,354 @@
+/*
+ * Copyright (c) 2016. 10 Imaging Inc.
+ */
+package com.tenimaging.videosplitter;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.media.ThumbnailUtils;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.MediaStore;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads video thumbnails on a background pool and caches them in memory and on disk.
+ * <p>
+ * The disk cache is bounded by bytes. Reading a cached thumbnail touches its file, and the files
+ * used longest ago are deleted when the loader starts and whenever a new thumbnail takes the
+ * cache over its bound. All file access, including the modification time of the video, happens
+ * on the background pool.
+ */
+public class ThumbnailLoader {
+    private static final String TAG = "ThumbnailLoader";    // Tag that marks all log messages from this class
+    private static final String CACHE_DIR = "thumbnails";   // Folder inside the app cache dir that holds thumbnails
+    private static final int NUM_THREADS = 2;               // Number of threads creating thumbnails
+    private static final int MEMORY_FRACTION = 8;           // Use 1/MEMORY_FRACTION of the heap for cached thumbnails
+    private static final int JPEG_QUALITY = 85;             // Quality of the thumbnails saved to disk
+    private static final long MAX_DISK_BYTES = 32L << 20;   // Most bytes of thumbnails kept on disk
+    private static final double TRIM_FRACTION = 0.75;       // Trimming the disk cache stops at this part of its bound
+
+    /**
+     * Pending or finished request for the thumbnail shown by one ImageView. It is stored as the
+     * ImageView tag so a recycled view can cancel the request it no longer needs.
+     */
+    private static class Request {
+        public final String key;    // memory cache key of the thumbnail
+        public Future<?> future;    // background job creating the thumbnail or null if none
+
+        public Request(String k) {
+            key = k;
+        }
+    }
+
+    /**
+     * Thumbnail in the memory cache with the modification time of the video it was made for
+     */
+    private static class Thumbnail {
+        public final Bitmap bitmap;     // the thumbnail
+        public final long modified;     // modification time of the video
+
+        public Thumbnail(Bitmap b, long m) {
+            bitmap = b;
+            modified = m;
+        }
+    }
+
+    private final LruCache<String, Thumbnail> mMemoryCache;    // Thumbnails in memory, bounded by bytes
+    private final File mDiskDir;                            // Folder of thumbnails kept between launches
+    private long mDiskBytes = -1;                           // Bytes in mDiskDir, -1 until counted, guarded by mDiskDir
+    private final ExecutorService mPool;                    // Background threads creating thumbnails
+    private final Handler mHandler;                         // Used to hand finished thumbnails to the UI thread
+
+    /**
+     * Constructor
+     * @param context context used to locate the cache directory
+     */
+    public ThumbnailLoader(Context context) {
+        int maxBytes = (int)(Runtime.getRuntime().maxMemory() / MEMORY_FRACTION);
+        mMemoryCache = new LruCache<String, Thumbnail>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Thumbnail thumb) {
+                return thumb.bitmap.getByteCount();
+            }
+        };
+
+        mDiskDir = new File(context.getCacheDir(), CACHE_DIR);
+
+        mPool = Executors.newFixedThreadPool(NUM_THREADS, new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger(0);
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, TAG + "-" + mCount.getAndIncrement());
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        mHandler = new Handler(Looper.getMainLooper());
+
+        mPool.submit(new Runnable() {
+            @Override
+            public void run() {
+                if ( !mDiskDir.isDirectory() && !mDiskDir.mkdirs() ) {
+                    Log.i(TAG, "Cannot create thumbnail cache: "+mDiskDir);
+                    return;
+                }
+                trimDiskCache();
+            }
+        });
+    }
+
+    /**
+     * Builds the key that identifies the thumbnail of a video on disk. The modification time is part
+     * of the key so a changed video never shows a stale thumbnail.
+     * @param video video file we want the key for
+     * @param modified modification time of the video, read on the background pool
+     * @return cache key
+     */
+    static String getKey(File video, long modified) {
+        return video.getAbsolutePath() + "@" + modified;
+    }
+
+    /**
+     * Shows the thumbnail of the given video in the given ImageView. Must be called on the UI thread.
+     * Any earlier request made for this ImageView is canceled. A thumbnail found in memory is shown
+     * at once; the background pool then checks that the video has not changed since it was made.
+     * @param video video file we want the thumbnail of
+     * @param view ImageView that displays the thumbnail
+     */
+    public void load(final File video, final ImageView view) {
+        final String key = video.getAbsolutePath();
+
+        Object tag = view.getTag();
+        if ( tag instanceof Request ) {
+            Request old = (Request) tag;
+            if ( old.key.equals(key) && old.future != null && !old.future.isDone() ) {
+                // this view is already waiting for the thumbnail we want
+                return;
+            }
+            cancel(view);
+        }
+
+        final Request request = new Request(key);
+        view.setTag(request);
+
+        final Thumbnail shown = mMemoryCache.get(key);
+        // Show the thumbnail we have, or clear the one of the video this view showed before it was recycled
+        view.setImageBitmap((shown != null) ? shown.bitmap : null);
+        request.future = mPool.submit(new Runnable() {
+            @Override
+            public void run() {
+                final Bitmap thumb = loadThumbnail(video, key, shown);
+                if ( thumb == null || Thread.currentThread().isInterrupted() ) {
+                    return;
+                }
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        // Only show it if the view still wants this thumbnail
+                        if ( view.getTag() == request ) {
+                            view.setImageBitmap(thumb);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Cancels the pending thumbnail request of the given view, if any. Must be called on the UI thread.
+     * @param view ImageView whose request we no longer need
+     */
+    public void cancel(ImageView view) {
+        Object tag = view.getTag();
+        if ( tag instanceof Request ) {
+            Request request = (Request) tag;
+            if ( request.future != null ) {
+                request.future.cancel(true);
+            }
+            view.setTag(null);
+        }
+    }
+
+    /**
+     * Stops all background work. Cached thumbnails on disk are kept for the next launch.
+     */
+    public void shutdown() {
+        mPool.shutdownNow();
+        mMemoryCache.evictAll();
+    }
+
+    /**
+     * Gets a thumbnail from the disk cache or creates it from the video. Runs on the background pool.
+     * @param video video file we want the thumbnail of
+     * @param key memory cache key of this thumbnail
+     * @param shown thumbnail already shown from the memory cache, null if none
+     * @return thumbnail, null if it could not be created or shown is still up to date
+     */
+    private Bitmap loadThumbnail(File video, String key, Thumbnail shown) {
+        long modified = video.lastModified();
+        Thumbnail thumb = mMemoryCache.get(key);
+        if ( thumb != null && thumb.modified == modified ) {
+            return (thumb == shown) ? null : thumb.bitmap;
+        }
+
+        Bitmap bitmap = null;
+        File cached = new File(mDiskDir, getFileName(getKey(video, modified)));
+        if ( cached.isFile() ) {
+            bitmap = BitmapFactory.decodeFile(cached.getAbsolutePath());
+            if ( bitmap != null ) {
+                // keeps the file at the new end of the cache
+                cached.setLastModified(System.currentTimeMillis());
+            }
+        }
+
+        if ( bitmap == null ) {
+            bitmap = ThumbnailUtils.createVideoThumbnail(video.getAbsolutePath(), MediaStore.Video.Thumbnails.MICRO_KIND);
+            if ( bitmap == null ) {
+                return null;
+            }
+            saveThumbnail(bitmap, cached);
+        }
+
+        mMemoryCache.put(key, new Thumbnail(bitmap, modified));
+        return bitmap;
+    }
+
+    /**
+     * Writes a thumbnail into the disk cache. A temporary file is renamed into place so a partly
+     * written thumbnail is never read back.
+     * @param bitmap thumbnail to save
+     * @param file destination inside the disk cache
+     */
+    private void saveThumbnail(Bitmap bitmap, File file) {
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(temp);
+            if ( bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out) ) {
+                out.close();
+                out = null;
+                if ( temp.renameTo(file) ) {
+                    addDiskBytes(file.length());
+                } else {
+                    temp.delete();
+                }
+            }
+        } catch (IOException ex) {
+            Log.i(TAG, "Cannot save thumbnail "+file+": "+ex);
+        } finally {
+            if ( out != null ) {
+                try {
+                    out.close();
+                } catch (IOException ex) {
+                    // nothing else we can do
+                }
+                temp.delete();
+            }
+        }
+    }
+
+    /**
+     * Counts a new file in the disk cache and trims the cache if that takes it over its bound
+     * @param bytes size of the new file
+     */
+    private void addDiskBytes(long bytes) {
+        synchronized ( mDiskDir ) {
+            if ( mDiskBytes < 0 ) {
+                return;     // the first trim still has to count the files
+            }
+            mDiskBytes += bytes;
+            if ( mDiskBytes <= MAX_DISK_BYTES ) {
+                return;
+            }
+        }
+        trimDiskCache();
+    }
+
+    /**
+     * Deletes the thumbnails used longest ago until the disk cache is well below its bound, along
+     * with temporary files left behind by an earlier launch. Runs on the background pool.
+     */
+    private void trimDiskCache() {
+        synchronized ( mDiskDir ) {
+            File[] files = mDiskDir.listFiles();
+            if ( files == null ) {
+                return;
+            }
+            final long[] modified = new long[files.length];
+            long total = 0;
+            for ( int i=0; i<files.length; i++ ) {
+                if ( files[i].getName().endsWith(".tmp") ) {
+                    files[i].delete();
+                    files[i] = null;
+                    continue;
+                }
+                modified[i] = files[i].lastModified();
+                total += files[i].length();
+            }
+            if ( total > MAX_DISK_BYTES ) {
+                Integer[] order = new Integer[files.length];
+                for ( int i=0; i<order.length; i++ ) {
+                    order[i] = i;
+                }
+                Arrays.sort(order, new Comparator<Integer>() {
+                    @Override
+                    public int compare(Integer a, Integer b) {
+                        return (modified[a] < modified[b]) ? -1 : (modified[a] > modified[b]) ? 1 : 0;
+                    }
+                });
+                long target = (long)(MAX_DISK_BYTES * TRIM_FRACTION);
+                int deleted = 0;
+                for ( int i=0; i<order.length && total > target; i++ ) {
+                    File file = files[order[i]];
+                    if ( file == null ) {
+                        continue;
+                    }
+                    long bytes = file.length();
+                    if ( file.delete() ) {
+                        total -= bytes;
+                        deleted++;
+                    }
+                }
+                Log.i(TAG, "Deleted "+deleted+" cached thumbnails, "+total+" bytes left");
+            }
+            mDiskBytes = total;
+        }
+    }
+
+    /**
+     * Turns a cache key into a file name that is safe to use inside the disk cache
+     * @param key cache key
+     * @return file name for the key
+     */
+    private static String getFileName(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes("UTF-8"));
+            StringBuilder name = new StringBuilder(digest.length * 2 + 4);
+            for ( byte b: digest ) {
+                name.append(String.format(Locale.ENGLISH, "%02x", b & 0xff));
+            }
+            return name.append(".jpg").toString();
+        } catch (NoSuchAlgorithmException | IOException ex) {
+            return Integer.toHexString(key.hashCode()) + ".jpg";
+        }
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright (c) 2016. 10 Imaging Inc.
+ */
+package com.tenimaging.videosplitter;
+
+import android.util.Log;
+
+import org.opencv.calib3d.Calib3d;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatBuffer;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * Pipeline stage that removes the lens distortion of every frame.
+ * <p>
+ * The lens is described by a calibration file in java.util.Properties format with the camera
+ * matrix (fx, fy, cx, cy), the distortion coefficients (k1, k2, p1, p2, k3) and the resolution
+ * they were measured at (width, height). Other resolutions of the same aspect ratio are handled
+ * by scaling the camera matrix.
+ * <br>The pixel lookup tables for a resolution are computed once with initUndistortRectifyMap in
+ * the fixed point CV_16SC2 format and cached on disk, so a frame only costs a remap.
+ */
+public class UndistortStage extends FrameStage {
+    private static final String TAG = "UndistortStage";     // Tag that marks all log messages from this class
+    private static final int CACHE_MAGIC = 0x554e4431;      // "UND1", marks a map cache file
+
+    private final File mCalibration;        // Calibration file of the lens
+    private final File mCacheDir;           // Folder the remap tables are cached in
+    private final double mAlpha;            // 0 keeps only valid pixels, 1 keeps all source pixels
+
+    private Mat mMap1;                      // Integer source pixel positions (CV_16SC2)
+    private Mat mMap2;                      // Interpolation table index of every position (CV_16UC1)
+    private Mat mUndistorted;               // Output frame
+
+    /**
+     * Constructor
+     * @param calibration calibration file of the lens
+     * @param cacheDir folder the remap tables are cached in
+     * @param alpha 0 to crop to valid pixels only, 1 to keep every source pixel, or in between
+     */
+    public UndistortStage(File calibration, File cacheDir, double alpha) {
+        mCalibration = calibration;
+        mCacheDir = cacheDir;
+        mAlpha = alpha;
+    }
+
+    @Override
+    public void start(VideoInfo info) throws IOException {
+        mMap1 = new Mat();
+        mMap2 = new Mat();
+        mUndistorted = new Mat();
+
+        File cached = new File(mCacheDir, getCacheName(info.width, info.height));
+        if ( readMaps(cached, info.width, info.height) ) {
+            Log.i(TAG, "Using cached maps "+cached);
+            return;
+        }
+        buildMaps(info.width, info.height);
+        if ( mCacheDir.isDirectory() || mCacheDir.mkdirs() ) {
+            writeMaps(cached, info.width, info.height);
+        }
+    }
+
+    @Override
+    public boolean process(Frame frame) throws IOException {
+        Imgproc.remap(frame.image, mUndistorted, mMap1, mMap2, Imgproc.INTER_LINEAR);
+        frame.image = mUndistorted;
+        return true;
+    }
+
+    @Override
+    public void release() {
+        if ( mMap1 != null ) {
+            mMap1.release();
+            mMap2.release();
+            mUndistorted.release();
+        }
+    }
+
+    /**
+     * Computes the remap tables of a resolution from the calibration file
+     * @param width frame width
+     * @param height frame height
+     * @throws IOException if the calibration cannot be read
+     */
+    private void buildMaps(int width, int height) throws IOException {
+        Properties lens = new Properties();
+        try ( InputStream in = new FileInputStream(mCalibration) ) {
+            lens.load(in);
+        }
+        double sx = width / getValue(lens, "width");
+        double sy = height / getValue(lens, "height");
+
+        Mat camera = new Mat(3, 3, CvType.CV_64FC1);
+        camera.put(0, 0,
+                getValue(lens, "fx")*sx, 0, getValue(lens, "cx")*sx,
+                0, getValue(lens, "fy")*sy, getValue(lens, "cy")*sy,
+                0, 0, 1);
+        Mat distortion = new Mat(1, 5, CvType.CV_64FC1);
+        distortion.put(0, 0, getValue(lens, "k1"), getValue(lens, "k2"),
+                getValue(lens, "p1"), getValue(lens, "p2"), getValue(lens, "k3"));
+
+        Size size = new Size(width, height);
+        Mat newCamera = Calib3d.getOptimalNewCameraMatrix(camera, distortion, size, mAlpha);
+        Mat rectify = new Mat();
+        long start = System.nanoTime();
+        Imgproc.initUndistortRectifyMap(camera, distortion, rectify, newCamera, size, CvType.CV_16SC2, mMap1, mMap2);
+        Log.i(TAG, "Built maps for "+width+"x"+height+" in "+(System.nanoTime()-start)/1000000+" ms");
+
+        camera.release();
+        distortion.release();
+        newCamera.release();
+        rectify.release();
+    }
+
+    /**
+     * Loads cached remap tables
+     * @param file cache file
+     * @param width frame width
+     * @param height frame height
+     * @return true if the tables were read, false if they have to be built
+     */
+    private boolean readMaps(File file, int width, int height) {
+        if ( !file.isFile() ) {
+            return false;
+        }
+        try ( FileInputStream in = new FileInputStream(file) ) {
+            FileChannel channel = in.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(12).order(ByteOrder.nativeOrder());
+            readFully(channel, header);
+            header.flip();
+            if ( header.getInt() != CACHE_MAGIC || header.getInt() != width || header.getInt() != height ) {
+                return false;
+            }
+            mMap1.create(height, width, CvType.CV_16SC2);
+            mMap2.create(height, width, CvType.CV_16UC1);
+            // read straight into the pixel memory of the maps
+            try ( MatBuffer map1 = mMap1.mapBuffer(); MatBuffer map2 = mMap2.mapBuffer() ) {
+                readFully(channel, map1.bytes());
+                readFully(channel, map2.bytes());
+            }
+            return true;
+        } catch (IOException ex) {
+            Log.i(TAG, "Cannot read cached maps "+file+": "+ex);
+            return false;
+        }
+    }
+
+    /**
+     * Saves the remap tables. A temporary file is renamed into place so a partly written cache
+     * file is never read back.
+     * @param file cache file
+     * @param width frame width
+     * @param height frame height
+     */
+    private void writeMaps(File file, int width, int height) {
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            try ( FileOutputStream out = new FileOutputStream(temp) ) {
+                FileChannel channel = out.getChannel();
+                ByteBuffer header = ByteBuffer.allocate(12).order(ByteOrder.nativeOrder());
+                header.putInt(CACHE_MAGIC).putInt(width).putInt(height).flip();
+                writeFully(channel, header);
+                try ( MatBuffer map1 = mMap1.mapBuffer(); MatBuffer map2 = mMap2.mapBuffer() ) {
+                    writeFully(channel, map1.bytes());
+                    writeFully(channel, map2.bytes());
+                }
+            }
+            if ( !temp.renameTo(file) ) {
+                temp.delete();
+            }
+        } catch (IOException ex) {
+            Log.i(TAG, "Cannot cache maps "+file+": "+ex);
+            temp.delete();
+        }
+    }
+
+    /**
+     * Names the cache file of a resolution. The calibration file and its modification time are
+     * part of the name so a changed calibration never uses stale tables.
+     * @param width frame width
+     * @param height frame height
+     * @return file name inside the cache folder
+     */
+    private String getCacheName(int width, int height) {
+        String key = mCalibration.getAbsolutePath() + "@" + mCalibration.lastModified() + "@" + mAlpha;
+        String hash;
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes("UTF-8"));
+            StringBuilder name = new StringBuilder(digest.length * 2);
+            for ( byte b: digest ) {
+                name.append(String.format(Locale.ENGLISH, "%02x", b & 0xff));
+            }
+            hash = name.toString();
+        } catch (NoSuchAlgorithmException | IOException ex) {
+            hash = Integer.toHexString(key.hashCode());
+        }
+        return String.format(Locale.ENGLISH, "undistort_%1$s_%2$dx%3$d.map", hash, width, height);
+    }
+
+    /**
+     * @param lens calibration properties
+     * @param key name of the value
+     * @return the value
+     * @throws IOException if the value is missing or not a number
+     */
+    private double getValue(Properties lens, String key) throws IOException {
+        String value = lens.getProperty(key);
+        if ( value == null ) {
+            throw new IOException("Calibration "+mCalibration+" has no "+key);
+        }
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException ex) {
+            throw new IOException("Calibration "+mCalibration+" has a bad "+key+": "+value);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.clear();
+        while ( buffer.hasRemaining() ) {
+            if ( channel.read(buffer) < 0 ) {
+                throw new IOException("Cache file is truncated");
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while ( buffer.hasRemaining() ) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,464 @@
+/*
+ * Copyright (c) 2016. 10 Imaging Inc.
+ */
+package com.tenimaging.videosplitter;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.media.MediaMetadataRetriever;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.MediaStore;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Finds the videos on external storage without blocking the UI thread.
+ * <p>
+ * Videos known to MediaStore are reported first. A parallel walk of the folder tree then picks up
+ * everything MediaStore does not know about. The walk keeps an index of every folder with its
+ * modification time, so on later launches only folders that changed are listed again.
+ * Videos are handed to the listener on the UI thread in batches as soon as they are found.
+ */
+public class VideoDiscovery {
+    private static final String TAG = "VideoDiscovery";     // Tag that marks all log messages from this class
+    private static final String INDEX_FILE = "video_index"; // File in the app files dir that holds the folder index
+    private static final int INDEX_VERSION = 2;             // Version of the index file format, 2 adds durations
+
+    /**
+     * Receives the videos found by this class. All methods are called on the UI thread.
+     */
+    public interface Listener {
+        /**
+         * Called for each batch of newly found videos
+         * @param videos videos found, never reported twice
+         */
+        void videosFound(List<VideoEntry> videos);
+
+        /**
+         * Called once all folders have been checked
+         * @param total number of videos found
+         */
+        void discoveryFinished(int total);
+    }
+
+    /**
+     * Contents of one folder the last time it was listed
+     */
+    private static class DirRecord {
+        public final long modified;         // Modification time of the folder when it was listed
+        public final String[] subdirs;      // Paths of readable subfolders
+        public final VideoEntry[] videos;   // Videos inside this folder
+
+        public DirRecord(long m, String[] s, VideoEntry[] v) {
+            modified = m;
+            subdirs = s;
+            videos = v;
+        }
+    }
+
+    private final File mRoot;                   // Folder we look for videos in
+    private final String[] mExtensions;         // Lower case video extensions we accept
+    private final File mIndexFile;              // Where the folder index is kept between launches
+    private final ContentResolver mResolver;    // Used to query MediaStore
+    private final Handler mHandler;             // Used to hand results to the UI thread
+    private final Set<String> mReported;        // Paths of all videos already given to the listener
+    private volatile boolean mCanceled = false; // Set once the owner no longer wants results
+    private ForkJoinPool mPool;                 // Pool that walks the folder tree
+    private Thread mThread;                     // Thread that runs the discovery
+
+    /**
+     * Constructor
+     * @param context context used to reach MediaStore and the app files dir
+     * @param root folder we want to find the videos in
+     * @param extensions allowable video extensions separated by ';'
+     */
+    public VideoDiscovery(Context context, File root, String extensions) {
+        mRoot = root;
+        mExtensions = extensions.toLowerCase(Locale.ENGLISH).split(";");
+        mIndexFile = new File(context.getFilesDir(), INDEX_FILE);
+        mResolver = context.getContentResolver();
+        mHandler = new Handler(Looper.getMainLooper());
+        mReported = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    }
+
+    /**
+     * Starts looking for videos in the background
+     * @param listener receives the videos as they are found
+     */
+    public synchronized void start(final Listener listener) {
+        if ( mThread != null ) {
+            return;
+        }
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                discover(listener);
+            }
+        }, TAG);
+        mThread.setPriority(Thread.MIN_PRIORITY);
+        mThread.start();
+    }
+
+    /**
+     * Stops looking for videos, the listener is not called after this returns
+     */
+    public synchronized void cancel() {
+        mCanceled = true;
+        if ( mPool != null ) {
+            mPool.shutdownNow();
+        }
+        if ( mThread != null ) {
+            mThread.interrupt();
+        }
+    }
+
+    /**
+     * Runs the whole discovery, first MediaStore then the folder walk
+     * @param listener receives the videos as they are found
+     */
+    private void discover(final Listener listener) {
+        long start = System.currentTimeMillis();
+
+        queryMediaStore(listener);
+        Log.i(TAG, "MediaStore reported "+mReported.size()+" videos in "+(System.currentTimeMillis()-start)+" ms");
+
+        Map<String, DirRecord> oldIndex = readIndex();
+        ConcurrentHashMap<String, DirRecord> newIndex = new ConcurrentHashMap<>(Math.max(16, oldIndex.size()));
+
+        ForkJoinPool pool;
+        synchronized (this) {
+            if ( mCanceled ) {
+                return;
+            }
+            pool = new ForkJoinPool();
+            mPool = pool;
+        }
+        try {
+            pool.invoke(new ScanDir(mRoot, oldIndex, newIndex, listener));
+        } catch (RuntimeException ex) {
+            // Pool was shut down because we were canceled
+            Log.i(TAG, "folder walk stopped: "+ex);
+        } finally {
+            pool.shutdown();
+        }
+
+        if ( mCanceled ) {
+            return;
+        }
+        writeIndex(newIndex);
+        Log.i(TAG, "found "+mReported.size()+" videos in "+(System.currentTimeMillis()-start)+" ms, "
+                +newIndex.size()+" folders");
+
+        final int total = mReported.size();
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if ( !mCanceled ) {
+                    listener.discoveryFinished(total);
+                }
+            }
+        });
+    }
+
+    /**
+     * Checks if the given file name has one of our video extensions
+     * @param name file name to test
+     * @return true if the name is a video otherwise false
+     */
+    private boolean isVideo(String name) {
+        String lower = name.toLowerCase(Locale.ENGLISH);
+        for ( String extension: mExtensions ) {
+            if ( lower.endsWith(extension) ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reports the videos that have not been reported before
+     * @param videos candidate videos
+     * @param listener receives the new videos on the UI thread
+     */
+    private void report(VideoEntry[] videos, final Listener listener) {
+        final ArrayList<VideoEntry> found = new ArrayList<>(videos.length);
+        for ( VideoEntry video: videos ) {
+            if ( mReported.add(video.file.getAbsolutePath()) ) {
+                found.add(video);
+            }
+        }
+        if ( found.isEmpty() ) {
+            return;
+        }
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if ( !mCanceled ) {
+                    listener.videosFound(found);
+                }
+            }
+        });
+    }
+
+    /**
+     * Reports all videos under our root folder that MediaStore knows about
+     * @param listener receives the videos
+     */
+    private void queryMediaStore(Listener listener) {
+        String[] projection = {
+                MediaStore.Video.Media.DATA,
+                MediaStore.Video.Media.DATE_MODIFIED,
+                MediaStore.Video.Media.SIZE,
+                MediaStore.Video.Media.DURATION };
+        String selection = MediaStore.Video.Media.DATA + " LIKE ?";
+        String[] args = { mRoot.getAbsolutePath() + "%" };
+
+        Cursor cursor = null;
+        try {
+            cursor = mResolver.query(MediaStore.Video.Media.EXTERNAL_CONTENT_URI, projection, selection, args, null);
+            if ( cursor == null ) {
+                return;
+            }
+            int data = cursor.getColumnIndexOrThrow(MediaStore.Video.Media.DATA);
+            int modified = cursor.getColumnIndexOrThrow(MediaStore.Video.Media.DATE_MODIFIED);
+            int size = cursor.getColumnIndexOrThrow(MediaStore.Video.Media.SIZE);
+            int duration = cursor.getColumnIndexOrThrow(MediaStore.Video.Media.DURATION);
+
+            ArrayList<VideoEntry> videos = new ArrayList<>();
+            while ( cursor.moveToNext() && !mCanceled ) {
+                String path = cursor.getString(data);
+                if ( path == null || !isVideo(path) ) {
+                    continue;
+                }
+                // MediaStore keeps modification times in seconds
+                videos.add(new VideoEntry(new File(path), cursor.getLong(modified) * 1000,
+                        cursor.getLong(size), cursor.getLong(duration)));
+            }
+            report(videos.toArray(new VideoEntry[videos.size()]), listener);
+        } catch (RuntimeException ex) {
+            // MediaStore is not available, the folder walk will find the videos
+            Log.i(TAG, "MediaStore query failed: "+ex);
+        } finally {
+            if ( cursor != null ) {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * Fork-join task that checks one folder and forks a task for each of its subfolders
+     */
+    private class ScanDir extends RecursiveAction {
+        private final File mDir;
+        private final Map<String, DirRecord> mOld;
+        private final ConcurrentHashMap<String, DirRecord> mNew;
+        private final Listener mListener;
+
+        public ScanDir(File dir, Map<String, DirRecord> oldIndex, ConcurrentHashMap<String, DirRecord> newIndex,
+                       Listener listener) {
+            mDir = dir;
+            mOld = oldIndex;
+            mNew = newIndex;
+            mListener = listener;
+        }
+
+        @Override
+        protected void compute() {
+            if ( mCanceled ) {
+                return;
+            }
+
+            String path = mDir.getAbsolutePath();
+            long modified = mDir.lastModified();
+            DirRecord record = mOld.get(path);
+
+            // Only list the folder again if it changed since the last launch
+            if ( record == null || record.modified != modified ) {
+                record = listDir(mDir, modified);
+            }
+            mNew.put(path, record);
+            report(record.videos, mListener);
+
+            if ( record.subdirs.length == 0 ) {
+                return;
+            }
+            List<ScanDir> tasks = new ArrayList<>(record.subdirs.length);
+            for ( String subdir: record.subdirs ) {
+                tasks.add(new ScanDir(new File(subdir), mOld, mNew, mListener));
+            }
+            invokeAll(tasks);
+        }
+    }
+
+    /**
+     * Lists one folder and splits its contents into subfolders and videos. The duration of every
+     * video is read from its file, so sorting and filtering by length also work for videos
+     * MediaStore does not know about.
+     * @param dir folder to list
+     * @param modified modification time of the folder
+     * @return contents of the folder
+     */
+    private DirRecord listDir(File dir, long modified) {
+        File[] list = dir.listFiles();
+        if ( list == null ) {
+            // we cannot read this folder
+            return new DirRecord(modified, new String[0], new VideoEntry[0]);
+        }
+
+        ArrayList<String> subdirs = new ArrayList<>();
+        ArrayList<VideoEntry> videos = new ArrayList<>();
+        MediaMetadataRetriever retriever = null;
+        try {
+            for ( File file: list ) {
+                if ( file.isDirectory() ) {
+                    if ( file.canRead() ) {
+                        subdirs.add(file.getAbsolutePath());
+                    } // else ignore folders we cannot read
+                } else if ( isVideo(file.getName()) ) {
+                    if ( retriever == null ) {
+                        retriever = new MediaMetadataRetriever();
+                    }
+                    videos.add(new VideoEntry(file, file.lastModified(), file.length(), readDuration(retriever, file)));
+                } // else ignore files that do not match our given extension
+            }
+        } finally {
+            if ( retriever != null ) {
+                retriever.release();
+            }
+        }
+        return new DirRecord(modified, subdirs.toArray(new String[subdirs.size()]),
+                videos.toArray(new VideoEntry[videos.size()]));
+    }
+
+    /**
+     * Reads the length of a video from its file
+     * @param retriever retriever to reuse
+     * @param video video file
+     * @return length of the video in milliseconds or 0 if it cannot be read
+     */
+    private static long readDuration(MediaMetadataRetriever retriever, File video) {
+        try {
+            retriever.setDataSource(video.getAbsolutePath());
+            String duration = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION);
+            return (duration != null) ? Long.parseLong(duration) : 0;
+        } catch (RuntimeException ex) {
+            // broken or unsupported file, it stays in the list with an unknown length
+            Log.i(TAG, "Cannot read duration of "+video+": "+ex);
+            return 0;
+        }
+    }
+
+    /**
+     * Reads the folder index saved by the last launch
+     * @return index of folder path to folder contents, empty if there is none
+     */
+    private Map<String, DirRecord> readIndex() {
+        HashMap<String, DirRecord> index = new HashMap<>();
+        if ( !mIndexFile.isFile() ) {
+            return index;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mIndexFile)));
+            if ( in.readInt() != INDEX_VERSION || !in.readUTF().equals(mRoot.getAbsolutePath()) ) {
+                // index from an older version or another folder, start over
+                return index;
+            }
+            int dirs = in.readInt();
+            for ( int i = 0; i < dirs; i++ ) {
+                String path = in.readUTF();
+                long modified = in.readLong();
+                String[] subdirs = new String[in.readInt()];
+                for ( int j = 0; j < subdirs.length; j++ ) {
+                    subdirs[j] = in.readUTF();
+                }
+                VideoEntry[] videos = new VideoEntry[in.readInt()];
+                for ( int j = 0; j < videos.length; j++ ) {
+                    videos[j] = new VideoEntry(new File(path, in.readUTF()), in.readLong(), in.readLong(), in.readLong());
+                }
+                index.put(path, new DirRecord(modified, subdirs, videos));
+            }
+        } catch (IOException ex) {
+            // A broken index only costs us a full walk
+            Log.i(TAG, "Cannot read video index: "+ex);
+            index.clear();
+        } finally {
+            if ( in != null ) {
+                try {
+                    in.close();
+                } catch (IOException ex) {
+                    // nothing else we can do
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Saves the folder index for the next launch
+     * @param index index of folder path to folder contents
+     */
+    private void writeIndex(Map<String, DirRecord> index) {
+        File temp = new File(mIndexFile.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            out.writeInt(INDEX_VERSION);
+            out.writeUTF(mRoot.getAbsolutePath());
+            out.writeInt(index.size());
+            for ( Map.Entry<String, DirRecord> entry: index.entrySet() ) {
+                DirRecord record = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeLong(record.modified);
+                out.writeInt(record.subdirs.length);
+                for ( String subdir: record.subdirs ) {
+                    out.writeUTF(subdir);
+                }
+                out.writeInt(record.videos.length);
+                for ( VideoEntry video: record.videos ) {
+                    out.writeUTF(video.file.getName());
+                    out.writeLong(video.modified);
+                    out.writeLong(video.size);
+                    out.writeLong(video.duration);
+                }
+            }
+            out.close();
+            out = null;
+            if ( !temp.renameTo(mIndexFile) ) {
+                Log.i(TAG, "Cannot replace video index "+mIndexFile);
+            }
+        } catch (IOException ex) {
+            Log.i(TAG, "Cannot save video index: "+ex);
+        } finally {
+            if ( out != null ) {
+                try {
+                    out.close();
+                } catch (IOException ex) {
+                    // nothing else we can do
+                }
+            }
+            temp.delete();
+        }
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2016. 10 Imaging Inc.
+ */
+package com.tenimaging.videosplitter;
+
+import java.io.File;
+
+/**
+ * Information about one video found on external storage
+ */
+public class VideoEntry {
+    public final File file;         // Video file
+    public final long modified;     // Last modification time in milliseconds
+    public final long size;         // Size of the video file in bytes
+    public final long duration;     // Length of the video in milliseconds or 0 if unknown
+
+    /**
+     * Constructor
+     * @param f video file
+     * @param m last modification time in milliseconds
+     * @param s size of the file in bytes
+     * @param d length of the video in milliseconds or 0 if unknown
+     */
+    public VideoEntry(File f, long m, long s, long d) {
+        file = f;
+        modified = m;
+        size = s;
+        duration = d;
+    }
+
+    /**
+     * Used to display the contents of this class
+     * @return Information about this class
+     */
+    @Override
+    public String toString() {
+        return "{ file="+file+", modified="+modified+", size="+size+", duration="+duration+"}";
+    }
+}
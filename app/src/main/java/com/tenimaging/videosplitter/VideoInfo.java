@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2016. 10 Imaging Inc.
+ */
+package com.tenimaging.videosplitter;
+
+import java.io.File;
+
+/**
+ * Information about a split that stages of a FramePipeline need before the first frame
+ */
+public class VideoInfo {
+    public final File video;            // Video being split
+    public final File outDir;           // Folder that receives the output of the split
+    public final String baseName;       // Base name of the output files
+    public final int width;             // Width of the frames in pixels
+    public final int height;            // Height of the frames in pixels
+    public final int frameCount;        // Number of frames the split will extract
+    public final long frameIntervalUs;  // Video time between two extracted frames in microseconds
+
+    /**
+     * Constructor
+     * @param v video being split
+     * @param dir folder that receives the output
+     * @param name base name of the output files
+     * @param w width of the frames
+     * @param h height of the frames
+     * @param count number of frames the split will extract
+     * @param intervalUs video time between two extracted frames in microseconds
+     */
+    public VideoInfo(File v, File dir, String name, int w, int h, int count, long intervalUs) {
+        video = v;
+        outDir = dir;
+        baseName = name;
+        width = w;
+        height = h;
+        frameCount = count;
+        frameIntervalUs = intervalUs;
+    }
+
+    /**
+     * @param w width of the frames
+     * @param h height of the frames
+     * @return copy of this information with another frame size
+     */
+    public VideoInfo withSize(int w, int h) {
+        return new VideoInfo(video, outDir, baseName, w, h, frameCount, frameIntervalUs);
+    }
+
+    /**
+     * @return frames per second of the extracted sequence
+     */
+    public double getFrameRate() {
+        return (frameIntervalUs > 0) ? 1000000.0 / frameIntervalUs : 0;
+    }
+
+    /**
+     * Used to display the contents of this class
+     * @return Information about this class
+     */
+    @Override
+    public String toString() {
+        return "{ video="+video+", outDir="+outDir+", size="+width+"x"+height+", frames="+frameCount+
+                ", intervalUs="+frameIntervalUs+"}";
+    }
+}
@@ -0,0 +1,410 @@
+/*
+ * Copyright (c) 2016. 10 Imaging Inc.
+ */
+package com.tenimaging.videosplitter;
+
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Paged store of all videos found on external storage.
+ * <p>
+ * Only primitive columns (date, size, duration and where the path is stored) are kept in memory.
+ * Paths are spilled to a file and VideoEntry objects are created a page at a time for the part
+ * of the list that is displayed, so memory stays small no matter how many videos there are.
+ * Sorting and filtering work on the primitive columns and produce an int array of record numbers.
+ */
+public class VideoLibrary {
+    private static final String TAG = "VideoLibrary";       // Tag that marks all log messages from this class
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int PAGE_SIZE = 64;                // Number of entries read from disk at once
+    private static final int MAX_PAGES = 8;                 // Number of pages kept in memory
+    private static final int MIN_CAPACITY = 256;            // Initial size of the columns
+
+    public static final int SORT_NONE = 0;                  // Keep the order the videos were found in
+    public static final int SORT_DATE = 1;                  // Sort by modification time
+    public static final int SORT_SIZE = 2;                  // Sort by file size
+    public static final int SORT_DURATION = 3;              // Sort by video length
+
+    private final RandomAccessFile mPaths;  // Spill file holding the UTF-8 path of every record
+    private long mPathsEnd = 0;             // Length of the spill file
+    private int mRecords = 0;               // Number of records stored
+    private long[] mModified;               // Modification time column
+    private long[] mSize;                   // File size column
+    private long[] mDuration;               // Video length column
+    private long[] mPathOffset;             // Offset of each path inside the spill file
+    private int[] mPathLength;              // Length in bytes of each path
+
+    private int mSortBy = SORT_NONE;        // Column the view is sorted by
+    private boolean mAscending = true;      // Direction of the sort
+    private long[] mMin = { Long.MIN_VALUE, Long.MIN_VALUE, Long.MIN_VALUE };   // Filter minimum per column
+    private long[] mMax = { Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE };   // Filter maximum per column
+    private int[] mView;                    // Record numbers in display order, only the first mViewCount are used
+    private int mViewCount = 0;             // Number of records that pass the filter
+    private final LruCache<Integer, VideoEntry[]> mPages;  // Pages of entries that were recently displayed
+
+    /**
+     * Constructor
+     * @param spillFile file used to hold the video paths, it is overwritten
+     * @throws IOException if the spill file cannot be created
+     */
+    public VideoLibrary(File spillFile) throws IOException {
+        mPaths = new RandomAccessFile(spillFile, "rw");
+        mPaths.setLength(0);
+        mModified = new long[MIN_CAPACITY];
+        mSize = new long[MIN_CAPACITY];
+        mDuration = new long[MIN_CAPACITY];
+        mPathOffset = new long[MIN_CAPACITY];
+        mPathLength = new int[MIN_CAPACITY];
+        mView = new int[MIN_CAPACITY];
+        mPages = new LruCache<>(MAX_PAGES);
+    }
+
+    /**
+     * Releases the spill file
+     */
+    public void close() {
+        try {
+            mPaths.close();
+        } catch (IOException ex) {
+            Log.i(TAG, "Cannot close path file: "+ex);
+        }
+        mPages.evictAll();
+    }
+
+    /**
+     * Number of videos that pass the current filter
+     * @return number of videos displayed
+     */
+    public int getCount() {
+        return mViewCount;
+    }
+
+    /**
+     * Number of videos stored, including the ones hidden by the filter
+     * @return number of videos stored
+     */
+    public int getTotal() {
+        return mRecords;
+    }
+
+    /**
+     * Stores newly found videos and adds the ones passing the filter to the view
+     * @param videos videos to add
+     */
+    public void addAll(List<VideoEntry> videos) {
+        if ( videos.isEmpty() ) {
+            return;
+        }
+        ensureCapacity(mRecords + videos.size());
+
+        // Write all paths of this batch with a single write
+        byte[][] paths = new byte[videos.size()][];
+        int bytes = 0;
+        for ( int i = 0; i < paths.length; i++ ) {
+            paths[i] = videos.get(i).file.getAbsolutePath().getBytes(UTF8);
+            bytes += paths[i].length;
+        }
+        byte[] buffer = new byte[bytes];
+        int first = mRecords;
+        int pos = 0;
+        for ( int i = 0; i < paths.length; i++ ) {
+            VideoEntry video = videos.get(i);
+            System.arraycopy(paths[i], 0, buffer, pos, paths[i].length);
+            mModified[mRecords] = video.modified;
+            mSize[mRecords] = video.size;
+            mDuration[mRecords] = video.duration;
+            mPathOffset[mRecords] = mPathsEnd + pos;
+            mPathLength[mRecords] = paths[i].length;
+            pos += paths[i].length;
+            mRecords++;
+        }
+        try {
+            mPaths.seek(mPathsEnd);
+            mPaths.write(buffer);
+            mPathsEnd += buffer.length;
+        } catch (IOException ex) {
+            Log.i(TAG, "Cannot store video paths: "+ex);
+            mRecords = first;
+            return;
+        }
+
+        // Collect the new records that pass the filter
+        int[] added = new int[mRecords - first];
+        int count = 0;
+        for ( int r = first; r < mRecords; r++ ) {
+            if ( accept(r) ) {
+                added[count++] = r;
+            }
+        }
+        if ( count == 0 ) {
+            return;
+        }
+
+        if ( mSortBy == SORT_NONE ) {
+            // New records go to the end so positions already displayed stay the same. The last
+            // page may have been cached while it was only partly filled.
+            mPages.remove(mViewCount / PAGE_SIZE);
+            System.arraycopy(added, 0, mView, mViewCount, count);
+            mViewCount += count;
+        } else {
+            // Sort the batch on its own and merge it into the sorted view
+            sortRecords(added, count, column(mSortBy), mAscending);
+            mergeIntoView(added, count);
+            mPages.evictAll();
+        }
+    }
+
+    /**
+     * Changes the order videos are displayed in
+     * @param sortBy one of SORT_NONE, SORT_DATE, SORT_SIZE or SORT_DURATION
+     * @param ascending true to show the smallest value first
+     */
+    public void setSort(int sortBy, boolean ascending) {
+        if ( sortBy < SORT_NONE || sortBy > SORT_DURATION ) {
+            throw new IllegalArgumentException("Unknown sort column: "+sortBy);
+        }
+        mSortBy = sortBy;
+        mAscending = ascending;
+        rebuildView();
+    }
+
+    /**
+     * Only display videos whose value in the given column lies inside [min, max]
+     * @param column one of SORT_DATE, SORT_SIZE or SORT_DURATION
+     * @param min smallest value to show
+     * @param max largest value to show
+     */
+    public void setFilter(int column, long min, long max) {
+        if ( column < SORT_DATE || column > SORT_DURATION ) {
+            throw new IllegalArgumentException("Unknown filter column: "+column);
+        }
+        mMin[column - SORT_DATE] = min;
+        mMax[column - SORT_DATE] = max;
+        rebuildView();
+    }
+
+    /**
+     * Removes all filters so every video is displayed
+     */
+    public void clearFilters() {
+        Arrays.fill(mMin, Long.MIN_VALUE);
+        Arrays.fill(mMax, Long.MAX_VALUE);
+        rebuildView();
+    }
+
+    /**
+     * Gets the video displayed at the given position. The page holding the position is read from
+     * disk if it is not in memory.
+     * A page that cannot be read is not cached, so it is tried again on the next call.
+     * @param position index of the video in the current view
+     * @return video at the given position or null if it cannot be read
+     */
+    public VideoEntry get(int position) {
+        checkPosition(position);
+        int page = position / PAGE_SIZE;
+        VideoEntry[] entries = mPages.get(page);
+        if ( entries == null ) {
+            try {
+                entries = readPage(page);
+            } catch (IOException ex) {
+                Log.i(TAG, "Cannot read video paths: "+ex);
+                return null;
+            }
+            mPages.put(page, entries);
+        }
+        return entries[position - page * PAGE_SIZE];
+    }
+
+    /**
+     * Gets the record displayed at the given position. A record keeps its number when the view is
+     * sorted, filtered or grows.
+     * @param position index of the video in the current view
+     * @return record number of the video
+     */
+    public int getRecord(int position) {
+        checkPosition(position);
+        return mView[position];
+    }
+
+    /**
+     * Finds where a record is displayed
+     * @param record record number returned by getRecord()
+     * @return index of the record in the current view or -1 if the filter hides it
+     */
+    public int findRecord(int record) {
+        for ( int i = 0; i < mViewCount; i++ ) {
+            if ( mView[i] == record ) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Checks that a position lies inside the current view
+     * @param position index of a video in the current view
+     */
+    private void checkPosition(int position) {
+        if ( position < 0 || position >= mViewCount ) {
+            throw new IndexOutOfBoundsException("position "+position+" of "+mViewCount);
+        }
+    }
+
+    /**
+     * Reads one page of entries from the spill file
+     * @param page page number inside the current view
+     * @return entries of this page
+     * @throws IOException if a path cannot be read
+     */
+    private VideoEntry[] readPage(int page) throws IOException {
+        int start = page * PAGE_SIZE;
+        int end = Math.min(mViewCount, start + PAGE_SIZE);
+        VideoEntry[] entries = new VideoEntry[end - start];
+        for ( int i = start; i < end; i++ ) {
+            int r = mView[i];
+            byte[] path = new byte[mPathLength[r]];
+            mPaths.seek(mPathOffset[r]);
+            mPaths.readFully(path);
+            entries[i - start] = new VideoEntry(new File(new String(path, UTF8)), mModified[r], mSize[r], mDuration[r]);
+        }
+        return entries;
+    }
+
+    /**
+     * Checks if the given record passes the filter
+     * @param r record number
+     * @return true if the record should be displayed
+     */
+    private boolean accept(int r) {
+        return mModified[r] >= mMin[0] && mModified[r] <= mMax[0]
+                && mSize[r] >= mMin[1] && mSize[r] <= mMax[1]
+                && mDuration[r] >= mMin[2] && mDuration[r] <= mMax[2];
+    }
+
+    /**
+     * Gets the column used for the given sort order
+     * @param sortBy one of SORT_DATE, SORT_SIZE or SORT_DURATION
+     * @return column array
+     */
+    private long[] column(int sortBy) {
+        switch ( sortBy ) {
+            case SORT_DATE:
+                return mModified;
+            case SORT_SIZE:
+                return mSize;
+            default:
+                return mDuration;
+        }
+    }
+
+    /**
+     * Recomputes the whole view after the filter or sort order changed
+     */
+    private void rebuildView() {
+        mViewCount = 0;
+        for ( int r = 0; r < mRecords; r++ ) {
+            if ( accept(r) ) {
+                mView[mViewCount++] = r;
+            }
+        }
+        if ( mSortBy != SORT_NONE ) {
+            sortRecords(mView, mViewCount, column(mSortBy), mAscending);
+        }
+        mPages.evictAll();
+    }
+
+    /**
+     * Merges a sorted batch of record numbers into the sorted view
+     * @param added sorted record numbers
+     * @param count number of record numbers used in added
+     */
+    private void mergeIntoView(int[] added, int count) {
+        long[] key = column(mSortBy);
+        int[] merged = new int[Math.max(mView.length, mViewCount + count)];
+        int a = 0;
+        int b = 0;
+        int out = 0;
+        while ( a < mViewCount && b < count ) {
+            if ( before(key, added[b], mView[a], mAscending) ) {
+                merged[out++] = added[b++];
+            } else {
+                merged[out++] = mView[a++];
+            }
+        }
+        while ( a < mViewCount ) {
+            merged[out++] = mView[a++];
+        }
+        while ( b < count ) {
+            merged[out++] = added[b++];
+        }
+        mView = merged;
+        mViewCount = out;
+    }
+
+    /**
+     * Grows all columns so they can hold the given number of records
+     * @param records number of records needed
+     */
+    private void ensureCapacity(int records) {
+        if ( records <= mModified.length ) {
+            return;
+        }
+        int capacity = Math.max(records, mModified.length * 2);
+        mModified = Arrays.copyOf(mModified, capacity);
+        mSize = Arrays.copyOf(mSize, capacity);
+        mDuration = Arrays.copyOf(mDuration, capacity);
+        mPathOffset = Arrays.copyOf(mPathOffset, capacity);
+        mPathLength = Arrays.copyOf(mPathLength, capacity);
+        mView = Arrays.copyOf(mView, capacity);
+    }
+
+    /**
+     * Checks if record a goes strictly before record b
+     * @param key column we sort by
+     * @param a first record number
+     * @param b second record number
+     * @param ascending direction of the sort
+     * @return true if a is displayed before b
+     */
+    private static boolean before(long[] key, int a, int b, boolean ascending) {
+        return ascending ? key[a] < key[b] : key[a] > key[b];
+    }
+
+    /**
+     * Stable merge sort of record numbers by a primitive column, so no boxing is needed
+     * @param records record numbers to sort
+     * @param count number of record numbers used in records
+     * @param key column to sort by
+     * @param ascending direction of the sort
+     */
+    static void sortRecords(int[] records, int count, long[] key, boolean ascending) {
+        int[] temp = new int[count];
+        for ( int width = 1; width < count; width *= 2 ) {
+            for ( int lo = 0; lo < count - width; lo += 2 * width ) {
+                int mid = lo + width;
+                int hi = Math.min(lo + 2 * width, count);
+                int a = lo;
+                int b = mid;
+                int out = lo;
+                while ( a < mid && b < hi ) {
+                    temp[out++] = before(key, records[b], records[a], ascending) ? records[b++] : records[a++];
+                }
+                while ( a < mid ) {
+                    temp[out++] = records[a++];
+                }
+                while ( b < hi ) {
+                    temp[out++] = records[b++];
+                }
+                System.arraycopy(temp, lo, records, lo, hi - lo);
+            }
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2016. 10 Imaging Inc.
+ */
+package com.tenimaging.videosplitter;
+
+import android.util.Log;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.videoio.VideoWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Pipeline stage that writes the frames reaching it into one new video instead of single files.
+ * <p>
+ * Encoding runs on its own thread so it overlaps with decoding the next frames. Frames are handed
+ * over through a small ring of preallocated buffers: the split copies a frame into a free buffer
+ * and moves on, the writer thread encodes it and returns the buffer. When the writer falls behind
+ * the split waits for a free buffer, so memory use is bounded by the ring size.
+ */
+public class VideoSink extends FrameStage {
+    private static final String TAG = "VideoSink";          // Tag that marks all log messages from this class
+
+    private final String mFourcc;           // Codec of the output video, e.g. "MJPG"
+    private final double mFps;              // Frame rate of the output, 0 for the rate of the extracted frames
+    private final int mWidth;               // Size of the output, 0 for the frame size
+    private final int mHeight;
+    private final int mBuffers;             // Number of frames that can wait for the encoder
+
+    private VideoWriter mWriter;            // Encoder, only used by the writer thread once started
+    private File mOutput;                   // File the video is written to
+    private Size mSize;                     // Size of the output frames
+    private Mat[] mRing;                    // All frame buffers
+    private Mat mEnd;                       // Marks the end of the stream in mFull
+    private ArrayBlockingQueue<Mat> mFree;  // Buffers the split can fill
+    private ArrayBlockingQueue<Mat> mFull;  // Buffers waiting for the encoder
+    private Thread mThread;                 // Writer thread
+    private volatile IOException mError;    // Set when the writer thread failed
+    private int mWritten;                   // Number of frames handed to the writer
+
+    /**
+     * Constructor
+     * @param fourcc four character code of the codec, MJPG is always available
+     * @param fps frame rate of the output video, 0 for the rate of the extracted frames
+     * @param width width of the output video, 0 for the frame width
+     * @param height height of the output video, 0 for the frame height
+     * @param buffers number of frames that can wait for the encoder
+     */
+    public VideoSink(String fourcc, double fps, int width, int height, int buffers) {
+        mFourcc = fourcc;
+        mFps = fps;
+        mWidth = width;
+        mHeight = height;
+        mBuffers = Math.max(1, buffers);
+    }
+
+    @Override
+    public void start(VideoInfo info) throws IOException {
+        if ( mFourcc == null || mFourcc.length() != 4 ) {
+            throw new IOException("Bad fourcc: "+mFourcc);
+        }
+        mSize = (mWidth > 0 && mHeight > 0) ? new Size(mWidth, mHeight) : new Size(info.width, info.height);
+        double fps = (mFps > 0) ? mFps : info.getFrameRate();
+        mOutput = new File(info.outDir, info.baseName + ".avi");
+        int fourcc = VideoWriter.fourcc(mFourcc.charAt(0), mFourcc.charAt(1), mFourcc.charAt(2), mFourcc.charAt(3));
+        mWriter = new VideoWriter(mOutput.getAbsolutePath(), fourcc, fps, mSize, true);
+        if ( !mWriter.isOpened() ) {
+            throw new IOException("Cannot write "+mFourcc+" video "+mOutput);
+        }
+
+        mRing = new Mat[mBuffers];
+        mFree = new ArrayBlockingQueue<>(mBuffers);
+        mFull = new ArrayBlockingQueue<>(mBuffers + 1);
+        for ( int i=0; i<mBuffers; i++ ) {
+            mRing[i] = new Mat();
+            mFree.add(mRing[i]);
+        }
+        mEnd = new Mat();
+
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                encode();
+            }
+        }, TAG);
+        mThread.start();
+        Log.i(TAG, "Writing "+mSize+" at "+fps+" fps to "+mOutput);
+    }
+
+    @Override
+    public boolean process(Frame frame) throws IOException {
+        checkError();
+        Mat buffer = take(mFree);
+        if ( frame.image.cols() == (int)mSize.width && frame.image.rows() == (int)mSize.height ) {
+            frame.image.copyTo(buffer);
+        } else {
+            Imgproc.resize(frame.image, buffer, mSize, 0, 0, Imgproc.INTER_AREA);
+        }
+        put(mFull, buffer);
+        mWritten++;
+        return true;
+    }
+
+    @Override
+    public void finish() throws IOException {
+        put(mFull, mEnd);
+        try {
+            mThread.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while finishing "+mOutput);
+        }
+        mThread = null;
+        checkError();
+        Log.i(TAG, "Wrote "+mWritten+" frames to "+mOutput);
+    }
+
+    @Override
+    public void release() {
+        if ( mThread != null ) {
+            // the split was canceled or failed, stop encoding what is left
+            mThread.interrupt();
+            try {
+                mThread.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            mThread = null;
+        }
+        if ( mWriter != null ) {
+            mWriter.release();
+            mWriter = null;
+        }
+        if ( mRing != null ) {
+            for ( Mat buffer: mRing ) {
+                buffer.release();
+            }
+            mEnd.release();
+            mRing = null;
+        }
+    }
+
+    /**
+     * Body of the writer thread: encodes buffers until the end marker arrives
+     */
+    private void encode() {
+        try {
+            while ( true ) {
+                Mat buffer = mFull.take();
+                if ( buffer == mEnd ) {
+                    break;
+                }
+                mWriter.write(buffer);
+                mFree.put(buffer);
+            }
+        } catch (InterruptedException ex) {
+            // release() stops us
+        } catch (RuntimeException ex) {
+            mError = new IOException("Cannot encode "+mOutput, ex);
+            // keep the split from waiting for a buffer that never comes back
+            mFree.clear();
+            for ( Mat buffer: mRing ) {
+                mFree.offer(buffer);
+            }
+        }
+    }
+
+    /**
+     * @throws IOException if the writer thread failed
+     */
+    private void checkError() throws IOException {
+        if ( mError != null ) {
+            throw mError;
+        }
+    }
+
+    private static Mat take(ArrayBlockingQueue<Mat> queue) throws IOException {
+        try {
+            return queue.take();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the encoder");
+        }
+    }
+
+    private static void put(ArrayBlockingQueue<Mat> queue, Mat buffer) throws IOException {
+        try {
+            queue.put(buffer);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the encoder");
+        }
+    }
+}
@@ -95,6 +95,9 @@ class StaticHelper {
             result &= loadLibrary("opencv_java3");
         }
 
+        // Native helpers that extend the Java API, they link against the libraries above
+        result &= loadLibrary("CVnative");
+
         return result;
     }
 
@@ -6,6 +6,7 @@ import android.graphics.Bitmap;
 import org.opencv.core.CvException;
 import org.opencv.core.CvType;
 import org.opencv.core.Mat;
+import org.opencv.core.Size;
 import org.opencv.imgcodecs.Imgcodecs;
 
 import java.io.ByteArrayOutputStream;
@@ -16,6 +17,21 @@ import java.io.InputStream;
 
 public class Utils {
 
+    /** Mat layout of 4 channel RGBA pixels, the layout of bitmapToMat(bmp, mat). */
+    public static final int LAYOUT_RGBA = 0;
+    /** Mat layout of 3 channel BGR pixels, as used by Imgcodecs and most of OpenCV. */
+    public static final int LAYOUT_BGR = 1;
+    /** Mat layout of 1 channel gray pixels. */
+    public static final int LAYOUT_GRAY = 2;
+
+    // intermediate image for conversions that need a color change and a resize, reused per thread
+    private static final ThreadLocal<Mat> scratch = new ThreadLocal<Mat>() {
+        @Override
+        protected Mat initialValue() {
+            return new Mat();
+        }
+    };
+
     public static String exportResource(Context context, int resourceId) {
         return exportResource(context, resourceId, "OpenCV_data");
     }
@@ -133,7 +149,71 @@ public class Utils {
     }
 
 
+    /**
+     * Converts an Android Bitmap straight into a Mat of the requested layout.
+     * <p>
+     * The Bitmap pixels are read in place and converted in a single pass, so no RGBA copy of the
+     * frame is made on the way to a BGR or gray Mat.
+     * <br>'ARGB_8888' and 'RGB_565' input Bitmap formats are supported. Alpha is dropped for the
+     * BGR and gray layouts and is not un-premultiplied for RGBA.
+     * @param bmp is a valid input Bitmap object of the type 'ARGB_8888' or 'RGB_565'.
+     * @param mat is a valid output Mat object, it is only reallocated if its size or type does not match.
+     * @param layout is the layout of the output Mat, LAYOUT_RGBA, LAYOUT_BGR or LAYOUT_GRAY.
+     */
+    public static void bitmapToMat(Bitmap bmp, Mat mat, int layout) {
+        bitmapToMat(bmp, mat, layout, null);
+    }
+
+    /**
+     * Converts an Android Bitmap into a downscaled Mat of the requested layout.
+     * <p>
+     * The image is resized with area interpolation. For an 'ARGB_8888' Bitmap the resize runs
+     * first, so the color conversion only touches the smaller image.
+     * @param bmp is a valid input Bitmap object of the type 'ARGB_8888' or 'RGB_565'.
+     * @param mat is a valid output Mat object, it is only reallocated if its size or type does not match.
+     * @param layout is the layout of the output Mat, LAYOUT_RGBA, LAYOUT_BGR or LAYOUT_GRAY.
+     * @param dsize is the size of the output Mat, or null to keep the size of the Bitmap.
+     */
+    public static void bitmapToMat(Bitmap bmp, Mat mat, int layout, Size dsize) {
+        if (bmp == null)
+            throw new java.lang.IllegalArgumentException("bmp == null");
+        if (mat == null)
+            throw new java.lang.IllegalArgumentException("mat == null");
+        checkLayout(layout);
+        int width = (dsize != null) ? (int) dsize.width : 0;
+        int height = (dsize != null) ? (int) dsize.height : 0;
+        nBitmapToMatLayout(bmp, mat.nativeObj, layout, width, height, scratch.get().nativeObj);
+    }
+
+    /**
+     * Converts a Mat of the given layout into an Android Bitmap of any size.
+     * <p>
+     * Unlike matToBitmap(mat, bmp) the Mat does not have to match the Bitmap: it is resized to
+     * the Bitmap size and converted straight into its pixels.
+     * @param mat is a valid input Mat object of the given layout.
+     * @param bmp is a valid Bitmap object of type 'ARGB_8888' or 'RGB_565'.
+     * @param layout is the layout of the input Mat, LAYOUT_RGBA, LAYOUT_BGR or LAYOUT_GRAY.
+     */
+    public static void matToBitmap(Mat mat, Bitmap bmp, int layout) {
+        if (mat == null)
+            throw new java.lang.IllegalArgumentException("mat == null");
+        if (bmp == null)
+            throw new java.lang.IllegalArgumentException("bmp == null");
+        checkLayout(layout);
+        nMatToBitmapLayout(mat.nativeObj, bmp, layout, scratch.get().nativeObj);
+    }
+
+    private static void checkLayout(int layout) {
+        if (layout != LAYOUT_RGBA && layout != LAYOUT_BGR && layout != LAYOUT_GRAY)
+            throw new java.lang.IllegalArgumentException("Unknown layout: " + layout);
+    }
+
     private static native void nBitmapToMat2(Bitmap b, long m_addr, boolean unPremultiplyAlpha);
 
+    // layout aware conversions, implemented in CVnative
+    private static native void nBitmapToMatLayout(Bitmap b, long m_addr, int layout, int width, int height, long scratch_addr);
+
+    private static native void nMatToBitmapLayout(long m_addr, Bitmap b, int layout, long scratch_addr);
+
     private static native void nMatToBitmap2(long m_addr, Bitmap b, boolean premultiplyAlpha);
 }
@@ -195,6 +195,49 @@ public class Core {
         return retVal;
     }
 
+    /**
+     * Same as {@link #mean(Mat, Mat)} but writes the channel means into an existing array.
+     * @param src input array with 1 to 4 channels
+     * @param mask optional operation mask or null
+     * @param out receives up to 4 channel means, at least one element per channel of src
+     * @return out
+     */
+    public static double[] mean(Mat src, Mat mask, double[] out)
+    {
+        if (out == null)
+            throw new java.lang.NullPointerException("out is null");
+        int channels = Math.min(src.channels(), 4);
+        if (out.length < channels)
+            throw new java.lang.IllegalArgumentException("out holds " + out.length + " values, " + channels + " channels needed");
+        n_meanInto(src.nativeObj, (mask != null) ? mask.nativeObj : 0, out);
+        return out;
+    }
+
+    //javadoc: mean(src, out)
+    public static double[] mean(Mat src, double[] out)
+    {
+        return mean(src, null, out);
+    }
+
+    /**
+     * Same as {@link #mean(Mat, Mat)} but writes the channel means into an existing Scalar.
+     * @param src input array with 1 to 4 channels
+     * @param mask optional operation mask or null
+     * @param out receives the channel means
+     * @return out
+     */
+    public static Scalar mean(Mat src, Mat mask, Scalar out)
+    {
+        mean(src, mask, out.val);
+        return out;
+    }
+
+    //javadoc: mean(src, out)
+    public static Scalar mean(Mat src, Scalar out)
+    {
+        return mean(src, null, out);
+    }
+
 
     //
     // C++:  Scalar sum(Mat src)
@@ -209,6 +252,18 @@ public class Core {
         return retVal;
     }
 
+    /**
+     * Same as {@link #sumElems(Mat)} but writes the channel sums into an existing Scalar.
+     * @param src input array with 1 to 4 channels
+     * @param out receives the channel sums
+     * @return out
+     */
+    public static Scalar sumElems(Mat src, Scalar out)
+    {
+        n_sumElemsInto(src.nativeObj, out.val);
+        return out;
+    }
+
 
     //
     // C++:  Scalar trace(Mat mtx)
@@ -2011,6 +2066,24 @@ public class Core {
     }
 
 
+    /**
+     * Turns the optimized code paths of OpenCV (NEON, SSE, IPP) on or off.
+     * @param onoff true to use the optimized code, the default
+     */
+    public static void setUseOptimized(boolean onoff)
+    {
+        n_setUseOptimized(onoff);
+    }
+
+    /**
+     * @return true if the optimized code paths of OpenCV are in use
+     */
+    public static boolean useOptimized()
+    {
+        return n_useOptimized();
+    }
+
+
     //
     // C++:  void setRNGSeed(int seed)
     //
@@ -2226,6 +2299,22 @@ public class Core {
         return minMaxLoc(src, null);
     }
 
+    /**
+     * Same as {@link #minMaxLoc(Mat, Mat)} but fills an existing result.
+     * @param src input single-channel array
+     * @param mask optional mask or null
+     * @param out receives the extremes and their locations
+     * @return out
+     */
+    public static MinMaxLocResult minMaxLoc(Mat src, Mat mask, MinMaxLocResult out) {
+        if (out.minLoc == null)
+            out.minLoc = new Point();
+        if (out.maxLoc == null)
+            out.maxLoc = new Point();
+        n_minMaxLocInto(src.nativeObj, (mask != null) ? mask.nativeObj : 0, out);
+        return out;
+    }
+
 
 
 
@@ -2605,4 +2694,16 @@ public class Core {
     private static native void vconcat_0(long src_mat_nativeObj, long dst_nativeObj);
     private static native double[] n_minMaxLocManual(long src_nativeObj, long mask_nativeObj);
 
+    // optimization switch, implemented in CVnative
+    private static native void n_setUseOptimized(boolean onoff);
+
+    private static native boolean n_useOptimized();
+
+    // out-parameter variants, implemented in CVnative
+    private static native void n_meanInto(long src_nativeObj, long mask_nativeObj, double[] out);
+
+    private static native void n_sumElemsInto(long src_nativeObj, double[] out);
+
+    private static native void n_minMaxLocInto(long src_nativeObj, long mask_nativeObj, MinMaxLocResult out);
+
 }
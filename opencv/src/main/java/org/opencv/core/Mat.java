@@ -2,15 +2,17 @@ package org.opencv.core;
 
 // C++: class Mat
 //javadoc: Mat
-public class Mat {
+public class Mat implements AutoCloseable {
 
     public final long nativeObj;
+    private MatCleaner cleaner;
 
     public Mat(long addr)
     {
         if (addr == 0)
             throw new java.lang.UnsupportedOperationException("Native object address is NULL");
         nativeObj = addr;
+        register();
     }
 
     //
@@ -22,6 +24,7 @@ public class Mat {
     {
 
         nativeObj = n_Mat();
+        register();
 
         return;
     }
@@ -35,6 +38,7 @@ public class Mat {
     {
 
         nativeObj = n_Mat(rows, cols, type);
+        register();
 
         return;
     }
@@ -48,6 +52,7 @@ public class Mat {
     {
 
         nativeObj = n_Mat(size.width, size.height, type);
+        register();
 
         return;
     }
@@ -61,6 +66,7 @@ public class Mat {
     {
 
         nativeObj = n_Mat(rows, cols, type, s.val[0], s.val[1], s.val[2], s.val[3]);
+        register();
 
         return;
     }
@@ -74,6 +80,7 @@ public class Mat {
     {
 
         nativeObj = n_Mat(size.width, size.height, type, s.val[0], s.val[1], s.val[2], s.val[3]);
+        register();
 
         return;
     }
@@ -87,6 +94,7 @@ public class Mat {
     {
 
         nativeObj = n_Mat(m.nativeObj, rowRange.start, rowRange.end, colRange.start, colRange.end);
+        register();
 
         return;
     }
@@ -96,6 +104,7 @@ public class Mat {
     {
 
         nativeObj = n_Mat(m.nativeObj, rowRange.start, rowRange.end);
+        register();
 
         return;
     }
@@ -109,6 +118,7 @@ public class Mat {
     {
 
         nativeObj = n_Mat(m.nativeObj, roi.y, roi.y + roi.height, roi.x, roi.x + roi.width);
+        register();
 
         return;
     }
@@ -219,6 +229,18 @@ public class Mat {
         return retVal;
     }
 
+    /**
+     * Same as {@link #col(int)} but points an existing header at the column instead of creating one.
+     * @param x column index
+     * @param dst header to reuse, its previous data is released
+     * @return dst
+     */
+    public Mat col(int x, Mat dst)
+    {
+        n_colInto(nativeObj, x, dst.nativeObj);
+        return dst;
+    }
+
     //
     // C++: Mat Mat::colRange(int startcol, int endcol)
     //
@@ -638,6 +660,8 @@ public class Mat {
     // javadoc: Mat::release()
     public void release()
     {
+        if (MatTracker.enabled)
+            MatTracker.released(cleaner.site, nativeBytes(nativeObj));
 
         n_release(nativeObj);
 
@@ -679,6 +703,18 @@ public class Mat {
         return retVal;
     }
 
+    /**
+     * Same as {@link #row(int)} but points an existing header at the row instead of creating one.
+     * @param y row index
+     * @param dst header to reuse, its previous data is released
+     * @return dst
+     */
+    public Mat row(int y, Mat dst)
+    {
+        n_rowInto(nativeObj, y, dst.nativeObj);
+        return dst;
+    }
+
     //
     // C++: Mat Mat::rowRange(int startrow, int endrow)
     //
@@ -779,6 +815,18 @@ public class Mat {
         return retVal;
     }
 
+    /**
+     * Same as {@link #size()} but fills an existing Size.
+     * @param out receives cols as width and rows as height
+     * @return out
+     */
+    public Size size(Size out)
+    {
+        out.width = n_cols(nativeObj);
+        out.height = n_rows(nativeObj);
+        return out;
+    }
+
     //
     // C++: size_t Mat::step1(int i = 0)
     //
@@ -815,6 +863,18 @@ public class Mat {
         return retVal;
     }
 
+    /**
+     * Same as {@link #submat(int, int, int, int)} but points an existing header at the region
+     * instead of creating one.
+     * @param dst header to reuse, its previous data is released
+     * @return dst
+     */
+    public Mat submat(int rowStart, int rowEnd, int colStart, int colEnd, Mat dst)
+    {
+        n_submatInto(nativeObj, rowStart, rowEnd, colStart, colEnd, dst.nativeObj);
+        return dst;
+    }
+
     //
     // C++: Mat Mat::operator()(Range rowRange, Range colRange)
     //
@@ -841,6 +901,18 @@ public class Mat {
         return retVal;
     }
 
+    /**
+     * Same as {@link #submat(Rect)} but points an existing header at the region instead of creating one.
+     * @param roi region of this Mat
+     * @param dst header to reuse, its previous data is released
+     * @return dst
+     */
+    public Mat submat(Rect roi, Mat dst)
+    {
+        n_submatInto(nativeObj, roi.y, roi.y + roi.height, roi.x, roi.x + roi.width, dst.nativeObj);
+        return dst;
+    }
+
     //
     // C++: Mat Mat::t()
     //
@@ -906,10 +978,25 @@ public class Mat {
         return retVal;
     }
 
+    /**
+     * Releases the pixel data of this Mat now, same as {@link #release()}, so it can be used in
+     * try-with-resources and by {@link MatScope}.
+     * <p>
+     * The small native header is freed once the Mat becomes unreachable, so a Mat used after
+     * close() behaves as an empty Mat instead of touching freed memory.
+     */
     @Override
-    protected void finalize() throws Throwable {
-        n_delete(nativeObj);
-        super.finalize();
+    public void close() {
+        release();
+    }
+
+    /**
+     * Gets the number of Mats that were garbage collected while still holding pixel data,
+     * i.e. that were never closed or released.
+     * @return number of leaked Mats since the library was loaded
+     */
+    public static long getLeakCount() {
+        return MatCleaner.leakCount();
     }
 
     // javadoc:Mat::toString()
@@ -1095,6 +1182,35 @@ public class Mat {
         return nativeObj;
     }
 
+    /**
+     * Maps the pixel data of this Mat into direct NIO buffers without copying it.
+     * <p>
+     * Only continuous Mats can be mapped. The returned view keeps the data alive until it is
+     * closed, so it stays safe to use even if this Mat is released first.
+     * @return open view of the pixel data, close it when done
+     */
+    public MatBuffer mapBuffer() {
+        return new MatBuffer(this);
+    }
+
+    // hands a new header to the cleaner and to the open MatScope of this thread
+    private void register() {
+        cleaner = MatCleaner.register(this);
+        MatScope.track(this);
+    }
+
+    // size of the pixel data referenced by a header, total() * elemSize()
+    static long nativeBytes(long addr) {
+        return n_total(addr) * n_elemSize(addr);
+    }
+
+    // called by MatCleaner for an unreachable Mat, returns the bytes it still referenced or -1 if none
+    static long deleteNative(long addr) {
+        long bytes = (n_dataAddr(addr) != 0) ? nativeBytes(addr) : -1;
+        n_delete(addr);
+        return bytes;
+    }
+
     // C++: Mat::Mat()
     private static native long n_Mat();
 
@@ -1287,7 +1403,14 @@ public class Mat {
     // C++: static Mat Mat::zeros(Size size, int type)
     private static native long n_zeros(double size_width, double size_height, int type);
 
-    // native support for java finalize()
+    // header reuse for the out-parameter overloads, implemented in CVnative
+    private static native void n_submatInto(long nativeObj, int rowStart, int rowEnd, int colStart, int colEnd, long dstNativeObj);
+
+    private static native void n_rowInto(long nativeObj, int y, long dstNativeObj);
+
+    private static native void n_colInto(long nativeObj, int x, long dstNativeObj);
+
+    // frees the native header, called by MatCleaner
     private static native void n_delete(long nativeObj);
 
     private static native int nPutD(long self, int row, int col, int count, double[] data);
@@ -0,0 +1,366 @@
+package org.opencv.core;
+
+import java.lang.ref.PhantomReference;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Copy-free view of the pixel memory of a continuous Mat.
+ * <p>
+ * The buffers returned by this class are direct buffers that map the native data of the Mat, so
+ * reading and writing them does not cross JNI or copy anything.
+ * <br>The view keeps its own reference to the pixel data, so releasing or reallocating the Mat
+ * while the view is open does not free the memory underneath it.
+ * <br>After {@link #close()} every buffer handed out by this view has its limit set to zero, so
+ * any later access throws an exception instead of touching freed memory.
+ * <br>A view that is not closed keeps the pixel data until the view and every buffer it handed out
+ * are unreachable, so holding on to just {@code mapBuffer().bytes()} is safe. Views the caller
+ * derives from those buffers with slice(), duplicate() or asXBuffer() are not guarded: they are
+ * not emptied by close() and do not keep the data alive, so keep the buffer they came from
+ * reachable and the view open while using them.
+ * <br>Buffers use the native byte order and their position and limit are shared by all users of the view.
+ */
+public class MatBuffer implements AutoCloseable {
+
+    // keeps the guards reachable until the garbage collector enqueues them
+    private static final Set<Guard> guards = Collections.newSetFromMap(new ConcurrentHashMap<Guard, Boolean>());
+
+    private final Retained retained;
+    private final int rows;
+    private final int cols;
+    private final int type;
+    private ByteBuffer bytes;
+    private ShortBuffer shorts;
+    private IntBuffer ints;
+    private FloatBuffer floats;
+    private DoubleBuffer doubles;
+
+    MatBuffer(Mat m) {
+        if (m == null)
+            throw new java.lang.IllegalArgumentException("m == null");
+        if (!m.empty() && !m.isContinuous())
+            throw new java.lang.UnsupportedOperationException("Only continuous Mats can be mapped: " + m);
+        rows = m.rows();
+        cols = m.cols();
+        type = m.type();
+        retained = new Retained(n_retain(m.nativeObj));
+        ByteBuffer buffer = n_buffer(retained.nativeObj);
+        if (buffer == null)
+            buffer = ByteBuffer.allocateDirect(0);
+        bytes = guard(buffer.order(ByteOrder.nativeOrder()));
+    }
+
+    /**
+     * Copies the values of a continuous Mat into a buffer at its position, which is moved past
+     * them. A direct buffer in native byte order is filled by one native memory copy, without
+     * creating a view or any object the garbage collector has to track.
+     * @param src continuous Mat whose depth matches the buffer type
+     * @param dst byte, short, int, float or double buffer
+     * @return number of values copied
+     */
+    public static int copyTo(Mat src, Buffer dst) {
+        int count = valueCount(src, dst);
+        if (dst.remaining() < count)
+            throw new java.nio.BufferOverflowException();
+        if (isNativeDirect(dst)) {
+            int size = valueSize(dst);
+            n_copy(src.nativeObj, dst, (long) dst.position() * size, (long) count * size, false);
+            dst.position(dst.position() + count);
+        } else {
+            MatBuffer mb = new MatBuffer(src);
+            try {
+                put(dst, mb);
+            } finally {
+                mb.close();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Fills a continuous Mat from the remaining values of a buffer, whose position is moved past
+     * them. A direct buffer in native byte order is read by one native memory copy.
+     * @param src byte, short, int, float or double buffer holding at most as many values as the Mat
+     * @param dst continuous Mat whose depth matches the buffer type
+     * @return number of values copied
+     */
+    public static int copyFrom(Buffer src, Mat dst) {
+        int count = src.remaining();
+        if (count > valueCount(dst, src))
+            throw new java.nio.BufferUnderflowException();
+        if (isNativeDirect(src)) {
+            int size = valueSize(src);
+            n_copy(dst.nativeObj, src, (long) src.position() * size, (long) count * size, true);
+            src.position(src.position() + count);
+        } else {
+            MatBuffer mb = new MatBuffer(dst);
+            try {
+                get(src, mb);
+            } finally {
+                mb.close();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return number of rows of the mapped Mat
+     */
+    public int rows() {
+        return rows;
+    }
+
+    /**
+     * @return number of columns of the mapped Mat
+     */
+    public int cols() {
+        return cols;
+    }
+
+    /**
+     * @return type of the mapped Mat
+     */
+    public int type() {
+        return type;
+    }
+
+    /**
+     * @return true once the view has been closed
+     */
+    public synchronized boolean isClosed() {
+        return retained.isFreed();
+    }
+
+    /**
+     * Gets the pixel data as bytes, one byte per 8 bit channel value.
+     * @return direct buffer over the whole Mat
+     */
+    public synchronized ByteBuffer bytes() {
+        checkOpen();
+        return bytes;
+    }
+
+    /**
+     * Gets the pixel data of a CV_16U or CV_16S Mat.
+     * @return direct buffer over the whole Mat
+     */
+    public synchronized ShortBuffer shorts() {
+        checkOpen();
+        checkDepth(CvType.CV_16U, CvType.CV_16S);
+        if (shorts == null)
+            shorts = guard(bytes.asShortBuffer());
+        return shorts;
+    }
+
+    /**
+     * Gets the pixel data of a CV_32S Mat.
+     * @return direct buffer over the whole Mat
+     */
+    public synchronized IntBuffer ints() {
+        checkOpen();
+        checkDepth(CvType.CV_32S, CvType.CV_32S);
+        if (ints == null)
+            ints = guard(bytes.asIntBuffer());
+        return ints;
+    }
+
+    /**
+     * Gets the pixel data of a CV_32F Mat.
+     * @return direct buffer over the whole Mat
+     */
+    public synchronized FloatBuffer floats() {
+        checkOpen();
+        checkDepth(CvType.CV_32F, CvType.CV_32F);
+        if (floats == null)
+            floats = guard(bytes.asFloatBuffer());
+        return floats;
+    }
+
+    /**
+     * Gets the pixel data of a CV_64F Mat.
+     * @return direct buffer over the whole Mat
+     */
+    public synchronized DoubleBuffer doubles() {
+        checkOpen();
+        checkDepth(CvType.CV_64F, CvType.CV_64F);
+        if (doubles == null)
+            doubles = guard(bytes.asDoubleBuffer());
+        return doubles;
+    }
+
+    /**
+     * Closes the view. The buffers handed out become empty and the reference to the pixel data
+     * is dropped, which frees it if the Mat was released in the meantime.
+     */
+    @Override
+    public synchronized void close() {
+        if (retained.isFreed())
+            return;
+        bytes.limit(0);
+        if (shorts != null)
+            shorts.limit(0);
+        if (ints != null)
+            ints.limit(0);
+        if (floats != null)
+            floats.limit(0);
+        if (doubles != null)
+            doubles.limit(0);
+        retained.free();
+    }
+
+    @Override
+    public String toString() {
+        return "MatBuffer [ " + rows + "*" + cols + "*" + CvType.typeToString(type) +
+                ", closed=" + isClosed() + " ]";
+    }
+
+    private void checkOpen() {
+        if (retained.isFreed())
+            throw new java.lang.IllegalStateException("MatBuffer has been closed");
+    }
+
+    // number of values of a Mat, checked to be continuous and of the size of the buffer values
+    private static int valueCount(Mat m, Buffer b) {
+        if (!m.isContinuous())
+            throw new java.lang.UnsupportedOperationException("Only continuous Mats can be copied: " + m);
+        if (CvType.ELEM_SIZE(m.type()) / m.channels() != valueSize(b))
+            throw new java.lang.UnsupportedOperationException("Mat data type is not compatible: " + m.type());
+        return (int) (m.total() * m.channels());
+    }
+
+    private static int valueSize(Buffer b) {
+        if (b instanceof ByteBuffer)
+            return 1;
+        if (b instanceof ShortBuffer)
+            return 2;
+        if (b instanceof IntBuffer || b instanceof FloatBuffer)
+            return 4;
+        if (b instanceof DoubleBuffer)
+            return 8;
+        throw new java.lang.IllegalArgumentException("Unsupported buffer " + b);
+    }
+
+    private static boolean isNativeDirect(Buffer b) {
+        if (!b.isDirect())
+            return false;
+        if (b instanceof ByteBuffer)
+            return true;
+        ByteOrder order = (b instanceof ShortBuffer) ? ((ShortBuffer) b).order()
+                : (b instanceof IntBuffer) ? ((IntBuffer) b).order()
+                : (b instanceof FloatBuffer) ? ((FloatBuffer) b).order()
+                : ((DoubleBuffer) b).order();
+        return order == ByteOrder.nativeOrder();
+    }
+
+    // element-wise copy from a view into a heap or byte swapped buffer
+    private static void put(Buffer dst, MatBuffer mb) {
+        if (dst instanceof ByteBuffer)
+            ((ByteBuffer) dst).put(mb.bytes());
+        else if (dst instanceof ShortBuffer)
+            ((ShortBuffer) dst).put(mb.bytes().asShortBuffer());
+        else if (dst instanceof IntBuffer)
+            ((IntBuffer) dst).put(mb.bytes().asIntBuffer());
+        else if (dst instanceof FloatBuffer)
+            ((FloatBuffer) dst).put(mb.bytes().asFloatBuffer());
+        else
+            ((DoubleBuffer) dst).put(mb.bytes().asDoubleBuffer());
+    }
+
+    // element-wise copy from a heap or byte swapped buffer into a view
+    private static void get(Buffer src, MatBuffer mb) {
+        if (src instanceof ByteBuffer)
+            mb.bytes().put((ByteBuffer) src);
+        else if (src instanceof ShortBuffer)
+            mb.bytes().asShortBuffer().put((ShortBuffer) src);
+        else if (src instanceof IntBuffer)
+            mb.bytes().asIntBuffer().put((IntBuffer) src);
+        else if (src instanceof FloatBuffer)
+            mb.bytes().asFloatBuffer().put((FloatBuffer) src);
+        else
+            mb.bytes().asDoubleBuffer().put((DoubleBuffer) src);
+    }
+
+    // frees the retained header once the buffer is unreachable and no other buffer of this view is in use
+    private <T> T guard(T buffer) {
+        retained.acquire();
+        guards.add(new Guard(buffer, retained));
+        return buffer;
+    }
+
+    private void checkDepth(int depth1, int depth2) {
+        int depth = CvType.depth(type);
+        if (depth != depth1 && depth != depth2)
+            throw new java.lang.UnsupportedOperationException("Mat data type is not compatible: " + type);
+    }
+
+    /**
+     * Second native header of the Mat, shared by the buffers of a view.
+     */
+    private static final class Retained {
+        private long nativeObj;
+        private int users;
+
+        Retained(long nativeObj) {
+            this.nativeObj = nativeObj;
+        }
+
+        synchronized boolean isFreed() {
+            return nativeObj == 0;
+        }
+
+        synchronized void acquire() {
+            users++;
+        }
+
+        // one buffer became unreachable
+        synchronized void release() {
+            if (--users == 0)
+                free();
+        }
+
+        synchronized void free() {
+            if (nativeObj != 0) {
+                n_delete(nativeObj);
+                nativeObj = 0;
+            }
+        }
+    }
+
+    /**
+     * Drops a buffer's use of the retained header once the buffer is unreachable, run by the
+     * MatCleaner thread.
+     */
+    static final class Guard extends PhantomReference<Object> {
+        private final Retained retained;
+
+        Guard(Object buffer, Retained retained) {
+            super(buffer, MatCleaner.queue);
+            this.retained = retained;
+        }
+
+        void clean() {
+            guards.remove(this);
+            retained.release();
+        }
+    }
+
+    // keeps the pixel data of the Mat alive with a second header
+    private static native long n_retain(long matNativeObj);
+
+    // direct buffer over the data of a retained header, or null if it is empty
+    private static native ByteBuffer n_buffer(long nativeObj);
+
+    // drops the second header
+    private static native void n_delete(long nativeObj);
+
+    // memcpy between the data of a continuous Mat and a direct buffer
+    private static native void n_copy(long matNativeObj, Buffer buffer, long offset, long bytes, boolean toMat);
+}
@@ -0,0 +1,131 @@
+package org.opencv.core;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Frees the native header of a Mat once the Mat is unreachable, replacing Mat.finalize().
+ * <p>
+ * Every Mat registers one cleaner. The cleaners are kept in a concurrent set so they stay reachable
+ * until the garbage collector enqueues them, without a lock shared by all threads that create Mats,
+ * and a daemon thread drains the queue and deletes the native headers. A Mat that still references pixel data at that point was never closed or
+ * released, so it is counted as a leak.
+ * <br>The same thread frees the pixel data a MatBuffer retained once its buffers are unreachable.
+ */
+final class MatCleaner extends PhantomReference<Mat> {
+
+    static final ReferenceQueue<Object> queue = new ReferenceQueue<Object>();     // also used by MatBuffer
+    private static final AtomicLong leaked = new AtomicLong();
+    private static final AtomicLong cleaned = new AtomicLong();
+    private static final Set<MatCleaner> live =
+            Collections.newSetFromMap(new ConcurrentHashMap<MatCleaner, Boolean>());
+
+    final String site;                     // where the Mat was created, null unless MatTracker is enabled
+    private final long nativeObj;
+    private boolean deleted;                // set before the header is freed, guarded by this cleaner
+
+    static {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, "MatCleaner");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MAX_PRIORITY - 2);
+        thread.start();
+    }
+
+    private MatCleaner(Mat m, String site) {
+        super(m, queue);
+        nativeObj = m.nativeObj;
+        this.site = site;
+    }
+
+    /**
+     * Starts watching a new Mat.
+     * @param m Mat that owns its native header
+     * @return cleaner of the Mat
+     */
+    static MatCleaner register(Mat m) {
+        MatCleaner c = new MatCleaner(m, MatTracker.enabled ? MatTracker.callerSite() : null);
+        live.add(c);
+        return c;
+    }
+
+    /**
+     * Measures every live Mat. Each header is read under the lock of its own cleaner, which keeps
+     * the cleaner thread from deleting that header while it is being read.
+     * @param sites filled with {count, bytes} per allocation site, Mats without a site are under null
+     * @return {count, bytes} of all live Mats
+     */
+    static long[] measure(Map<String, long[]> sites) {
+        long[] total = new long[2];
+        for (MatCleaner c : live) {
+            long bytes;
+            synchronized (c) {
+                if (c.deleted)
+                    continue;
+                bytes = Mat.nativeBytes(c.nativeObj);
+            }
+            long[] site = sites.get(c.site);
+            if (site == null) {
+                site = new long[2];
+                sites.put(c.site, site);
+            }
+            site[0]++;
+            site[1] += bytes;
+            total[0]++;
+            total[1] += bytes;
+        }
+        return total;
+    }
+
+    /**
+     * @return number of Mats collected while they still referenced pixel data
+     */
+    static long leakCount() {
+        return leaked.get();
+    }
+
+    /**
+     * @return number of Mat headers freed by this cleaner so far
+     */
+    static long cleanedCount() {
+        return cleaned.get();
+    }
+
+    private static void drain() {
+        while (true) {
+            Reference<?> r;
+            try {
+                r = queue.remove();
+            } catch (InterruptedException e) {
+                continue;
+            }
+            if (r instanceof MatBuffer.Guard) {
+                ((MatBuffer.Guard) r).clean();
+                continue;
+            }
+            MatCleaner c = (MatCleaner) r;
+            live.remove(c);
+            // a measure() still reading the header finishes before the flag is set
+            synchronized (c) {
+                c.deleted = true;
+            }
+            long bytes = Mat.deleteNative(c.nativeObj);
+            if (bytes >= 0) {
+                leaked.incrementAndGet();
+                if (MatTracker.enabled)
+                    MatTracker.leaked(c.site, bytes);
+            }
+            cleaned.incrementAndGet();
+        }
+    }
+}
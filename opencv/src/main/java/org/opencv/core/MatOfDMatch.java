@@ -71,6 +71,33 @@ public class MatOfDMatch extends Mat {
         return a;
     }
 
+    /**
+     * Copies the values into existing objects instead of allocating new ones. Null entries of
+     * the array are filled with new objects, so a reused array only allocates on first use.
+     * @param a array to fill, it must hold at least total() entries
+     * @return number of entries written
+     */
+    public int toArray(DMatch[] a) {
+        int num = (int) total();
+        if(a == null || a.length < num)
+            throw new IllegalArgumentException("Array holds " + (a == null ? 0 : a.length) + " entries, " + num + " needed");
+        if(num == 0)
+            return 0;
+        float buff[] = new float[num * _channels];
+        get(0, 0, buff); //TODO: check ret val!
+        for(int i=0; i<num; i++) {
+            DMatch e = a[i];
+            if(e == null)
+                a[i] = e = new DMatch();
+            int o = i * _channels;
+            e.queryIdx = (int) buff[o];
+            e.trainIdx = (int) buff[o+1];
+            e.imgIdx = (int) buff[o+2];
+            e.distance = buff[o+3];
+        }
+        return num;
+    }
+
     public void fromList(List<DMatch> ldm) {
         DMatch adm[] = ldm.toArray(new DMatch[0]);
         fromArray(adm);
@@ -1,5 +1,6 @@
 package org.opencv.core;
 
+import java.nio.FloatBuffer;
 import java.util.Arrays;
 import java.util.List;
 
@@ -59,13 +60,89 @@ public class MatOfFloat extends Mat {
         return a;
     }
 
+    /**
+     * Copies the values into an existing array instead of allocating a new one.
+     * @param a array to fill, it must hold at least total() * channels() values
+     * @return number of values written
+     */
+    public int toArray(float[] a) {
+        int num = checkVector(_channels, _depth);
+        if(num < 0)
+            throw new RuntimeException("Native Mat has unexpected type or size: " + toString());
+        int len = num * _channels;
+        if(a == null || a.length < len)
+            throw new IllegalArgumentException("Array holds " + (a == null ? 0 : a.length) + " values, " + len + " needed");
+        if(len == 0)
+            return 0;
+        get(0, 0, a); //TODO: check ret val!
+        return len;
+    }
+
+    /**
+     * Fills this Mat with the first count values of an array, so a reused array does not have to
+     * be trimmed to size first.
+     * @param a values to copy
+     * @param count number of values to copy, a multiple of channels()
+     */
+    public void fromArray(float[] a, int count) {
+        if(a==null || count<=0)
+            return;
+        if(count > a.length || count % _channels != 0)
+            throw new IllegalArgumentException("Bad value count " + count + " for array of " + a.length);
+        alloc(count / _channels);
+        put(0, 0, a); //TODO: check ret val!
+    }
+
+    /**
+     * Fills this Mat with the remaining values of a buffer. For direct buffers this is a single
+     * native memory copy. The buffer position is moved past the values read.
+     * @param b values to copy, a multiple of channels()
+     */
+    public void fromBuffer(FloatBuffer b) {
+        int count = (b != null) ? b.remaining() : 0;
+        if(count == 0)
+            return;
+        if(count % _channels != 0)
+            throw new IllegalArgumentException("Bad value count " + count + " for " + _channels + " channels");
+        alloc(count / _channels);
+        if(!isContinuous()) {
+            float[] buff = new float[count];
+            b.get(buff);
+            put(0, 0, buff); //TODO: check ret val!
+            return;
+        }
+        MatBuffer.copyFrom(b, this);
+    }
+
+    /**
+     * Copies the values into a buffer at its current position, which is moved past the values written.
+     * @param b buffer to fill
+     * @return number of values written
+     */
+    public int toBuffer(FloatBuffer b) {
+        int num = checkVector(_channels, _depth);
+        if(num < 0)
+            throw new RuntimeException("Native Mat has unexpected type or size: " + toString());
+        int len = num * _channels;
+        if(len == 0)
+            return 0;
+        if(!isContinuous()) {
+            float[] buff = new float[len];
+            get(0, 0, buff); //TODO: check ret val!
+            b.put(buff);
+            return len;
+        }
+        MatBuffer.copyTo(this, b);
+        return len;
+    }
+
     public void fromList(List<Float> lb) {
         if(lb==null || lb.size()==0)
             return;
-        Float ab[] = lb.toArray(new Float[0]);
-        float a[] = new float[ab.length];
-        for(int i=0; i<ab.length; i++)
-            a[i] = ab[i];
+        float a[] = new float[lb.size()];
+        int i = 0;
+        for(Float v : lb)
+            a[i++] = v;
         fromArray(a);
     }
 
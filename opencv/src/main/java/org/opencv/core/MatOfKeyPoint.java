@@ -74,6 +74,38 @@ public class MatOfKeyPoint extends Mat {
         return a;
     }
 
+    /**
+     * Copies the values into existing objects instead of allocating new ones. Null entries of
+     * the array are filled with new objects, so a reused array only allocates on first use.
+     * @param a array to fill, it must hold at least total() entries
+     * @return number of entries written
+     */
+    public int toArray(KeyPoint[] a) {
+        int num = (int) total();
+        if(a == null || a.length < num)
+            throw new IllegalArgumentException("Array holds " + (a == null ? 0 : a.length) + " entries, " + num + " needed");
+        if(num == 0)
+            return 0;
+        float buff[] = new float[num * _channels];
+        get(0, 0, buff); //TODO: check ret val!
+        for(int i=0; i<num; i++) {
+            KeyPoint e = a[i];
+            if(e == null)
+                a[i] = e = new KeyPoint();
+            int o = i * _channels;
+            if(e.pt == null)
+                e.pt = new Point();
+            e.pt.x = buff[o];
+            e.pt.y = buff[o+1];
+            e.size = buff[o+2];
+            e.angle = buff[o+3];
+            e.response = buff[o+4];
+            e.octave = (int) buff[o+5];
+            e.class_id = (int) buff[o+6];
+        }
+        return num;
+    }
+
     public void fromList(List<KeyPoint> lkp) {
         KeyPoint akp[] = lkp.toArray(new KeyPoint[0]);
         fromArray(akp);
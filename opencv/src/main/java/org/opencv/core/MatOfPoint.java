@@ -66,6 +66,31 @@ public class MatOfPoint extends Mat {
         return ap;
     }
 
+    /**
+     * Copies the values into existing objects instead of allocating new ones. Null entries of
+     * the array are filled with new objects, so a reused array only allocates on first use.
+     * @param a array to fill, it must hold at least total() entries
+     * @return number of entries written
+     */
+    public int toArray(Point[] a) {
+        int num = (int) total();
+        if(a == null || a.length < num)
+            throw new IllegalArgumentException("Array holds " + (a == null ? 0 : a.length) + " entries, " + num + " needed");
+        if(num == 0)
+            return 0;
+        int buff[] = new int[num * _channels];
+        get(0, 0, buff); //TODO: check ret val!
+        for(int i=0; i<num; i++) {
+            Point e = a[i];
+            if(e == null)
+                a[i] = e = new Point();
+            int o = i * _channels;
+            e.x = buff[o];
+            e.y = buff[o+1];
+        }
+        return num;
+    }
+
     public void fromList(List<Point> lp) {
         Point ap[] = lp.toArray(new Point[0]);
         fromArray(ap);
@@ -0,0 +1,110 @@
+package org.opencv.core;
+
+import java.util.ArrayList;
+
+/**
+ * Arena that closes every Mat created inside it when the scope is closed.
+ * <p>
+ * Scopes belong to the thread that opened them and nest: a Mat is owned by the innermost open
+ * scope of the thread that created it, whether it was made with a constructor, returned by a
+ * wrapper such as {@code submat()} or {@code Imgcodecs.imencode()}, or built by Converters.
+ * <pre>
+ * try (MatScope scope = MatScope.open()) {
+ *     Mat gray = new Mat();
+ *     Imgproc.cvtColor(frame, gray, Imgproc.COLOR_BGR2GRAY);
+ *     result = scope.keep(gray.submat(roi).clone());
+ * }   // gray and the submat header are freed here, result is handed to the enclosing scope
+ * </pre>
+ */
+public final class MatScope implements AutoCloseable {
+
+    private static final ThreadLocal<MatScope> current = new ThreadLocal<MatScope>();
+
+    private final MatScope parent;
+    private final Thread owner;
+    private final ArrayList<Mat> mats = new ArrayList<Mat>();
+    private boolean closed;
+
+    private MatScope(MatScope parent) {
+        this.parent = parent;
+        owner = Thread.currentThread();
+    }
+
+    /**
+     * Opens a new scope on the calling thread, nested in the scope that is currently open.
+     * @return the new scope, close it on the same thread
+     */
+    public static MatScope open() {
+        MatScope scope = new MatScope(current.get());
+        current.set(scope);
+        return scope;
+    }
+
+    /**
+     * @return innermost open scope of the calling thread or null if there is none
+     */
+    public static MatScope current() {
+        return current.get();
+    }
+
+    /**
+     * Takes a Mat out of this scope so it survives it. The Mat moves to the enclosing scope,
+     * or becomes unscoped if this is the outermost scope.
+     * @param m Mat created inside this scope
+     * @return m
+     */
+    public <T extends Mat> T keep(T m) {
+        checkOwner();
+        for (int i = mats.size() - 1; i >= 0; i--) {
+            if (mats.get(i) == m) {
+                mats.remove(i);
+                if (parent != null)
+                    parent.mats.add(m);
+                break;
+            }
+        }
+        return m;
+    }
+
+    /**
+     * @return number of Mats this scope will close
+     */
+    public int size() {
+        return mats.size();
+    }
+
+    /**
+     * Closes every Mat owned by this scope and makes the enclosing scope current again.
+     * Scopes must be closed on the thread that opened them, innermost first.
+     */
+    @Override
+    public void close() {
+        if (closed)
+            return;
+        checkOwner();
+        if (current.get() != this)
+            throw new java.lang.IllegalStateException("A nested MatScope is still open");
+        closed = true;
+        for (int i = mats.size() - 1; i >= 0; i--)
+            mats.get(i).close();
+        mats.clear();
+        if (parent != null)
+            current.set(parent);
+        else
+            current.remove();
+    }
+
+    // called by every Mat constructor
+    static void track(Mat m) {
+        MatScope scope = current.get();
+        if (scope != null)
+            scope.mats.add(m);
+    }
+
+    private void checkOwner() {
+        if (closed)
+            throw new java.lang.IllegalStateException("MatScope has been closed");
+        if (Thread.currentThread() != owner)
+            throw new java.lang.IllegalStateException("MatScope belongs to thread " + owner.getName());
+    }
+}
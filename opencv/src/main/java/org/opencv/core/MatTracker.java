@@ -0,0 +1,261 @@
+package org.opencv.core;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Optional accounting of the native memory held by Mats.
+ * <p>
+ * While tracking is enabled every new Mat remembers its allocation site, the first stack frame
+ * outside of the org.opencv packages. A {@link #snapshot()} measures every live Mat as
+ * {@code total() * elemSize()} and groups the result by site. Mats that are released explicitly and
+ * Mats whose data is only freed by the garbage collector are counted per site as well.
+ * <br>Mats created while tracking was disabled are reported under {@link #UNTRACKED}.
+ * <br>Peak usage is the largest total seen by a snapshot, so start {@link #startSampling(long)} to
+ * follow it between explicit snapshots.
+ * <br>Capturing the allocation site costs a stack walk per Mat, so leave tracking off in production.
+ */
+public final class MatTracker {
+
+    /** Site name of Mats created while tracking was disabled. */
+    public static final String UNTRACKED = "<untracked>";
+
+    static volatile boolean enabled;
+
+    private static final ConcurrentHashMap<String, SiteCounters> counters = new ConcurrentHashMap<String, SiteCounters>();
+    private static final AtomicLong peakCount = new AtomicLong();
+    private static final AtomicLong peakBytes = new AtomicLong();
+    private static Timer sampler;
+
+    private MatTracker() {
+    }
+
+    /**
+     * Live and freed Mats of one allocation site.
+     */
+    public static final class Site {
+        public final String site;
+        public final long liveCount;
+        public final long liveBytes;
+        public final long releasedCount;    // Mats released or closed while holding data
+        public final long releasedBytes;
+        public final long leakedCount;      // Mats whose data was freed by the garbage collector
+        public final long leakedBytes;
+
+        Site(String site, long[] live, SiteCounters freed) {
+            this.site = site;
+            liveCount = (live != null) ? live[0] : 0;
+            liveBytes = (live != null) ? live[1] : 0;
+            releasedCount = (freed != null) ? freed.releasedCount.get() : 0;
+            releasedBytes = (freed != null) ? freed.releasedBytes.get() : 0;
+            leakedCount = (freed != null) ? freed.leakedCount.get() : 0;
+            leakedBytes = (freed != null) ? freed.leakedBytes.get() : 0;
+        }
+
+        @Override
+        public String toString() {
+            return site + ": live " + liveCount + " (" + liveBytes + " bytes), released " + releasedCount +
+                    " (" + releasedBytes + " bytes), leaked " + leakedCount + " (" + leakedBytes + " bytes)";
+        }
+    }
+
+    /**
+     * Native memory held by Mats at the time of a snapshot.
+     */
+    public static final class Report {
+        public final long liveCount;
+        public final long liveBytes;
+        public final long peakCount;
+        public final long peakBytes;
+        public final long leakedCount;      // all Mats freed by the garbage collector, tracked or not
+        public final List<Site> sites;      // sorted by live bytes, largest first
+
+        Report(long[] live, long leaked, List<Site> sites) {
+            liveCount = live[0];
+            liveBytes = live[1];
+            peakCount = MatTracker.peakCount.get();
+            peakBytes = MatTracker.peakBytes.get();
+            leakedCount = leaked;
+            this.sites = Collections.unmodifiableList(sites);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("Mats live: ").append(liveCount).append(" (").append(liveBytes).append(" bytes)\n");
+            sb.append("Mats peak: ").append(peakCount).append(" (").append(peakBytes).append(" bytes)\n");
+            sb.append("Mats leaked: ").append(leakedCount).append('\n');
+            for (Site s : sites)
+                sb.append("  ").append(s).append('\n');
+            return sb.toString();
+        }
+    }
+
+    // freed Mats of one site, updated from any thread
+    static final class SiteCounters {
+        final AtomicLong releasedCount = new AtomicLong();
+        final AtomicLong releasedBytes = new AtomicLong();
+        final AtomicLong leakedCount = new AtomicLong();
+        final AtomicLong leakedBytes = new AtomicLong();
+    }
+
+    /**
+     * Turns tracking on or off. Mats created before tracking was enabled are measured but have no site.
+     * @param on true to record allocation sites and freed Mats
+     */
+    public static void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    /**
+     * @return true if tracking is enabled
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Forgets the freed counters and the peak. Live Mats are always measured on demand.
+     */
+    public static void reset() {
+        counters.clear();
+        peakCount.set(0);
+        peakBytes.set(0);
+    }
+
+    /**
+     * Measures all live Mats and updates the peak.
+     * @return current usage per allocation site
+     */
+    public static Report snapshot() {
+        Map<String, long[]> live = new HashMap<String, long[]>();
+        long[] total = MatCleaner.measure(live);
+        updatePeak(peakCount, total[0]);
+        updatePeak(peakBytes, total[1]);
+
+        Map<String, long[]> byName = new HashMap<String, long[]>();
+        for (Map.Entry<String, long[]> e : live.entrySet()) {
+            String name = (e.getKey() != null) ? e.getKey() : UNTRACKED;
+            long[] sum = byName.get(name);
+            if (sum == null)
+                byName.put(name, e.getValue());
+            else {
+                sum[0] += e.getValue()[0];
+                sum[1] += e.getValue()[1];
+            }
+        }
+        ArrayList<Site> sites = new ArrayList<Site>();
+        for (Map.Entry<String, long[]> e : byName.entrySet())
+            sites.add(new Site(e.getKey(), e.getValue(), counters.get(e.getKey())));
+        for (Map.Entry<String, SiteCounters> e : counters.entrySet()) {
+            if (!byName.containsKey(e.getKey()))
+                sites.add(new Site(e.getKey(), null, e.getValue()));
+        }
+        Collections.sort(sites, new Comparator<Site>() {
+            @Override
+            public int compare(Site a, Site b) {
+                return (a.liveBytes < b.liveBytes) ? 1 : (a.liveBytes > b.liveBytes) ? -1 : a.site.compareTo(b.site);
+            }
+        });
+        return new Report(total, MatCleaner.leakCount(), sites);
+    }
+
+    /**
+     * Writes a snapshot to a text file.
+     * @param file file to create or overwrite
+     * @throws IOException if the file cannot be written
+     */
+    public static void dump(File file) throws IOException {
+        Report report = snapshot();
+        PrintWriter out = new PrintWriter(new FileWriter(file));
+        try {
+            out.print(report);
+            if (out.checkError())
+                throw new IOException("Cannot write " + file);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Takes a snapshot every period so the peak follows usage between explicit snapshots.
+     * @param periodMs time between two snapshots in milliseconds
+     */
+    public static synchronized void startSampling(long periodMs) {
+        stopSampling();
+        sampler = new Timer("MatTracker", true);
+        sampler.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                snapshot();
+            }
+        }, periodMs, periodMs);
+    }
+
+    /**
+     * Stops the sampling started by {@link #startSampling(long)}.
+     */
+    public static synchronized void stopSampling() {
+        if (sampler != null) {
+            sampler.cancel();
+            sampler = null;
+        }
+    }
+
+    // called by Mat.release() while tracking is enabled
+    static void released(String site, long bytes) {
+        if (bytes <= 0)
+            return;
+        SiteCounters c = countersOf(site);
+        c.releasedCount.incrementAndGet();
+        c.releasedBytes.addAndGet(bytes);
+    }
+
+    // called by MatCleaner for a Mat that still held data when it was collected
+    static void leaked(String site, long bytes) {
+        SiteCounters c = countersOf(site);
+        c.leakedCount.incrementAndGet();
+        c.leakedBytes.addAndGet(bytes);
+    }
+
+    // first stack frame outside of OpenCV, called by MatCleaner while tracking is enabled
+    static String callerSite() {
+        StackTraceElement[] stack = new Throwable().getStackTrace();
+        for (StackTraceElement e : stack) {
+            if (!e.getClassName().startsWith("org.opencv."))
+                return e.getClassName() + "." + e.getMethodName() + ":" + e.getLineNumber();
+        }
+        return UNTRACKED;
+    }
+
+    private static SiteCounters countersOf(String site) {
+        String name = (site != null) ? site : UNTRACKED;
+        SiteCounters c = counters.get(name);
+        if (c == null) {
+            SiteCounters created = new SiteCounters();
+            c = counters.putIfAbsent(name, created);
+            if (c == null)
+                c = created;
+        }
+        return c;
+    }
+
+    private static void updatePeak(AtomicLong peak, long value) {
+        long old;
+        while (value > (old = peak.get()) && !peak.compareAndSet(old, value)) {
+            // another sampler raised the peak, try again
+        }
+    }
+}
@@ -0,0 +1,341 @@
+package org.opencv.imgcodecs;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfInt;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads, processes and writes many images on a pool of worker threads.
+ * <p>
+ * Every {@link Item} is handled as imread, then the optional {@link Processor}, then imwrite,
+ * and the result is handed to a {@link Callback}. Callbacks are never called concurrently and
+ * are delivered either in input order or as soon as each item is done.
+ * <br>Decoded images are counted against a memory budget. A worker that would exceed it waits
+ * until earlier images have been delivered and freed, except for the next image due in input
+ * order, which is always let through so ordered delivery cannot stall. The budget therefore
+ * bounds the images waiting for delivery; images being decoded add at most one per worker.
+ * <pre>
+ * ImageBatch batch = new ImageBatch(4, 64 * 1024 * 1024);
+ * batch.setWriteParams(new MatOfInt(Imgcodecs.IMWRITE_JPEG_QUALITY, 80));
+ * int failed = batch.run(items, callback);
+ * batch.close();
+ * </pre>
+ */
+public class ImageBatch implements AutoCloseable {
+
+    /**
+     * One image of a batch. An item reads a file, writes a file, or both.
+     */
+    public static class Item {
+        public final String input;      // file to read, or null to use image
+        public final String output;     // file to write, or null to only read
+        public final Mat image;         // image to write when there is no input file
+
+        /**
+         * Reads a file and optionally writes the (processed) image to another one.
+         * @param input file to read
+         * @param output file to write or null
+         */
+        public Item(String input, String output) {
+            this(input, output, null);
+        }
+
+        /**
+         * Writes an image the caller already has. The batch does not release it.
+         * @param image image to write
+         * @param output file to write
+         */
+        public Item(Mat image, String output) {
+            this(null, output, image);
+        }
+
+        private Item(String input, String output, Mat image) {
+            if (input == null && image == null)
+                throw new java.lang.IllegalArgumentException("Item needs an input file or an image");
+            this.input = input;
+            this.output = output;
+            this.image = image;
+        }
+
+        @Override
+        public String toString() {
+            return "Item [ " + ((input != null) ? input : "image") + " -> " + output + " ]";
+        }
+    }
+
+    /**
+     * Changes an image between decoding and encoding. Called on a worker thread.
+     */
+    public interface Processor {
+        /**
+         * @param index position of the item in the batch
+         * @param image decoded image, change it in place or replace its content
+         * @throws Exception to mark the item as failed
+         */
+        void process(int index, Mat image) throws Exception;
+    }
+
+    /**
+     * Receives the result of every item. Calls are serialized, so an implementation does not
+     * need to synchronize with itself.
+     */
+    public interface Callback {
+        /**
+         * @param index position of the item in the batch
+         * @param item the item
+         * @param image the decoded and processed image, only valid during this call, or null
+         *              if the item failed
+         * @param error why the item failed, or null if it succeeded
+         */
+        void onItemDone(int index, Item item, Mat image, Exception error);
+    }
+
+    private final ExecutorService pool;
+    private final long maxBytes;
+    private int readFlags = Imgcodecs.IMREAD_COLOR;
+    private MatOfInt writeParams;
+    private Processor processor;
+    private boolean ordered = true;
+
+    // state of the running batch, guarded by lock
+    private final Object lock = new Object();
+    private long usedBytes;
+    private int nextDelivery;
+    private int failed;
+    private int remaining;
+    private final Map<Integer, Result> pending = new HashMap<Integer, Result>();
+    private boolean delivering;
+
+    // one item queued on the pool
+    private class Task implements Runnable {
+        final int index;
+        final Item item;
+        final Callback callback;
+
+        Task(int index, Item item, Callback callback) {
+            this.index = index;
+            this.item = item;
+            this.callback = callback;
+        }
+
+        @Override
+        public void run() {
+            process(index, item, callback);
+        }
+
+        // counts an item that was never run as failed
+        void abandon(Exception why) {
+            finish(index, new Result(item, null, 0, why), callback);
+        }
+    }
+
+    // finished item waiting for its callback
+    private static class Result {
+        final Item item;
+        final Mat image;
+        final long bytes;
+        final Exception error;
+
+        Result(Item item, Mat image, long bytes, Exception error) {
+            this.item = item;
+            this.image = image;
+            this.bytes = bytes;
+            this.error = error;
+        }
+    }
+
+    /**
+     * @param workers number of threads decoding and encoding images
+     * @param maxInFlightBytes budget for decoded images, see the class description
+     */
+    public ImageBatch(int workers, long maxInFlightBytes) {
+        if (workers < 1)
+            throw new java.lang.IllegalArgumentException("workers < 1");
+        maxBytes = maxInFlightBytes;
+        pool = Executors.newFixedThreadPool(workers, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "ImageBatch-" + count.getAndIncrement());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * @param flags flags for imread, Imgcodecs.IMREAD_COLOR by default
+     */
+    public void setReadFlags(int flags) {
+        readFlags = flags;
+    }
+
+    /**
+     * @param params parameters for imwrite or null for the defaults
+     */
+    public void setWriteParams(MatOfInt params) {
+        writeParams = params;
+    }
+
+    /**
+     * @param p called for every image between decoding and encoding, or null
+     */
+    public void setProcessor(Processor p) {
+        processor = p;
+    }
+
+    /**
+     * @param inOrder true to deliver callbacks in input order (the default), false to deliver
+     *                them as soon as each item is done
+     */
+    public void setOrdered(boolean inOrder) {
+        ordered = inOrder;
+    }
+
+    /**
+     * Runs all items and waits until every callback has been delivered. Only one batch can run
+     * at a time on an ImageBatch. Items that cannot run because the ImageBatch was closed are
+     * delivered as failed.
+     * @param items images to read and/or write
+     * @param callback receives the result of every item, or null
+     * @return number of failed items
+     * @throws InterruptedException if the calling thread is interrupted while waiting
+     */
+    public int run(final List<Item> items, final Callback callback) throws InterruptedException {
+        synchronized (lock) {
+            if (remaining > 0)
+                throw new java.lang.IllegalStateException("A batch is already running");
+            usedBytes = 0;
+            nextDelivery = 0;
+            failed = 0;
+            remaining = items.size();
+            pending.clear();
+        }
+        for (int i = 0; i < items.size(); i++) {
+            Task task = new Task(i, items.get(i), callback);
+            try {
+                pool.execute(task);
+            } catch (RejectedExecutionException e) {
+                task.abandon(new CancellationException("ImageBatch is closed"));
+            }
+        }
+        synchronized (lock) {
+            while (remaining > 0)
+                lock.wait();
+            return failed;
+        }
+    }
+
+    /**
+     * Stops the worker threads. Call it when the ImageBatch is no longer needed. Items of a
+     * running batch that have not started are delivered as failed, so run() returns.
+     */
+    @Override
+    public void close() {
+        for (Runnable r : pool.shutdownNow())
+            ((Task) r).abandon(new CancellationException("ImageBatch was closed"));
+    }
+
+    // runs on a worker thread
+    private void process(int index, Item item, Callback callback) {
+        Mat image = null;
+        long bytes = 0;             // budget held by this item, released after its callback
+        Exception error = null;
+        try {
+            if (item.input != null) {
+                image = Imgcodecs.imread(item.input, readFlags);
+                if (image.empty())
+                    throw new java.io.IOException("Cannot read " + item.input);
+                long size = image.total() * image.elemSize();
+                reserve(index, size);
+                bytes = size;
+            } else {
+                image = item.image;
+            }
+            if (processor != null)
+                processor.process(index, image);
+            if (item.output != null) {
+                boolean written = (writeParams != null) ? Imgcodecs.imwrite(item.output, image, writeParams)
+                        : Imgcodecs.imwrite(item.output, image);
+                if (!written)
+                    throw new java.io.IOException("Cannot write " + item.output);
+            }
+        } catch (Exception e) {
+            error = e;
+        } catch (Throwable t) {
+            // an Error such as running out of memory must not leave the batch waiting forever
+            error = new ExecutionException(t);
+        }
+        finish(index, new Result(item, (error == null) ? image : null, bytes, error), callback);
+        if (error != null && image != null && item.input != null)
+            image.release();
+    }
+
+    // waits until the decoded image fits into the budget
+    private void reserve(int index, long bytes) throws InterruptedException {
+        synchronized (lock) {
+            while (usedBytes > 0 && usedBytes + bytes > maxBytes && !(ordered && index == nextDelivery))
+                lock.wait();
+            usedBytes += bytes;
+        }
+    }
+
+    // queues a finished item and delivers every result that is due, one thread at a time
+    private void finish(int index, Result result, Callback callback) {
+        synchronized (lock) {
+            pending.put(index, result);
+            if (delivering)
+                return;
+            delivering = true;
+        }
+        while (true) {
+            Result next;
+            int nextIndex;
+            synchronized (lock) {
+                if (ordered) {
+                    nextIndex = nextDelivery;
+                    next = pending.remove(nextIndex);
+                } else if (!pending.isEmpty()) {
+                    nextIndex = pending.keySet().iterator().next();
+                    next = pending.remove(nextIndex);
+                } else {
+                    nextIndex = -1;
+                    next = null;
+                }
+                if (next == null) {
+                    delivering = false;
+                    return;
+                }
+            }
+            try {
+                if (callback != null)
+                    callback.onItemDone(nextIndex, next.item, next.image, next.error);
+            } catch (Throwable t) {
+                // a broken callback must not stall the rest of the batch
+            } finally {
+                if (next.image != null && next.item.input != null)
+                    next.image.release();
+                synchronized (lock) {
+                    usedBytes -= next.bytes;
+                    if (next.error != null)
+                        failed++;
+                    if (ordered)
+                        nextDelivery++;
+                    remaining--;
+                    lock.notifyAll();
+                }
+            }
+        }
+    }
+}
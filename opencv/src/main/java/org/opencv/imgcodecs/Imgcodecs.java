@@ -5,6 +5,8 @@
 package org.opencv.imgcodecs;
 
 import java.lang.String;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import org.opencv.core.Mat;
@@ -81,6 +83,68 @@ public class Imgcodecs {
         return retVal;
     }
 
+    /**
+     * Same as {@link #imdecode(Mat, int)} but decodes into an existing Mat, which keeps its
+     * buffer when the decoded image has the same size and type.
+     * @param buf encoded image
+     * @param flags same flags as imread
+     * @param dst receives the image, empty if the buffer could not be decoded
+     * @return dst
+     */
+    public static Mat imdecode(Mat buf, int flags, Mat dst)
+    {
+        n_imdecodeInto(buf.nativeObj, flags, dst.nativeObj);
+        return dst;
+    }
+
+    /**
+     * Decodes an image from the bytes between the position and the limit of a ByteBuffer.
+     * <p>
+     * Direct buffers, including MappedByteBuffers of a pack file, are read in place without
+     * copying them into a MatOfByte first. Array backed buffers are copied once into native memory,
+     * see {@link #imdecode(byte[], int, int, int, Mat)}. The position is moved to the limit.
+     * @param buf encoded image
+     * @param flags same flags as imread
+     * @param dst receives the image, empty if the bytes could not be decoded
+     * @return dst
+     */
+    public static Mat imdecode(ByteBuffer buf, int flags, Mat dst)
+    {
+        int pos = buf.position();
+        if (buf.isDirect())
+            n_imdecodeBuffer(buf, pos, buf.remaining(), flags, dst.nativeObj);
+        else if (buf.hasArray())
+            n_imdecodeArray(buf.array(), buf.arrayOffset() + pos, buf.remaining(), flags, dst.nativeObj);
+        else
+            throw new java.lang.IllegalArgumentException("Buffer is neither direct nor array backed");
+        buf.position(buf.limit());
+        return dst;
+    }
+
+    //javadoc: imdecode(buf, flags)
+    public static Mat imdecode(ByteBuffer buf, int flags)
+    {
+        return imdecode(buf, flags, new Mat());
+    }
+
+    /**
+     * Decodes an image from part of a byte array. The bytes are copied once into native memory
+     * rather than pinning the array for the whole decode; use a direct ByteBuffer to avoid the copy.
+     * @param buf array holding the encoded image
+     * @param offset index of the first encoded byte
+     * @param length number of encoded bytes
+     * @param flags same flags as imread
+     * @param dst receives the image, empty if the bytes could not be decoded
+     * @return dst
+     */
+    public static Mat imdecode(byte[] buf, int offset, int length, int flags, Mat dst)
+    {
+        if (offset < 0 || length < 0 || offset + length > buf.length)
+            throw new java.lang.IndexOutOfBoundsException("offset " + offset + ", length " + length + ", size " + buf.length);
+        n_imdecodeArray(buf, offset, length, flags, dst.nativeObj);
+        return dst;
+    }
+
 
     //
     // C++:  Mat imread(String filename, int flags = IMREAD_COLOR)
@@ -128,6 +192,43 @@ public class Imgcodecs {
         return retVal;
     }
 
+    /**
+     * Encodes an image into a ByteBuffer, starting at its position.
+     * <p>
+     * On success the position is moved past the encoded bytes. If the buffer does not have enough
+     * room left a BufferOverflowException is thrown and the buffer is not changed, and if the
+     * image cannot be encoded a CvException is thrown.
+     * Direct buffers, including writable MappedByteBuffers, and array backed buffers are written
+     * without an intermediate Java array.
+     * @param ext file extension that selects the format, e.g. ".jpg"
+     * @param img image to encode
+     * @param buf receives the encoded image
+     * @param params encoder parameters or null
+     * @return number of bytes written
+     */
+    public static int imencode(String ext, Mat img, ByteBuffer buf, MatOfInt params)
+    {
+        if (buf.isReadOnly())
+            throw new java.nio.ReadOnlyBufferException();
+        long params_addr = (params != null) ? params.nativeObj : 0;
+        int pos = buf.position();
+        int written;
+        if (buf.isDirect())
+            written = n_imencodeBuffer(ext, img.nativeObj, buf, pos, buf.remaining(), params_addr);
+        else
+            written = n_imencodeArray(ext, img.nativeObj, buf.array(), buf.arrayOffset() + pos, buf.remaining(), params_addr);
+        if (written < 0)
+            throw new BufferOverflowException();
+        buf.position(pos + written);
+        return written;
+    }
+
+    //javadoc: imencode(ext, img, buf)
+    public static int imencode(String ext, Mat img, ByteBuffer buf)
+    {
+        return imencode(ext, img, buf, null);
+    }
+
 
     //
     // C++:  bool imreadmulti(String filename, vector_Mat mats, int flags = IMREAD_ANYCOLOR)
@@ -196,4 +297,13 @@ public class Imgcodecs {
     private static native boolean imwrite_0(String filename, long img_nativeObj, long params_mat_nativeObj);
     private static native boolean imwrite_1(String filename, long img_nativeObj);
 
+    // out-parameter variant, implemented in CVnative
+    private static native void n_imdecodeInto(long buf_nativeObj, int flags, long dst_nativeObj);
+
+    // ByteBuffer and array variants, implemented in CVnative
+    private static native void n_imdecodeBuffer(ByteBuffer buf, int offset, int length, int flags, long dst_nativeObj);
+    private static native void n_imdecodeArray(byte[] buf, int offset, int length, int flags, long dst_nativeObj);
+    private static native int n_imencodeBuffer(String ext, long img_nativeObj, ByteBuffer buf, int offset, int capacity, long params_mat_nativeObj);
+    private static native int n_imencodeArray(String ext, long img_nativeObj, byte[] buf, int offset, int capacity, long params_mat_nativeObj);
+
 }
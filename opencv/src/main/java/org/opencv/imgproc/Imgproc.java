@@ -540,6 +540,18 @@ public class Imgproc {
         return retVal;
     }
 
+    /**
+     * Same as {@link #getRotationMatrix2D(Point, double, double)} but writes the 2x3 matrix into
+     * an existing Mat, which keeps its buffer if it already is a 2x3 CV_64F Mat.
+     * @param out receives the rotation matrix
+     * @return out
+     */
+    public static Mat getRotationMatrix2D(Point center, double angle, double scale, Mat out)
+    {
+        n_getRotationMatrix2DInto(center.x, center.y, angle, scale, out.nativeObj);
+        return out;
+    }
+
 
     //
     // C++:  Mat getStructuringElement(int shape, Size ksize, Point anchor = Point(-1,-1))
@@ -669,6 +681,18 @@ public class Imgproc {
         return retVal;
     }
 
+    /**
+     * Same as {@link #boundingRect(MatOfPoint)} but fills an existing Rect.
+     * @param points input 2D point set
+     * @param out receives the bounding rectangle
+     * @return out
+     */
+    public static Rect boundingRect(MatOfPoint points, Rect out)
+    {
+        n_boundingRectInto(points.nativeObj, out);
+        return out;
+    }
+
 
     //
     // C++:  RotatedRect fitEllipse(vector_Point2f points)
@@ -3416,4 +3440,8 @@ public class Imgproc {
     private static native void watershed_0(long image_nativeObj, long markers_nativeObj);
     private static native double[] n_getTextSize(String text, int fontFace, double fontScale, int thickness, int[] baseLine);
 
+    // out-parameter variants, implemented in CVnative
+    private static native void n_getRotationMatrix2DInto(double center_x, double center_y, double angle, double scale, long out_nativeObj);
+    private static native void n_boundingRectInto(long points_mat_nativeObj, Rect out);
+
 }
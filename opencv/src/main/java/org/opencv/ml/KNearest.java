@@ -32,6 +32,17 @@ public class KNearest extends StatModel {
     }
 
 
+    /**
+     * Loads a model saved with save(), as SVM.load() and ANN_MLP.load() do.
+     * @param filepath XML or YAML file written by save()
+     * @return the model
+     */
+    public static KNearest load(String filepath)
+    {
+        return new KNearest(n_load(filepath));
+    }
+
+
     //
     // C++:  bool getIsClassifier()
     //
@@ -205,6 +216,9 @@ public class KNearest extends StatModel {
     // C++:  void setIsClassifier(bool val)
     private static native void setIsClassifier_0(long nativeObj, boolean val);
 
+    // model loading, implemented in CVnative
+    private static native long n_load(String filepath);
+
     // native support for java finalize()
     private static native void delete(long nativeObj);
 
@@ -42,6 +42,29 @@ public class RTrees extends DTrees {
     }
 
 
+    /**
+     * Loads a model saved with save(), as SVM.load() and ANN_MLP.load() do.
+     * @param filepath XML or YAML file written by save()
+     * @return the model
+     */
+    public static RTrees load(String filepath)
+    {
+        return new RTrees(n_load(filepath));
+    }
+
+
+    /**
+     * Gets the number of trees in the forest, which the generated wrapper does not expose.
+     * Dividing a prediction made with DTrees.PREDICT_SUM by it gives the mean over all trees,
+     * for a classifier with the labels 0 and 1 the fraction of trees that voted for 1.
+     * @return number of trees, 0 if the model is not trained
+     */
+    public int getTreeCount()
+    {
+        return n_getTreeCount(nativeObj);
+    }
+
+
     //
     // C++:  TermCriteria getTermCriteria()
     //
@@ -157,6 +180,12 @@ public class RTrees extends DTrees {
     // C++:  void setTermCriteria(TermCriteria val)
     private static native void setTermCriteria_0(long nativeObj, int val_type, int val_maxCount, double val_epsilon);
 
+    // model loading, implemented in CVnative
+    private static native long n_load(String filepath);
+
+    // size of the forest, implemented in CVnative
+    private static native int n_getTreeCount(long nativeObj);
+
     // native support for java finalize()
     private static native void delete(long nativeObj);
 
@@ -1,10 +1,15 @@
 package org.opencv.utils;
 
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
 import org.opencv.core.CvType;
 import org.opencv.core.Mat;
+import org.opencv.core.MatBuffer;
 import org.opencv.core.MatOfByte;
 import org.opencv.core.MatOfDMatch;
 import org.opencv.core.MatOfKeyPoint;
@@ -733,4 +738,273 @@ public class Converters {
         }
         mats.clear();
     }
+
+    // Primitive array and buffer overloads of the vector_<type> converters. They copy the values
+    // straight between the Java array or buffer and the Mat memory, with no boxing.
+
+    public static Mat vector_uchar_to_Mat(byte[] a) {
+        return vector_uchar_to_Mat(a, (a != null) ? a.length : 0);
+    }
+
+    public static Mat vector_uchar_to_Mat(byte[] a, int count) {
+        if (count <= 0)
+            return new Mat();
+        if (count > a.length)
+            throw new java.lang.IllegalArgumentException("count > a.length");
+        Mat res = new Mat(count, 1, CvType.CV_8UC1);
+        res.put(0, 0, a);
+        return res;
+    }
+
+    public static Mat vector_uchar_to_Mat(ByteBuffer b) {
+        int count = (b != null) ? b.remaining() : 0;
+        if (count == 0)
+            return new Mat();
+        Mat res = new Mat(count, 1, CvType.CV_8UC1);
+        MatBuffer.copyFrom(b, res);
+        return res;
+    }
+
+    public static int Mat_to_vector_uchar(Mat m, byte[] a) {
+        if (a == null)
+            throw new java.lang.IllegalArgumentException("Output array can't be null");
+        int count = checkVector(m, CvType.CV_8UC1);
+        if (a.length < count)
+            throw new java.lang.IllegalArgumentException("Output array holds " + a.length + " values, " + count + " needed");
+        if (count == 0)
+            return 0;
+        m.get(0, 0, a);
+        return count;
+    }
+
+    public static int Mat_to_vector_uchar(Mat m, ByteBuffer b) {
+        if (b == null)
+            throw new java.lang.IllegalArgumentException("Output buffer can't be null");
+        int count = checkVector(m, CvType.CV_8UC1);
+        if (count == 0)
+            return 0;
+        if (!m.isContinuous()) {
+            byte[] buff = new byte[count];
+            m.get(0, 0, buff);
+            b.put(buff);
+            return count;
+        }
+        MatBuffer.copyTo(m, b);
+        return count;
+    }
+
+    public static Mat vector_char_to_Mat(byte[] a) {
+        return vector_char_to_Mat(a, (a != null) ? a.length : 0);
+    }
+
+    public static Mat vector_char_to_Mat(byte[] a, int count) {
+        if (count <= 0)
+            return new Mat();
+        if (count > a.length)
+            throw new java.lang.IllegalArgumentException("count > a.length");
+        Mat res = new Mat(count, 1, CvType.CV_8SC1);
+        res.put(0, 0, a);
+        return res;
+    }
+
+    public static Mat vector_char_to_Mat(ByteBuffer b) {
+        int count = (b != null) ? b.remaining() : 0;
+        if (count == 0)
+            return new Mat();
+        Mat res = new Mat(count, 1, CvType.CV_8SC1);
+        MatBuffer.copyFrom(b, res);
+        return res;
+    }
+
+    public static int Mat_to_vector_char(Mat m, byte[] a) {
+        if (a == null)
+            throw new java.lang.IllegalArgumentException("Output array can't be null");
+        int count = checkVector(m, CvType.CV_8SC1);
+        if (a.length < count)
+            throw new java.lang.IllegalArgumentException("Output array holds " + a.length + " values, " + count + " needed");
+        if (count == 0)
+            return 0;
+        m.get(0, 0, a);
+        return count;
+    }
+
+    public static int Mat_to_vector_char(Mat m, ByteBuffer b) {
+        if (b == null)
+            throw new java.lang.IllegalArgumentException("Output buffer can't be null");
+        int count = checkVector(m, CvType.CV_8SC1);
+        if (count == 0)
+            return 0;
+        if (!m.isContinuous()) {
+            byte[] buff = new byte[count];
+            m.get(0, 0, buff);
+            b.put(buff);
+            return count;
+        }
+        MatBuffer.copyTo(m, b);
+        return count;
+    }
+
+    public static Mat vector_int_to_Mat(int[] a) {
+        return vector_int_to_Mat(a, (a != null) ? a.length : 0);
+    }
+
+    public static Mat vector_int_to_Mat(int[] a, int count) {
+        if (count <= 0)
+            return new Mat();
+        if (count > a.length)
+            throw new java.lang.IllegalArgumentException("count > a.length");
+        Mat res = new Mat(count, 1, CvType.CV_32SC1);
+        res.put(0, 0, a);
+        return res;
+    }
+
+    public static Mat vector_int_to_Mat(IntBuffer b) {
+        int count = (b != null) ? b.remaining() : 0;
+        if (count == 0)
+            return new Mat();
+        Mat res = new Mat(count, 1, CvType.CV_32SC1);
+        MatBuffer.copyFrom(b, res);
+        return res;
+    }
+
+    public static int Mat_to_vector_int(Mat m, int[] a) {
+        if (a == null)
+            throw new java.lang.IllegalArgumentException("Output array can't be null");
+        int count = checkVector(m, CvType.CV_32SC1);
+        if (a.length < count)
+            throw new java.lang.IllegalArgumentException("Output array holds " + a.length + " values, " + count + " needed");
+        if (count == 0)
+            return 0;
+        m.get(0, 0, a);
+        return count;
+    }
+
+    public static int Mat_to_vector_int(Mat m, IntBuffer b) {
+        if (b == null)
+            throw new java.lang.IllegalArgumentException("Output buffer can't be null");
+        int count = checkVector(m, CvType.CV_32SC1);
+        if (count == 0)
+            return 0;
+        if (!m.isContinuous()) {
+            int[] buff = new int[count];
+            m.get(0, 0, buff);
+            b.put(buff);
+            return count;
+        }
+        MatBuffer.copyTo(m, b);
+        return count;
+    }
+
+    public static Mat vector_float_to_Mat(float[] a) {
+        return vector_float_to_Mat(a, (a != null) ? a.length : 0);
+    }
+
+    public static Mat vector_float_to_Mat(float[] a, int count) {
+        if (count <= 0)
+            return new Mat();
+        if (count > a.length)
+            throw new java.lang.IllegalArgumentException("count > a.length");
+        Mat res = new Mat(count, 1, CvType.CV_32FC1);
+        res.put(0, 0, a);
+        return res;
+    }
+
+    public static Mat vector_float_to_Mat(FloatBuffer b) {
+        int count = (b != null) ? b.remaining() : 0;
+        if (count == 0)
+            return new Mat();
+        Mat res = new Mat(count, 1, CvType.CV_32FC1);
+        MatBuffer.copyFrom(b, res);
+        return res;
+    }
+
+    public static int Mat_to_vector_float(Mat m, float[] a) {
+        if (a == null)
+            throw new java.lang.IllegalArgumentException("Output array can't be null");
+        int count = checkVector(m, CvType.CV_32FC1);
+        if (a.length < count)
+            throw new java.lang.IllegalArgumentException("Output array holds " + a.length + " values, " + count + " needed");
+        if (count == 0)
+            return 0;
+        m.get(0, 0, a);
+        return count;
+    }
+
+    public static int Mat_to_vector_float(Mat m, FloatBuffer b) {
+        if (b == null)
+            throw new java.lang.IllegalArgumentException("Output buffer can't be null");
+        int count = checkVector(m, CvType.CV_32FC1);
+        if (count == 0)
+            return 0;
+        if (!m.isContinuous()) {
+            float[] buff = new float[count];
+            m.get(0, 0, buff);
+            b.put(buff);
+            return count;
+        }
+        MatBuffer.copyTo(m, b);
+        return count;
+    }
+
+    public static Mat vector_double_to_Mat(double[] a) {
+        return vector_double_to_Mat(a, (a != null) ? a.length : 0);
+    }
+
+    public static Mat vector_double_to_Mat(double[] a, int count) {
+        if (count <= 0)
+            return new Mat();
+        if (count > a.length)
+            throw new java.lang.IllegalArgumentException("count > a.length");
+        Mat res = new Mat(count, 1, CvType.CV_64FC1);
+        res.put(0, 0, a);
+        return res;
+    }
+
+    public static Mat vector_double_to_Mat(DoubleBuffer b) {
+        int count = (b != null) ? b.remaining() : 0;
+        if (count == 0)
+            return new Mat();
+        Mat res = new Mat(count, 1, CvType.CV_64FC1);
+        MatBuffer.copyFrom(b, res);
+        return res;
+    }
+
+    public static int Mat_to_vector_double(Mat m, double[] a) {
+        if (a == null)
+            throw new java.lang.IllegalArgumentException("Output array can't be null");
+        int count = checkVector(m, CvType.CV_64FC1);
+        if (a.length < count)
+            throw new java.lang.IllegalArgumentException("Output array holds " + a.length + " values, " + count + " needed");
+        if (count == 0)
+            return 0;
+        m.get(0, 0, a);
+        return count;
+    }
+
+    public static int Mat_to_vector_double(Mat m, DoubleBuffer b) {
+        if (b == null)
+            throw new java.lang.IllegalArgumentException("Output buffer can't be null");
+        int count = checkVector(m, CvType.CV_64FC1);
+        if (count == 0)
+            return 0;
+        if (!m.isContinuous()) {
+            double[] buff = new double[count];
+            m.get(0, 0, buff);
+            b.put(buff);
+            return count;
+        }
+        MatBuffer.copyTo(m, b);
+        return count;
+    }
+
+    private static int checkVector(Mat m, int type) {
+        if (m == null)
+            throw new java.lang.IllegalArgumentException("Input Mat can't be null");
+        if (m.empty())
+            return 0;
+        if (type != m.type() || m.cols() != 1)
+            throw new java.lang.IllegalArgumentException(
+                    CvType.typeToString(type) + " != m.type() ||  m.cols()!=1\n" + m);
+        return m.rows();
+    }
 }
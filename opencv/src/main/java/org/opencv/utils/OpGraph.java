@@ -0,0 +1,219 @@
+package org.opencv.utils;
+
+import android.graphics.Bitmap;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfInt;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+
+import java.util.Arrays;
+
+/**
+ * Chain of Mat operations that runs in a single native call.
+ * <p>
+ * Each generated wrapper in Imgproc, Core and Imgcodecs crosses JNI once and may create Java
+ * objects for its results. An OpGraph records the chain once and then runs it per frame with one
+ * JNI call, passing the input and output Mats only. The intermediate Mats are kept in native code
+ * and reused, so after the first frame a chain of the same frame size allocates nothing.
+ * <pre>
+ * OpGraph thumb = new OpGraph()
+ *         .cvtColor(Imgproc.COLOR_RGBA2BGR)
+ *         .resize(new Size(160, 90), Imgproc.INTER_AREA)
+ *         .imencode(".jpg", new MatOfInt(Imgcodecs.IMWRITE_JPEG_QUALITY, 80));
+ * thumb.run(bitmap, jpeg);    // jpeg is a MatOfByte holding the encoded thumbnail
+ * </pre>
+ * An OpGraph is not thread safe, use one per worker thread.
+ */
+public class OpGraph implements AutoCloseable {
+
+    // operation codes, must match OpGraph.cpp
+    private static final int OP_CVT_COLOR = 1;
+    private static final int OP_RESIZE = 2;
+    private static final int OP_CONVERT_TO = 3;
+    private static final int OP_GAUSSIAN_BLUR = 4;
+    private static final int OP_FLIP = 5;
+    private static final int OP_ROI = 6;
+    private static final int OP_IMENCODE = 7;
+
+    // number of arguments stored for every operation, must match OpGraph.cpp
+    private static final int ARGS_PER_OP = 5;
+
+    private int[] ops = new int[8];
+    private double[] args = new double[8 * ARGS_PER_OP];
+    private int count;
+    private String ext;
+    private int[] encodeParams;
+    private long nativeObj;
+    private boolean dirty = true;
+
+    /**
+     * Converts the image from one color space to another, see Imgproc.cvtColor().
+     * @param code color conversion code, e.g. Imgproc.COLOR_RGBA2BGR
+     * @return this graph
+     */
+    public OpGraph cvtColor(int code) {
+        return add(OP_CVT_COLOR, code, 0, 0, 0, 0);
+    }
+
+    /**
+     * Resizes the image to a fixed size, see Imgproc.resize().
+     * @param dsize output size
+     * @param interpolation interpolation method, e.g. Imgproc.INTER_AREA
+     * @return this graph
+     */
+    public OpGraph resize(Size dsize, int interpolation) {
+        return add(OP_RESIZE, dsize.width, dsize.height, 0, 0, interpolation);
+    }
+
+    /**
+     * Resizes the image by a scale factor, see Imgproc.resize().
+     * @param fx horizontal scale factor
+     * @param fy vertical scale factor
+     * @param interpolation interpolation method, e.g. Imgproc.INTER_AREA
+     * @return this graph
+     */
+    public OpGraph resize(double fx, double fy, int interpolation) {
+        return add(OP_RESIZE, 0, 0, fx, fy, interpolation);
+    }
+
+    /**
+     * Converts the image to another depth with optional scaling, see Mat.convertTo().
+     * @param rtype output type or depth
+     * @param alpha scale factor
+     * @param beta delta added to the scaled values
+     * @return this graph
+     */
+    public OpGraph convertTo(int rtype, double alpha, double beta) {
+        return add(OP_CONVERT_TO, rtype, alpha, beta, 0, 0);
+    }
+
+    /**
+     * Blurs the image with a Gaussian filter, see Imgproc.GaussianBlur().
+     * @param ksize kernel size, both sides odd and positive or zero
+     * @param sigmaX standard deviation in X direction
+     * @param sigmaY standard deviation in Y direction, 0 to use sigmaX
+     * @return this graph
+     */
+    public OpGraph gaussianBlur(Size ksize, double sigmaX, double sigmaY) {
+        return add(OP_GAUSSIAN_BLUR, ksize.width, ksize.height, sigmaX, sigmaY, 0);
+    }
+
+    /**
+     * Flips the image, see Core.flip().
+     * @param flipCode 0 flips around the x axis, positive around the y axis, negative around both
+     * @return this graph
+     */
+    public OpGraph flip(int flipCode) {
+        return add(OP_FLIP, flipCode, 0, 0, 0, 0);
+    }
+
+    /**
+     * Continues with a region of the image. No pixels are copied.
+     * @param roi region of the current image
+     * @return this graph
+     */
+    public OpGraph submat(Rect roi) {
+        return add(OP_ROI, roi.x, roi.y, roi.width, roi.height, 0);
+    }
+
+    /**
+     * Encodes the image, see Imgcodecs.imencode(). Must be the last operation, the output Mat
+     * receives the encoded bytes as a CV_8UC1 column like a MatOfByte.
+     * @param ext file extension that selects the format, e.g. ".jpg"
+     * @param params encoder parameters or null
+     * @return this graph
+     */
+    public OpGraph imencode(String ext, MatOfInt params) {
+        if (ext == null)
+            throw new java.lang.IllegalArgumentException("ext == null");
+        add(OP_IMENCODE, 0, 0, 0, 0, 0);
+        this.ext = ext;
+        encodeParams = (params != null) ? params.toArray() : new int[0];
+        return this;
+    }
+
+    /**
+     * @return number of operations in this graph
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Runs the whole chain on a Mat.
+     * @param src input image
+     * @param dst receives the result, reallocated only if its size or type changes
+     */
+    public void run(Mat src, Mat dst) {
+        n_run(prepare(), src.nativeObj, dst.nativeObj);
+    }
+
+    /**
+     * Runs the whole chain on the pixels of a Bitmap without copying them into a Mat first.
+     * The chain sees the image as RGBA, like Utils.bitmapToMat().
+     * @param src ARGB_8888 or RGB_565 Bitmap
+     * @param dst receives the result, reallocated only if its size or type changes
+     */
+    public void run(Bitmap src, Mat dst) {
+        if (src == null)
+            throw new java.lang.IllegalArgumentException("src == null");
+        n_runBitmap(prepare(), src, dst.nativeObj);
+    }
+
+    /**
+     * Frees the native graph and its intermediate Mats.
+     */
+    @Override
+    public void close() {
+        if (nativeObj != 0) {
+            n_delete(nativeObj);
+            nativeObj = 0;
+        }
+        dirty = true;
+    }
+
+    @Override
+    protected void finalize() throws Throwable {
+        close();
+        super.finalize();
+    }
+
+    private OpGraph add(int op, double a0, double a1, double a2, double a3, double a4) {
+        if (count > 0 && ops[count - 1] == OP_IMENCODE)
+            throw new java.lang.IllegalStateException("imencode must be the last operation");
+        if (count == ops.length) {
+            ops = Arrays.copyOf(ops, count * 2);
+            args = Arrays.copyOf(args, count * 2 * ARGS_PER_OP);
+        }
+        int a = count * ARGS_PER_OP;
+        args[a] = a0;
+        args[a + 1] = a1;
+        args[a + 2] = a2;
+        args[a + 3] = a3;
+        args[a + 4] = a4;
+        ops[count++] = op;
+        dirty = true;
+        return this;
+    }
+
+    // creates the native graph again if operations were added since the last run
+    private long prepare() {
+        if (dirty) {
+            if (nativeObj != 0)
+                n_delete(nativeObj);
+            nativeObj = 0;
+            nativeObj = n_create(Arrays.copyOf(ops, count), Arrays.copyOf(args, count * ARGS_PER_OP), ext, encodeParams);
+            dirty = false;
+        }
+        return nativeObj;
+    }
+
+    private static native long n_create(int[] ops, double[] args, String ext, int[] encodeParams);
+
+    private static native void n_run(long self, long srcNativeObj, long dstNativeObj);
+
+    private static native void n_runBitmap(long self, Bitmap src, long dstNativeObj);
+
+    private static native void n_delete(long self);
+}
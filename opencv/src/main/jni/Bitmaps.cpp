@@ -0,0 +1,156 @@
+//
+// Native support for the layout aware Bitmap conversions in org.opencv.android.Utils
+//
+#include "cvnative.h"
+
+#include <android/bitmap.h>
+
+#include "opencv2/imgproc.hpp"
+
+// Mat layouts, must match Utils.java
+enum {
+    LAYOUT_RGBA = 0,
+    LAYOUT_BGR = 1,
+    LAYOUT_GRAY = 2
+};
+
+// Color conversion from the Bitmap pixels to a layout, -1 if the pixels only need a copy
+static int toLayoutCode(int32_t format, int layout)
+{
+    if (format == ANDROID_BITMAP_FORMAT_RGBA_8888) {
+        switch (layout) {
+        case LAYOUT_BGR:  return cv::COLOR_RGBA2BGR;
+        case LAYOUT_GRAY: return cv::COLOR_RGBA2GRAY;
+        default:          return -1;
+        }
+    }
+    switch (layout) {
+    case LAYOUT_BGR:  return cv::COLOR_BGR5652BGR;
+    case LAYOUT_GRAY: return cv::COLOR_BGR5652GRAY;
+    default:          return cv::COLOR_BGR5652RGBA;
+    }
+}
+
+// Color conversion from a layout to the Bitmap pixels, -1 if the pixels only need a copy
+static int fromLayoutCode(int32_t format, int layout)
+{
+    if (format == ANDROID_BITMAP_FORMAT_RGBA_8888) {
+        switch (layout) {
+        case LAYOUT_BGR:  return cv::COLOR_BGR2RGBA;
+        case LAYOUT_GRAY: return cv::COLOR_GRAY2RGBA;
+        default:          return -1;
+        }
+    }
+    switch (layout) {
+    case LAYOUT_BGR:  return cv::COLOR_BGR2BGR565;
+    case LAYOUT_GRAY: return cv::COLOR_GRAY2BGR565;
+    default:          return cv::COLOR_RGBA2BGR565;
+    }
+}
+
+static void convert(const cv::Mat& src, cv::Mat& dst, int code)
+{
+    if (code < 0)
+        src.copyTo(dst);
+    else
+        cv::cvtColor(src, dst, code);
+}
+
+// Locks the Bitmap pixels and wraps them in a Mat header, unlocking again when it goes away
+class LockedBitmap {
+public:
+    LockedBitmap(JNIEnv* env, jobject bitmap) : env(env), bitmap(bitmap), pixels(0) {
+        CV_Assert(AndroidBitmap_getInfo(env, bitmap, &info) >= 0);
+        CV_Assert(info.format == ANDROID_BITMAP_FORMAT_RGBA_8888 || info.format == ANDROID_BITMAP_FORMAT_RGB_565);
+        void* locked = 0;
+        CV_Assert(AndroidBitmap_lockPixels(env, bitmap, &locked) >= 0);
+        // the destructor does not run if the constructor throws, so unlock here until all is set
+        try {
+            CV_Assert(locked);
+            mat = cv::Mat(info.height, info.width, info.format == ANDROID_BITMAP_FORMAT_RGBA_8888 ? CV_8UC4 : CV_8UC2,
+                          locked, info.stride);
+        } catch (...) {
+            AndroidBitmap_unlockPixels(env, bitmap);
+            throw;
+        }
+        pixels = locked;
+    }
+
+    ~LockedBitmap() {
+        if (pixels)
+            AndroidBitmap_unlockPixels(env, bitmap);
+    }
+
+private:
+    JNIEnv* env;
+    jobject bitmap;
+    void* pixels;
+
+public:
+    AndroidBitmapInfo info;
+    cv::Mat mat;
+};
+
+extern "C" {
+
+JNIEXPORT void JNICALL Java_org_opencv_android_Utils_nBitmapToMatLayout
+  (JNIEnv* env, jclass, jobject bitmap, jlong m_addr, jint layout, jint width, jint height, jlong scratch_addr)
+{
+    static const char method_name[] = "android::Utils_nBitmapToMatLayout()";
+    try {
+        LockedBitmap src(env, bitmap);
+        cv::Mat& dst = *((cv::Mat*) m_addr);
+        cv::Mat& scratch = *((cv::Mat*) scratch_addr);
+        int code = toLayoutCode(src.info.format, layout);
+        cv::Size dsize(width, height);
+
+        if (width <= 0 || height <= 0 || dsize == src.mat.size()) {
+            convert(src.mat, dst, code);
+        } else if (src.info.format == ANDROID_BITMAP_FORMAT_RGB_565) {
+            // packed 565 pixels cannot be interpolated, convert at full size first
+            convert(src.mat, scratch, code);
+            cv::resize(scratch, dst, dsize, 0, 0, cv::INTER_AREA);
+        } else if (code < 0) {
+            cv::resize(src.mat, dst, dsize, 0, 0, cv::INTER_AREA);
+        } else {
+            // shrink first so the color conversion only runs on the small image
+            cv::resize(src.mat, scratch, dsize, 0, 0, cv::INTER_AREA);
+            cv::cvtColor(scratch, dst, code);
+        }
+    } catch(const std::exception &e) {
+        throwJavaException(env, &e, method_name);
+    } catch (...) {
+        throwJavaException(env, 0, method_name);
+    }
+}
+
+JNIEXPORT void JNICALL Java_org_opencv_android_Utils_nMatToBitmapLayout
+  (JNIEnv* env, jclass, jlong m_addr, jobject bitmap, jint layout, jlong scratch_addr)
+{
+    static const char method_name[] = "android::Utils_nMatToBitmapLayout()";
+    try {
+        LockedBitmap dst(env, bitmap);
+        const cv::Mat& src = *((cv::Mat*) m_addr);
+        cv::Mat& scratch = *((cv::Mat*) scratch_addr);
+        int code = fromLayoutCode(dst.info.format, layout);
+        int channels = (layout == LAYOUT_RGBA) ? 4 : (layout == LAYOUT_BGR) ? 3 : 1;
+        CV_Assert(src.type() == CV_MAKETYPE(CV_8U, channels));
+
+        // dst.mat already has the size and type of the Bitmap, so the functions below write
+        // into the Bitmap pixels instead of reallocating
+        if (src.size() == dst.mat.size()) {
+            convert(src, dst.mat, code);
+        } else if (code < 0) {
+            cv::resize(src, dst.mat, dst.mat.size(), 0, 0, cv::INTER_AREA);
+        } else {
+            cv::resize(src, scratch, dst.mat.size(), 0, 0, cv::INTER_AREA);
+            cv::cvtColor(scratch, dst.mat, code);
+        }
+    } catch(const std::exception &e) {
+        throwJavaException(env, &e, method_name);
+    } catch (...) {
+        throwJavaException(env, 0, method_name);
+    }
+}
+
+} // extern "C"
@@ -0,0 +1,116 @@
+//
+// Native support for the ByteBuffer and byte[] variants of Imgcodecs.imdecode() and imencode()
+//
+#include "cvnative.h"
+
+#include <vector>
+
+#include "opencv2/imgcodecs.hpp"
+
+// Decodes into dst, leaving it empty if the bytes are not an image
+static void decode(const cv::Mat& encoded, int flags, cv::Mat* dst)
+{
+    if (encoded.empty() || cv::imdecode(encoded, flags, dst).empty())
+        dst->release();
+}
+
+// Encodes with the parameters of a MatOfInt, 0 if there are none
+static void encode(JNIEnv* env, jstring ext, jlong img, jlong params, std::vector<uchar>& out)
+{
+    std::vector<int> p;
+    if (params) {
+        cv::Mat& m = *((cv::Mat*) params);
+        for (int i = 0; i < m.rows; i++)
+            p.push_back(m.at<int>(i, 0));
+    }
+    const char* utf = env->GetStringUTFChars(ext, 0);
+    std::string e(utf);
+    env->ReleaseStringUTFChars(ext, utf);
+    CV_Assert(cv::imencode(e, *((cv::Mat*) img), out, p));
+}
+
+extern "C" {
+
+JNIEXPORT void JNICALL Java_org_opencv_imgcodecs_Imgcodecs_n_1imdecodeBuffer
+  (JNIEnv* env, jclass, jobject buf, jint offset, jint length, jint flags, jlong dst)
+{
+    static const char method_name[] = "imgcodecs::Imgcodecs_n_1imdecodeBuffer()";
+    try {
+        uchar* data = (uchar*) env->GetDirectBufferAddress(buf);
+        CV_Assert(data);
+        decode(cv::Mat(1, length, CV_8UC1, data + offset), flags, (cv::Mat*) dst);
+    } catch(const std::exception &e) {
+        throwJavaException(env, &e, method_name);
+    } catch (...) {
+        throwJavaException(env, 0, method_name);
+    }
+}
+
+// The bytes are copied into native memory first. Pinning the array with
+// GetPrimitiveArrayCritical for the whole decode would block the garbage collector
+// and other JNI calls of every thread for as long as the decoder runs.
+JNIEXPORT void JNICALL Java_org_opencv_imgcodecs_Imgcodecs_n_1imdecodeArray
+  (JNIEnv* env, jclass, jbyteArray buf, jint offset, jint length, jint flags, jlong dst)
+{
+    static const char method_name[] = "imgcodecs::Imgcodecs_n_1imdecodeArray()";
+    try {
+        cv::Mat encoded;
+        if (length > 0) {
+            encoded.create(1, length, CV_8UC1);
+            env->GetByteArrayRegion(buf, offset, length, (jbyte*) encoded.data);
+            if (env->ExceptionCheck())
+                return;
+        }
+        decode(encoded, flags, (cv::Mat*) dst);
+    } catch(const std::exception &e) {
+        throwJavaException(env, &e, method_name);
+    } catch (...) {
+        throwJavaException(env, 0, method_name);
+    }
+}
+
+// Returns the number of bytes written or -1 if they do not fit. OpenCV encoders always write
+// into a std::vector, so the encoded bytes are copied once from there into the buffer.
+JNIEXPORT jint JNICALL Java_org_opencv_imgcodecs_Imgcodecs_n_1imencodeBuffer
+  (JNIEnv* env, jclass, jstring ext, jlong img, jobject buf, jint offset, jint capacity, jlong params)
+{
+    static const char method_name[] = "imgcodecs::Imgcodecs_n_1imencodeBuffer()";
+    try {
+        uchar* data = (uchar*) env->GetDirectBufferAddress(buf);
+        CV_Assert(data);
+        std::vector<uchar> out;
+        encode(env, ext, img, params, out);
+        if (out.size() > (size_t) capacity)
+            return -1;
+        if (!out.empty())
+            memcpy(data + offset, &out[0], out.size());
+        return (jint) out.size();
+    } catch(const std::exception &e) {
+        throwJavaException(env, &e, method_name);
+    } catch (...) {
+        throwJavaException(env, 0, method_name);
+    }
+    return 0;
+}
+
+JNIEXPORT jint JNICALL Java_org_opencv_imgcodecs_Imgcodecs_n_1imencodeArray
+  (JNIEnv* env, jclass, jstring ext, jlong img, jbyteArray buf, jint offset, jint capacity, jlong params)
+{
+    static const char method_name[] = "imgcodecs::Imgcodecs_n_1imencodeArray()";
+    try {
+        std::vector<uchar> out;
+        encode(env, ext, img, params, out);
+        if (out.size() > (size_t) capacity)
+            return -1;
+        if (!out.empty())
+            env->SetByteArrayRegion(buf, offset, (jsize) out.size(), (const jbyte*) &out[0]);
+        return (jint) out.size();
+    } catch(const std::exception &e) {
+        throwJavaException(env, &e, method_name);
+    } catch (...) {
+        throwJavaException(env, 0, method_name);
+    }
+    return 0;
+}
+
+} // extern "C"
@@ -0,0 +1,62 @@
+//
+// Native support for org.opencv.core.MatBuffer
+//
+#include "cvnative.h"
+
+extern "C" {
+
+// Creates a second header for the Mat so its pixel data stays allocated until the MatBuffer is
+// closed, even if the Mat itself is released or reallocated
+JNIEXPORT jlong JNICALL Java_org_opencv_core_MatBuffer_n_1retain
+  (JNIEnv* env, jclass, jlong self)
+{
+    static const char method_name[] = "core::MatBuffer_n_1retain()";
+    try {
+        cv::Mat* me = (cv::Mat*) self;
+        return (jlong) new cv::Mat(*me);
+    } catch(const std::exception &e) {
+        throwJavaException(env, &e, method_name);
+    } catch (...) {
+        throwJavaException(env, 0, method_name);
+    }
+    return 0;
+}
+
+// Wraps the pixel data of a retained, continuous header in a direct ByteBuffer without copying
+JNIEXPORT jobject JNICALL Java_org_opencv_core_MatBuffer_n_1buffer
+  (JNIEnv* env, jclass, jlong self)
+{
+    cv::Mat* me = (cv::Mat*) self;
+    if (me->empty() || !me->isContinuous())
+        return NULL;
+    return env->NewDirectByteBuffer(me->data, (jlong)(me->total() * me->elemSize()));
+}
+
+// Drops the retained header, freeing the pixel data if nothing else uses it
+JNIEXPORT void JNICALL Java_org_opencv_core_MatBuffer_n_1delete
+  (JNIEnv*, jclass, jlong self)
+{
+    delete (cv::Mat*) self;
+}
+
+// Copies between the data of a continuous Mat and a direct buffer, the Java side checked the sizes
+JNIEXPORT void JNICALL Java_org_opencv_core_MatBuffer_n_1copy
+  (JNIEnv* env, jclass, jlong self, jobject buffer, jlong offset, jlong bytes, jboolean toMat)
+{
+    static const char method_name[] = "core::MatBuffer_n_1copy()";
+    try {
+        cv::Mat* me = (cv::Mat*) self;
+        uchar* data = (uchar*) env->GetDirectBufferAddress(buffer);
+        CV_Assert(data != NULL && me->isContinuous() && (size_t) bytes <= me->total() * me->elemSize());
+        if (toMat)
+            memcpy(me->data, data + offset, (size_t) bytes);
+        else
+            memcpy(data + offset, me->data, (size_t) bytes);
+    } catch(const std::exception &e) {
+        throwJavaException(env, &e, method_name);
+    } catch (...) {
+        throwJavaException(env, 0, method_name);
+    }
+}
+
+} // extern "C"
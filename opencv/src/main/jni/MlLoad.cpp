@@ -0,0 +1,67 @@
+//
+// Native support for RTrees.load() and KNearest.load(), which the generated wrappers only offer
+// for SVM and ANN_MLP, and for RTrees.getTreeCount()
+//
+#include "cvnative.h"
+
+#include "opencv2/ml.hpp"
+
+// Loads a model the way the generated SVM.load() does and returns it as the Ptr the generated
+// wrappers use as nativeObj
+template<typename T>
+static jlong loadModel(JNIEnv* env, jstring filepath)
+{
+    const char* utf = env->GetStringUTFChars(filepath, 0);
+    std::string path(utf);
+    env->ReleaseStringUTFChars(filepath, utf);
+    cv::Ptr<T> model = cv::Algorithm::load<T>(path);
+    CV_Assert(!model.empty());
+    return (jlong) new cv::Ptr<T>(model);
+}
+
+extern "C" {
+
+JNIEXPORT jlong JNICALL Java_org_opencv_ml_RTrees_n_1load
+  (JNIEnv* env, jclass, jstring filepath)
+{
+    static const char method_name[] = "ml::RTrees_n_1load()";
+    try {
+        return loadModel<cv::ml::RTrees>(env, filepath);
+    } catch(const std::exception &e) {
+        throwJavaException(env, &e, method_name);
+    } catch (...) {
+        throwJavaException(env, 0, method_name);
+    }
+    return 0;
+}
+
+JNIEXPORT jlong JNICALL Java_org_opencv_ml_KNearest_n_1load
+  (JNIEnv* env, jclass, jstring filepath)
+{
+    static const char method_name[] = "ml::KNearest_n_1load()";
+    try {
+        return loadModel<cv::ml::KNearest>(env, filepath);
+    } catch(const std::exception &e) {
+        throwJavaException(env, &e, method_name);
+    } catch (...) {
+        throwJavaException(env, 0, method_name);
+    }
+    return 0;
+}
+
+JNIEXPORT jint JNICALL Java_org_opencv_ml_RTrees_n_1getTreeCount
+  (JNIEnv* env, jclass, jlong self)
+{
+    static const char method_name[] = "ml::RTrees_n_1getTreeCount()";
+    try {
+        cv::Ptr<cv::ml::RTrees>* me = (cv::Ptr<cv::ml::RTrees>*) self;
+        return (jint) (*me)->getRoots().size();
+    } catch(const std::exception &e) {
+        throwJavaException(env, &e, method_name);
+    } catch (...) {
+        throwJavaException(env, 0, method_name);
+    }
+    return 0;
+}
+
+} // extern "C"
@@ -0,0 +1,166 @@
+//
+// Native support for org.opencv.utils.OpGraph
+//
+#include "cvnative.h"
+
+#include <android/bitmap.h>
+#include <vector>
+
+#include "opencv2/imgproc.hpp"
+#include "opencv2/imgcodecs.hpp"
+
+// operation codes and argument count, must match OpGraph.java
+enum {
+    OP_CVT_COLOR = 1,
+    OP_RESIZE = 2,
+    OP_CONVERT_TO = 3,
+    OP_GAUSSIAN_BLUR = 4,
+    OP_FLIP = 5,
+    OP_ROI = 6,
+    OP_IMENCODE = 7
+};
+static const int ARGS_PER_OP = 5;
+
+struct OpGraph {
+    std::vector<int> ops;
+    std::vector<double> args;
+    std::string ext;
+    std::vector<int> params;
+    std::vector<cv::Mat> scratch;       // output of every operation, kept between frames
+    std::vector<uchar> encoded;         // output of imencode, keeps its capacity between frames
+    cv::Mat rgba;                       // RGB_565 bitmaps converted to RGBA
+};
+
+// Runs all operations, the last one writes straight into dst when it can
+static void runGraph(OpGraph* g, const cv::Mat& src, cv::Mat& dst)
+{
+    cv::Mat cur = src;
+    size_t n = g->ops.size();
+    for (size_t i = 0; i < n; i++) {
+        const double* a = &g->args[i * ARGS_PER_OP];
+        cv::Mat& out = (i == n - 1) ? dst : g->scratch[i];
+        switch (g->ops[i]) {
+        case OP_CVT_COLOR:
+            cv::cvtColor(cur, out, (int) a[0]);
+            break;
+        case OP_RESIZE:
+            cv::resize(cur, out, cv::Size((int) a[0], (int) a[1]), a[2], a[3], (int) a[4]);
+            break;
+        case OP_CONVERT_TO:
+            cur.convertTo(out, (int) a[0], a[1], a[2]);
+            break;
+        case OP_GAUSSIAN_BLUR:
+            cv::GaussianBlur(cur, out, cv::Size((int) a[0], (int) a[1]), a[2], a[3]);
+            break;
+        case OP_FLIP:
+            cv::flip(cur, out, (int) a[0]);
+            break;
+        case OP_ROI:
+            cur = cur(cv::Rect((int) a[0], (int) a[1], (int) a[2], (int) a[3]));
+            continue;
+        case OP_IMENCODE:
+            cv::imencode(g->ext, cur, g->encoded, g->params);
+            out.create((int) g->encoded.size(), 1, CV_8UC1);
+            if (!g->encoded.empty())
+                memcpy(out.data, &g->encoded[0], g->encoded.size());
+            break;
+        default:
+            CV_Error(cv::Error::StsBadArg, "Unknown OpGraph operation");
+        }
+        cur = out;
+    }
+    // an empty graph or one ending in a region still has to hand its pixels over
+    if (cur.data != dst.data || cur.size() != dst.size() || cur.type() != dst.type())
+        cur.copyTo(dst);
+}
+
+extern "C" {
+
+JNIEXPORT jlong JNICALL Java_org_opencv_utils_OpGraph_n_1create
+  (JNIEnv* env, jclass, jintArray ops, jdoubleArray args, jstring ext, jintArray params)
+{
+    static const char method_name[] = "utils::OpGraph_n_1create()";
+    try {
+        OpGraph* g = new OpGraph();
+        jsize n = env->GetArrayLength(ops);
+        g->ops.resize(n);
+        g->args.resize(n * ARGS_PER_OP);
+        g->scratch.resize(n);
+        if (n > 0) {
+            env->GetIntArrayRegion(ops, 0, n, &g->ops[0]);
+            env->GetDoubleArrayRegion(args, 0, n * ARGS_PER_OP, &g->args[0]);
+        }
+        if (ext) {
+            const char* utf = env->GetStringUTFChars(ext, 0);
+            g->ext = utf;
+            env->ReleaseStringUTFChars(ext, utf);
+        }
+        if (params) {
+            jsize np = env->GetArrayLength(params);
+            g->params.resize(np);
+            if (np > 0)
+                env->GetIntArrayRegion(params, 0, np, &g->params[0]);
+        }
+        return (jlong) g;
+    } catch(const std::exception &e) {
+        throwJavaException(env, &e, method_name);
+    } catch (...) {
+        throwJavaException(env, 0, method_name);
+    }
+    return 0;
+}
+
+JNIEXPORT void JNICALL Java_org_opencv_utils_OpGraph_n_1run
+  (JNIEnv* env, jclass, jlong self, jlong src, jlong dst)
+{
+    static const char method_name[] = "utils::OpGraph_n_1run()";
+    try {
+        runGraph((OpGraph*) self, *((cv::Mat*) src), *((cv::Mat*) dst));
+    } catch(const std::exception &e) {
+        throwJavaException(env, &e, method_name);
+    } catch (...) {
+        throwJavaException(env, 0, method_name);
+    }
+}
+
+// Wraps the locked Bitmap pixels in a Mat header, so an ARGB_8888 Bitmap is never copied
+JNIEXPORT void JNICALL Java_org_opencv_utils_OpGraph_n_1runBitmap
+  (JNIEnv* env, jclass, jlong self, jobject bitmap, jlong dst)
+{
+    static const char method_name[] = "utils::OpGraph_n_1runBitmap()";
+    OpGraph* g = (OpGraph*) self;
+    AndroidBitmapInfo info;
+    void* pixels = 0;
+    try {
+        CV_Assert(AndroidBitmap_getInfo(env, bitmap, &info) >= 0);
+        CV_Assert(info.format == ANDROID_BITMAP_FORMAT_RGBA_8888 || info.format == ANDROID_BITMAP_FORMAT_RGB_565);
+        CV_Assert(AndroidBitmap_lockPixels(env, bitmap, &pixels) >= 0);
+        CV_Assert(pixels);
+        if (info.format == ANDROID_BITMAP_FORMAT_RGBA_8888) {
+            cv::Mat src(info.height, info.width, CV_8UC4, pixels, info.stride);
+            runGraph(g, src, *((cv::Mat*) dst));
+        } else {
+            cv::Mat src(info.height, info.width, CV_8UC2, pixels, info.stride);
+            cv::cvtColor(src, g->rgba, cv::COLOR_BGR5652RGBA);
+            runGraph(g, g->rgba, *((cv::Mat*) dst));
+        }
+        AndroidBitmap_unlockPixels(env, bitmap);
+        return;
+    } catch(const std::exception &e) {
+        if (pixels)
+            AndroidBitmap_unlockPixels(env, bitmap);
+        throwJavaException(env, &e, method_name);
+    } catch (...) {
+        if (pixels)
+            AndroidBitmap_unlockPixels(env, bitmap);
+        throwJavaException(env, 0, method_name);
+    }
+}
+
+JNIEXPORT void JNICALL Java_org_opencv_utils_OpGraph_n_1delete
+  (JNIEnv*, jclass, jlong self)
+{
+    delete (OpGraph*) self;
+}
+
+} // extern "C"
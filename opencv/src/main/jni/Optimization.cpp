@@ -0,0 +1,28 @@
+//
+// Native support for Core.setUseOptimized() and Core.useOptimized(), which the generated
+// wrappers do not expose
+//
+#include "cvnative.h"
+
+extern "C" {
+
+JNIEXPORT void JNICALL Java_org_opencv_core_Core_n_1setUseOptimized
+  (JNIEnv* env, jclass, jboolean onoff)
+{
+    static const char method_name[] = "core::Core_n_1setUseOptimized()";
+    try {
+        cv::setUseOptimized(onoff != JNI_FALSE);
+    } catch(const std::exception &e) {
+        throwJavaException(env, &e, method_name);
+    } catch (...) {
+        throwJavaException(env, 0, method_name);
+    }
+}
+
+JNIEXPORT jboolean JNICALL Java_org_opencv_core_Core_n_1useOptimized
+  (JNIEnv*, jclass)
+{
+    return cv::useOptimized() ? JNI_TRUE : JNI_FALSE;
+}
+
+} // extern "C"
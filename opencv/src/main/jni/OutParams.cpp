@@ -0,0 +1,205 @@
+//
+// Native support for the out-parameter overloads in Mat, Core, Imgproc and Imgcodecs. They write
+// into objects the caller already owns instead of returning new ones.
+//
+#include "cvnative.h"
+
+#include <algorithm>
+
+#include "opencv2/imgproc.hpp"
+#include "opencv2/imgcodecs.hpp"
+
+// Copies up to 4 channel values into a Java double array. The Java side checks the array, the
+// assert only keeps a null from crashing the process.
+static void setScalar(JNIEnv* env, jdoubleArray out, const cv::Scalar& s)
+{
+    CV_Assert(out != 0);
+    jsize n = std::min(env->GetArrayLength(out), (jsize) 4);
+    env->SetDoubleArrayRegion(out, 0, n, s.val);
+}
+
+// Field IDs used by the out-parameter calls, looked up once. They stay valid while the classes
+// are loaded, which is as long as this library is, so concurrent first calls only store the same
+// values twice.
+static jfieldID minValId, maxValId, minLocId, maxLocId, pointXId, pointYId;
+static jfieldID rectXId, rectYId, rectWidthId, rectHeightId;
+
+static void initMinMaxLocFields(JNIEnv* env, jobject result)
+{
+    if (pointYId)
+        return;
+    jclass resultClass = env->GetObjectClass(result);
+    minValId = env->GetFieldID(resultClass, "minVal", "D");
+    maxValId = env->GetFieldID(resultClass, "maxVal", "D");
+    minLocId = env->GetFieldID(resultClass, "minLoc", "Lorg/opencv/core/Point;");
+    maxLocId = env->GetFieldID(resultClass, "maxLoc", "Lorg/opencv/core/Point;");
+    env->DeleteLocalRef(resultClass);
+    jclass pointClass = env->FindClass("org/opencv/core/Point");
+    pointXId = env->GetFieldID(pointClass, "x", "D");
+    jfieldID y = env->GetFieldID(pointClass, "y", "D");
+    env->DeleteLocalRef(pointClass);
+    CV_Assert(minValId && maxValId && minLocId && maxLocId && pointXId && y);
+    pointYId = y;
+}
+
+static void initRectFields(JNIEnv* env, jobject rect)
+{
+    if (rectHeightId)
+        return;
+    jclass rectClass = env->GetObjectClass(rect);
+    rectXId = env->GetFieldID(rectClass, "x", "I");
+    rectYId = env->GetFieldID(rectClass, "y", "I");
+    rectWidthId = env->GetFieldID(rectClass, "width", "I");
+    jfieldID height = env->GetFieldID(rectClass, "height", "I");
+    env->DeleteLocalRef(rectClass);
+    CV_Assert(rectXId && rectYId && rectWidthId && height);
+    rectHeightId = height;
+}
+
+extern "C" {
+
+JNIEXPORT void JNICALL Java_org_opencv_core_Mat_n_1submatInto
+  (JNIEnv* env, jclass, jlong self, jint rowStart, jint rowEnd, jint colStart, jint colEnd, jlong dst)
+{
+    static const char method_name[] = "core::Mat_n_1submatInto()";
+    try {
+        cv::Mat* me = (cv::Mat*) self;
+        *((cv::Mat*) dst) = (*me)(cv::Range(rowStart, rowEnd), cv::Range(colStart, colEnd));
+    } catch(const std::exception &e) {
+        throwJavaException(env, &e, method_name);
+    } catch (...) {
+        throwJavaException(env, 0, method_name);
+    }
+}
+
+JNIEXPORT void JNICALL Java_org_opencv_core_Mat_n_1rowInto
+  (JNIEnv* env, jclass, jlong self, jint y, jlong dst)
+{
+    static const char method_name[] = "core::Mat_n_1rowInto()";
+    try {
+        *((cv::Mat*) dst) = ((cv::Mat*) self)->row(y);
+    } catch(const std::exception &e) {
+        throwJavaException(env, &e, method_name);
+    } catch (...) {
+        throwJavaException(env, 0, method_name);
+    }
+}
+
+JNIEXPORT void JNICALL Java_org_opencv_core_Mat_n_1colInto
+  (JNIEnv* env, jclass, jlong self, jint x, jlong dst)
+{
+    static const char method_name[] = "core::Mat_n_1colInto()";
+    try {
+        *((cv::Mat*) dst) = ((cv::Mat*) self)->col(x);
+    } catch(const std::exception &e) {
+        throwJavaException(env, &e, method_name);
+    } catch (...) {
+        throwJavaException(env, 0, method_name);
+    }
+}
+
+JNIEXPORT void JNICALL Java_org_opencv_core_Core_n_1meanInto
+  (JNIEnv* env, jclass, jlong src, jlong mask, jdoubleArray out)
+{
+    static const char method_name[] = "core::Core_n_1meanInto()";
+    try {
+        cv::Scalar s = mask ? cv::mean(*((cv::Mat*) src), *((cv::Mat*) mask)) : cv::mean(*((cv::Mat*) src));
+        setScalar(env, out, s);
+    } catch(const std::exception &e) {
+        throwJavaException(env, &e, method_name);
+    } catch (...) {
+        throwJavaException(env, 0, method_name);
+    }
+}
+
+JNIEXPORT void JNICALL Java_org_opencv_core_Core_n_1sumElemsInto
+  (JNIEnv* env, jclass, jlong src, jdoubleArray out)
+{
+    static const char method_name[] = "core::Core_n_1sumElemsInto()";
+    try {
+        setScalar(env, out, cv::sum(*((cv::Mat*) src)));
+    } catch(const std::exception &e) {
+        throwJavaException(env, &e, method_name);
+    } catch (...) {
+        throwJavaException(env, 0, method_name);
+    }
+}
+
+JNIEXPORT void JNICALL Java_org_opencv_core_Core_n_1minMaxLocInto
+  (JNIEnv* env, jclass, jlong src, jlong mask, jobject out)
+{
+    static const char method_name[] = "core::Core_n_1minMaxLocInto()";
+    try {
+        double minVal, maxVal;
+        cv::Point minLoc, maxLoc;
+        if (mask)
+            cv::minMaxLoc(*((cv::Mat*) src), &minVal, &maxVal, &minLoc, &maxLoc, *((cv::Mat*) mask));
+        else
+            cv::minMaxLoc(*((cv::Mat*) src), &minVal, &maxVal, &minLoc, &maxLoc);
+
+        initMinMaxLocFields(env, out);
+        env->SetDoubleField(out, minValId, minVal);
+        env->SetDoubleField(out, maxValId, maxVal);
+
+        jobject minPoint = env->GetObjectField(out, minLocId);
+        jobject maxPoint = env->GetObjectField(out, maxLocId);
+        env->SetDoubleField(minPoint, pointXId, minLoc.x);
+        env->SetDoubleField(minPoint, pointYId, minLoc.y);
+        env->SetDoubleField(maxPoint, pointXId, maxLoc.x);
+        env->SetDoubleField(maxPoint, pointYId, maxLoc.y);
+        env->DeleteLocalRef(minPoint);
+        env->DeleteLocalRef(maxPoint);
+    } catch(const std::exception &e) {
+        throwJavaException(env, &e, method_name);
+    } catch (...) {
+        throwJavaException(env, 0, method_name);
+    }
+}
+
+JNIEXPORT void JNICALL Java_org_opencv_imgproc_Imgproc_n_1getRotationMatrix2DInto
+  (JNIEnv* env, jclass, jdouble center_x, jdouble center_y, jdouble angle, jdouble scale, jlong out)
+{
+    static const char method_name[] = "imgproc::Imgproc_n_1getRotationMatrix2DInto()";
+    try {
+        cv::getRotationMatrix2D(cv::Point2f((float) center_x, (float) center_y), angle, scale).copyTo(*((cv::Mat*) out));
+    } catch(const std::exception &e) {
+        throwJavaException(env, &e, method_name);
+    } catch (...) {
+        throwJavaException(env, 0, method_name);
+    }
+}
+
+JNIEXPORT void JNICALL Java_org_opencv_imgproc_Imgproc_n_1boundingRectInto
+  (JNIEnv* env, jclass, jlong points, jobject out)
+{
+    static const char method_name[] = "imgproc::Imgproc_n_1boundingRectInto()";
+    try {
+        cv::Rect r = cv::boundingRect(*((cv::Mat*) points));
+        initRectFields(env, out);
+        env->SetIntField(out, rectXId, r.x);
+        env->SetIntField(out, rectYId, r.y);
+        env->SetIntField(out, rectWidthId, r.width);
+        env->SetIntField(out, rectHeightId, r.height);
+    } catch(const std::exception &e) {
+        throwJavaException(env, &e, method_name);
+    } catch (...) {
+        throwJavaException(env, 0, method_name);
+    }
+}
+
+JNIEXPORT void JNICALL Java_org_opencv_imgcodecs_Imgcodecs_n_1imdecodeInto
+  (JNIEnv* env, jclass, jlong buf, jint flags, jlong dst)
+{
+    static const char method_name[] = "imgcodecs::Imgcodecs_n_1imdecodeInto()";
+    try {
+        cv::Mat* out = (cv::Mat*) dst;
+        if (cv::imdecode(*((cv::Mat*) buf), flags, out).empty())
+            out->release();
+    } catch(const std::exception &e) {
+        throwJavaException(env, &e, method_name);
+    } catch (...) {
+        throwJavaException(env, 0, method_name);
+    }
+}
+
+} // extern "C"
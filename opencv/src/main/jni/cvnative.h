@@ -0,0 +1,37 @@
+//
+// Shared helpers for the native code in the CVnative library
+//
+#ifndef CVNATIVE_H
+#define CVNATIVE_H
+
+#include <jni.h>
+#include <exception>
+#include <string>
+
+#include "opencv2/core.hpp"
+
+// Rethrows a C++ exception as org.opencv.core.CvException, or java.lang.Exception if it is not
+// an OpenCV one, the same way the generated OpenCV wrappers do
+static inline void throwJavaException(JNIEnv *env, const std::exception *e, const char *method)
+{
+    std::string what = "unknown exception";
+    jclass je = 0;
+
+    if (e) {
+        std::string exception_type = "std::exception";
+
+        if (dynamic_cast<const cv::Exception*>(e)) {
+            exception_type = "cv::Exception";
+            je = env->FindClass("org/opencv/core/CvException");
+        }
+
+        what = exception_type + ": " + e->what();
+    }
+
+    if (!je) je = env->FindClass("java/lang/Exception");
+    env->ThrowNew(je, what.c_str());
+
+    (void)method;
+}
+
+#endif // CVNATIVE_H